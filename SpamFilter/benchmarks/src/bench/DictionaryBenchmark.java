@@ -0,0 +1,88 @@
+package classifier.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classifier.utils.FilterFileReader;
+import classifier.utils.FrontCodedDictionary;
+import classifier.utils.Word;
+
+/**
+ * Measures the latency of a single word lookup in the vocabulary hashmap and 
+ * in the front-coded dictionary, cycling through a fixed set of words, half 
+ * of which are in the vocabulary.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+
+	@Param({"10000", "100000"})
+	public int vocabularySize;
+	
+	private HashMap<String, String> vocabulary;
+	private FrontCodedDictionary dictionary;
+	private String[] lookups;
+	private int next;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		File filterFile = Fixtures.writeFilter(vocabularySize);
+		
+		vocabulary = new HashMap<String, String>();
+		FilterFileReader reader = new FilterFileReader(filterFile);
+		Word entry;
+		while((entry = reader.next()) != null)
+		{
+			vocabulary.put(entry.getWord(), entry.getWord());
+		}
+		reader.close();
+		
+		dictionary = new FrontCodedDictionary(vocabulary.keySet());
+		
+		//Copy the words, so the lookups don't find the keys by reference
+		List<String> words = new ArrayList<String>(vocabulary.keySet());
+		Random random = new Random(vocabularySize);
+		lookups = new String[4096];
+		for(int i=0; i<lookups.length; i++)
+		{
+			String word = (i%2 == 0) ? words.get(random.nextInt(words.size())) : Fixtures.randomWord(random)+"x";
+			lookups[i] = new String(word.toCharArray());
+		}
+	}
+	
+	@Benchmark
+	public boolean hashMap()
+	{
+		next = (next+1) & (lookups.length-1);
+		return vocabulary.get(lookups[next]) != null;
+	}
+	
+	@Benchmark
+	public boolean frontCoded()
+	{
+		next = (next+1) & (lookups.length-1);
+		return dictionary.getId(lookups[next]) != -1;
+	}
+}
@@ -0,0 +1,60 @@
+package classifier.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classifier.filter.MessageClassifier;
+import classifier.filter.SpamFilter;
+
+/**
+ * Measures classifying each of the fixture messages end to end, i.e., 
+ * parsing, word lookup and scoring, against filters of different sizes.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+	@Param({"10000", "100000"})
+	public int vocabularySize;
+	
+	@Param({Fixtures.TEXT, Fixtures.MULTIPART, Fixtures.HTML, Fixtures.MALFORMED})
+	public String fixture;
+	
+	private SpamFilter filter;
+	private String rawText;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		File filterFile = Fixtures.writeFilter(vocabularySize);
+		filter = new SpamFilter(filterFile.getPath());
+		rawText = Fixtures.readMessage(fixture);
+	}
+	
+	/**
+	 * Classifies the raw message text.
+	 */
+	@Benchmark
+	public double classifyMessage()
+	{
+		MessageClassifier classifier = filter.classifyMessage(rawText);
+		return classifier.getConfidenceLevel();
+	}
+}
@@ -0,0 +1,100 @@
+package classifier.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import classifier.utils.Message;
+
+/**
+ * Loads the synthetic fixtures used by the benchmarks. The messages are read 
+ * from the fixtures directory, given by the fixtures.dir system property, and 
+ * the spam filter files are generated from a fixed seed, so that every run 
+ * measures exactly the same inputs. 
+ */
+
+public class Fixtures {
+
+	//The names of the fixture messages, without the .eml extension
+	public static final String TEXT = "text";
+	public static final String MULTIPART = "multipart";
+	public static final String HTML = "html";
+	public static final String MALFORMED = "malformed";
+	
+	private static final long SEED = 20110722L;
+	
+	/**
+	 * Reads one of the fixture messages.
+	 * 
+	 * @param name The name of the fixture, e.g., "text".
+	 * @return The raw message text.
+	 */
+	public static String readMessage(String name) throws IOException
+	{
+		File dir = new File(System.getProperty("fixtures.dir", "fixtures"));
+		byte[] bytes = Files.readAllBytes(new File(dir, name+".eml").toPath());
+		return new String(bytes, Charset.forName("ISO-8859-1"));
+	}
+	
+	/**
+	 * Writes a spam filter file, with the words of every fixture message 
+	 * followed by randomly generated words, up to the vocabulary size. The 
+	 * counts for each word are also random, but fixed by the seed.
+	 * 
+	 * @param vocabularySize The number of words in the filter.
+	 * @return The temporary filter file, deleted on exit.
+	 */
+	public static File writeFilter(int vocabularySize) throws IOException
+	{
+		Random random = new Random(SEED);
+		TreeSet<String> words = new TreeSet<String>();
+		
+		String[] names = {TEXT, MULTIPART, HTML, MALFORMED};
+		for(int i=0; i<names.length; i++)
+		{
+			words.addAll(new Message(readMessage(names[i])).getWordSet());
+		}
+		
+		while(words.size() < vocabularySize)
+		{
+			words.add(randomWord(random));
+		}
+		
+		File file = File.createTempFile("bench-filter", ".dat");
+		file.deleteOnExit();
+		
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write("5000|3000|400000|240000\n");
+		
+		Iterator<String> iterator = words.iterator();
+		while(iterator.hasNext())
+		{
+			int ham = random.nextInt(200);
+			int spam = random.nextInt(200);
+			double spamicity = (ham+spam == 0) ? 0.5 : ((double) spam)/(ham+spam);
+			writer.write(iterator.next()+"|"+ham+"|"+spam+"|"+(Math.round(spamicity*100)/100.0)+"\n");
+		}
+		writer.close();
+		
+		return file;
+	}
+	
+	/**
+	 * @return A random lower-case word of between 3 and 12 letters.
+	 */
+	public static String randomWord(Random random)
+	{
+		char[] chars = new char[3+random.nextInt(10)];
+		for(int i=0; i<chars.length; i++)
+		{
+			chars[i] = (char) ('a'+random.nextInt(26));
+		}
+		return new String(chars);
+	}
+}
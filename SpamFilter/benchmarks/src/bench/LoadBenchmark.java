@@ -0,0 +1,49 @@
+package classifier.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classifier.filter.SpamFilter;
+
+/**
+ * Measures loading a spam filter file of different sizes, i.e., reading 
+ * and parsing each line and building the word hashmap.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+	@Param({"10000", "100000"})
+	public int vocabularySize;
+	
+	private File filterFile;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		filterFile = Fixtures.writeFilter(vocabularySize);
+	}
+	
+	@Benchmark
+	public SpamFilter load()
+	{
+		return new SpamFilter(filterFile.getPath());
+	}
+}
@@ -0,0 +1,98 @@
+package classifier.bench;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classifier.utils.Message;
+
+/**
+ * Measures the parsing of a raw message, i.e., the MIME parsing, HTML 
+ * stripping and tokenizing done by the Message constructor, for each 
+ * of the fixture messages. 
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+	@Param({Fixtures.TEXT, Fixtures.MULTIPART, Fixtures.HTML, Fixtures.MALFORMED})
+	public String fixture;
+	
+	private String rawText;
+	
+	//The cleaned, space-delimited body text, for the unique words benchmark
+	private String bodyText;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		rawText = Fixtures.readMessage(fixture);
+		
+		//Strip the headers, and reduce the body to lower-case words separated by spaces
+		int index = rawText.indexOf("\n\n");
+		bodyText = (index == -1) ? rawText : rawText.substring(index+2);
+		bodyText = bodyText.toLowerCase().replaceAll("[^\\p{L}]+", " ").trim();
+	}
+	
+	/**
+	 * Constructs a Message from the raw text.
+	 */
+	@Benchmark
+	public Message parse()
+	{
+		return new Message(rawText);
+	}
+	
+	/**
+	 * Splits the cleaned body text into its set of unique words. The words are 
+	 * added to the message's own word set, which is emptied before each call.
+	 */
+	@Benchmark
+	public HashSet<String> getUniqueWords(WordSetState state)
+	{
+		return state.message.getUniqueWords(bodyText);
+	}
+	
+	/**
+	 * The message whose word set the unique words are added to. This is kept 
+	 * apart from the benchmark state, so that only the unique words benchmark 
+	 * pays for a setup before each call.
+	 */
+	@State(Scope.Thread)
+	public static class WordSetState {
+		
+		public Message message;
+		
+		@Setup
+		public void setup()
+		{
+			message = new Message("");
+		}
+		
+		/**
+		 * Empties the message's word set before each call, outside the measured time.
+		 */
+		@Setup(Level.Invocation)
+		public void clearWords()
+		{
+			message.getWordSet().clear();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package classifier.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classifier.filter.FilterParameters;
+import classifier.filter.MessageClassifier;
+import classifier.filter.QuantizedModel;
+import classifier.filter.SpamFilter;
+import classifier.utils.FilterFileReader;
+import classifier.utils.Word;
+
+/**
+ * Measures the lookup and scoring of a message's words with the HashMap of 
+ * Word objects and MessageClassifier, against the 8 and 16-bit quantized 
+ * models. The words are drawn from the whole vocabulary, with one in four 
+ * not in the filter, so the weights read are spread across the model.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantizedBenchmark {
+
+	@Param({"10000", "100000"})
+	public int vocabularySize;
+	
+	@Param({"50", "1000"})
+	public int messageWords;
+	
+	private List<String> wordSet;
+	private HashMap<String, Word> vocabulary;
+	private double probHam, probSpam;
+	private QuantizedModel model8, model16;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		File filterFile = Fixtures.writeFilter(vocabularySize);
+		SpamFilter filter = new SpamFilter(filterFile.getPath());
+		model8 = filter.getQuantizedModel(8);
+		model16 = filter.getQuantizedModel(16);
+		
+		//Read the same vocabulary into a hashmap of words, as the filter holds it
+		vocabulary = new HashMap<String, Word>();
+		FilterFileReader reader = new FilterFileReader(filterFile);
+		probSpam = ((double) reader.getSpamTotal())/((double) reader.getHamTotal()+reader.getSpamTotal());
+		probHam = 1.0-probSpam;
+		
+		Word word;
+		while((word = reader.next()) != null)
+		{
+			vocabulary.put(word.getWord(), word);
+		}
+		reader.close();
+		
+		List<String> words = new ArrayList<String>(vocabulary.keySet());
+		Random random = new Random(messageWords);
+		wordSet = new ArrayList<String>();
+		for(int i=0; i<messageWords; i++)
+		{
+			wordSet.add((i%4 == 0) ? Fixtures.randomWord(random)+"x" : words.get(random.nextInt(words.size())));
+		}
+	}
+	
+	@Benchmark
+	public double hashMap()
+	{
+		MessageClassifier classifier = new MessageClassifier(probHam, probSpam, FilterParameters.DEFAULT_SMOOTHING);
+		
+		for(int i=0; i<wordSet.size(); i++)
+		{
+			Word word = vocabulary.get(wordSet.get(i));
+			if(word != null)
+			{
+				classifier.addWord(word);
+			}
+		}
+		
+		return classifier.getConfidenceLevel();
+	}
+	
+	@Benchmark
+	public double quantized8()
+	{
+		return model8.getProbability(wordSet);
+	}
+	
+	@Benchmark
+	public double quantized16()
+	{
+		return model16.getProbability(wordSet);
+	}
+}
@@ -0,0 +1,68 @@
+package classifier.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import classifier.filter.MessageClassifier;
+import classifier.utils.Word;
+
+/**
+ * Measures the scoring done by the MessageClassifier, i.e., adding the 
+ * matched words and calculating the log-likelihood, for different numbers 
+ * of matched words. One in ten of the words has an extreme spamicity of 
+ * 0.0 or 1.0, so the smoothing is also exercised.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+
+	@Param({"10", "50", "200", "1000"})
+	public int matchedWords;
+	
+	private Word[] words;
+	
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(matchedWords);
+		words = new Word[matchedWords];
+		
+		for(int i=0; i<words.length; i++)
+		{
+			int ham = random.nextInt(200);
+			int spam = random.nextInt(200);
+			double spamicity = (i%10 == 0) ? ((i%20 == 0) ? 0.0 : 1.0) : (spam+1.0)/(ham+spam+2.0);
+			words[i] = new Word(Fixtures.randomWord(random), ham, spam, spamicity);
+		}
+	}
+	
+	@Benchmark
+	public double score()
+	{
+		MessageClassifier classifier = new MessageClassifier(0.6, 0.4);
+		
+		for(int i=0; i<words.length; i++)
+		{
+			classifier.addWord(words[i]);
+		}
+		
+		return classifier.getConfidenceLevel();
+	}
+}
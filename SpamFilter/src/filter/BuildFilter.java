@@ -31,19 +31,25 @@ package classifier.filter;
 
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
 import classifier.utils.Message;
 import classifier.utils.MonitorEvent;
 import classifier.utils.PerformanceMonitor;
+import classifier.utils.Pipeline;
+import classifier.utils.PipelineConfig;
+import classifier.utils.TokenCacheReader;
+import classifier.utils.TokenDictionary;
+import classifier.utils.TokenizedMessage;
+import classifier.utils.TrainingMessageEvent;
 import classifier.utils.Word;
 
 
@@ -63,6 +69,12 @@ public class BuildFilter implements PerformanceMonitor
 	//Event monitor for performance analysis. 
 	private MonitorEvent monitorEvent;						
 	
+	//The parameters used to prune the spam filter
+	private FilterParameters parameters;
+	
+	//The hashed model, built instead of the word list if set
+	private HashedModel hashedModel;
+	
 	/**
 	 * The BuildFilter class constructs a spam filter, by finding the 
 	 * total occurrences of words within SPAM/HAM messages. These totals,
@@ -89,6 +101,9 @@ public class BuildFilter implements PerformanceMonitor
 		//Setup the performance monitor event
 		monitorEvent = new MonitorEvent();
 		
+		//Use the default pruning parameters
+		parameters = new FilterParameters();
+		
 		//Read the input file
 		System.out.println("Processing file: "+inputFilename);			
 		File file = new File(inputFilename);
@@ -96,13 +111,21 @@ public class BuildFilter implements PerformanceMonitor
 		//If the file exists, parse it and build the spam filter
 		if(file.exists())
 		{
-			//Parse the training file, creating the hashmap
+			//Parse the training file (or token cache), creating the hashmap
 			monitorStart(monitorEvent);
-			parseTrainingFile(file);
+			if(TokenCacheReader.isCacheFile(file))
+			{
+				parseCacheFile(file);
+			}
+			else
+			{
+				parseTrainingFile(file);
+			}
 			monitorStop(monitorEvent);
 			
-			//Save this hashmap to file
+			//Save this hashmap to file, along with the unpruned counts
 			saveSpamFilter("spam-filter.dat");
+			saveWordCounts("spam-filter.dat"+".counts");
 		}
 		else
 		{
@@ -120,6 +143,20 @@ public class BuildFilter implements PerformanceMonitor
 	 * @param outputFilename The name of the output spam filter, by default spam-filter.dat.
 	 */
 	public BuildFilter(String inputFilename, String outputFilename)
+	{
+		this(inputFilename, outputFilename, 0);
+	}
+	
+	/**
+	 * Alternate constructor that builds a hashed model (see HashedModel) of 
+	 * 2^hashBits slots, rather than a vocabulary of words, so that the size 
+	 * of the filter is fixed regardless of the training data. 
+	 * 
+	 * @param inputFilename The name of the input training data (e.g., corpus.txt).
+	 * @param outputFilename The name of the output spam filter, by default spam-filter.dat.
+	 * @param hashBits The number of bits in the hashed model's slot index, or 0 for a vocabulary.
+	 */
+	public BuildFilter(String inputFilename, String outputFilename, int hashBits)
 	{
 		//Set the total and SPAM/HAM counters
 		messageCount = 0;
@@ -130,13 +167,20 @@ public class BuildFilter implements PerformanceMonitor
 		spamWordCount = 0;
 		hamWordCount = 0;
 		
-		//Initialize the word list
+		//Initialize the word list, or the hashed model
 		//wordList = new ConcurrentHashMap<String, Word>();
 		wordList = new HashMap<String, Word>();
+		if(hashBits > 0)
+		{
+			hashedModel = new HashedModel(hashBits);
+		}
 		
 		//Setup the performance monitor event
 		monitorEvent = new MonitorEvent();
 		
+		//Use the default pruning parameters
+		parameters = new FilterParameters();
+		
 		//Read the input file
 		System.out.println("Processing file: "+inputFilename);			
 		File file = new File(inputFilename);
@@ -144,13 +188,28 @@ public class BuildFilter implements PerformanceMonitor
 		//If the file exists, parse it and build the spam filter
 		if(file.exists())
 		{
-			//Parse the training file, creating the hashmap
+			//Parse the training file (or token cache), creating the hashmap
 			monitorStart(monitorEvent);
-			parseTrainingFile(file);
+			if(TokenCacheReader.isCacheFile(file))
+			{
+				parseCacheFile(file);
+			}
+			else
+			{
+				parseTrainingFile(file);
+			}
 			monitorStop(monitorEvent);
 			
-			//Save this hashmap to file
-			saveSpamFilter(outputFilename);
+			//Save this hashmap to file, along with the unpruned counts
+			if(hashedModel != null)
+			{
+				saveHashedModel(outputFilename);
+			}
+			else
+			{
+				saveSpamFilter(outputFilename);
+				saveWordCounts(outputFilename+".counts");
+			}
 		}
 		else
 		{
@@ -162,21 +221,119 @@ public class BuildFilter implements PerformanceMonitor
 	/**
 	 * This function takes a file object pointing to the training data file, 
 	 * reads the file line-by-line and builds up each email message for parsing. 
+	 * With a pipeline configured (see PipelineConfig), the messages are read, 
+	 * parsed and counted by separate stages at once. 
 	 * 
 	 * @param file The file object pointing to the training data file. 
 	 */
 	private void parseTrainingFile(File file)
 	{	
-		//The string builder is used to compile messages line-by-line
-		StringBuilder builder = new StringBuilder();
+		PipelineConfig config = PipelineConfig.getDefault();
 		
 		try
 		{
-			BufferedReader reader = new BufferedReader(new FileReader(file));
-			String line;
+			TrainingReader reader = new TrainingReader(file);
 			
-			boolean newMessage = false;
-			String messageType = null;
+			if(config.isEnabled())
+			{
+				parseTrainingFile(reader, config);
+			}
+			else
+			{
+				String[] message;
+				while((message = reader.next()) != null)
+				{
+					processMessage(message[0], message[1]);
+				}
+			}
+			
+			reader.close();
+		}
+		catch (IOException ie)
+		{
+			ie.printStackTrace();
+		}
+		catch (Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads the training data through a pipeline of a reading thread, the 
+	 * parsing threads, and the counting thread, which adds each parsed message 
+	 * to the hashmap in turn. 
+	 * 
+	 * @param reader The reader of the training data file.
+	 * @param config The number of threads in each stage.
+	 * @throws Exception If the file cannot be read, or a message cannot be processed.
+	 */
+	private void parseTrainingFile(final TrainingReader reader, PipelineConfig config) throws Exception
+	{
+		Pipeline pipeline = new Pipeline(config.getQueueCapacity());
+		
+		pipeline.setSource("read", new Pipeline.Source<String[]>() {
+			public String[] next() throws IOException
+			{
+				return reader.next();
+			}
+		});
+		
+		pipeline.addStage("parse", config.getParseThreads(), new Pipeline.Stage<String[], ParsedMessage>() {
+			public ParsedMessage process(String[] item)
+			{
+				TrainingMessageEvent event = new TrainingMessageEvent();
+				event.begin();
+				
+				ParsedMessage parsed = new ParsedMessage(item[0], parseMessage(item[1]));
+				commitEvent(event, parsed.messageType, parsed.message);
+				return parsed;
+			}
+		});
+		
+		pipeline.addStage("count", config.getAggregateThreads(), new Pipeline.Stage<ParsedMessage, Object>() {
+			public Object process(ParsedMessage item)
+			{
+				synchronized(BuildFilter.this)
+				{
+					countMessage(item.messageType, item.message);
+				}
+				return null;
+			}
+		});
+		
+		pipeline.run();
+		monitorEvent.addAllocatedBytes(pipeline.getAllocatedBytes());
+		System.out.println(config);
+		System.out.print(pipeline.getSummary());
+	}
+	
+	/**
+	 * Reads the messages of the training data file one at a time, updating 
+	 * the message totals as each is read. 
+	 */
+	private class TrainingReader
+	{
+		private BufferedReader reader;
+		
+		//The string builder is used to compile messages line-by-line
+		private StringBuilder builder;
+		
+		private boolean newMessage, finished;
+		private String messageType;
+		
+		TrainingReader(File file) throws IOException
+		{
+			reader = new BufferedReader(new FileReader(file));
+			builder = new StringBuilder();
+		}
+		
+		/**
+		 * @return The type and raw text of the next message, or null at the end of the file.
+		 */
+		String[] next() throws IOException
+		{
+			String line;
 			
 			//Read the file line by line
 			while ((line = reader.readLine()) != null)
@@ -187,10 +344,10 @@ public class BuildFilter implements PerformanceMonitor
 					//Set the flag indicating a new message
 					newMessage = true;
 					
-					//Do the processing here
+					String[] message = null;
 					if(builder.length() > 0)
 					{				
-						processMessage(messageType, builder.toString());
+						message = new String[]{messageType, builder.toString()};
 					}
 					
 					messageCount++;
@@ -198,7 +355,11 @@ public class BuildFilter implements PerformanceMonitor
 					if(messageCount%2500 == 0)
 					{
 						System.out.println("Parsed "+messageCount+" messages");
-						System.gc();
+					}
+					
+					if(message != null)
+					{
+						return message;
 					}
 				}
 				//Otherwise continue reading the rest of the message
@@ -218,19 +379,77 @@ public class BuildFilter implements PerformanceMonitor
 				}								
 			}	
 
-			//Process the final message
-			if(builder.length() > 0)
+			//Return the final message
+			if(!finished && builder.length() > 0)
 			{
-				processMessage(messageType, builder.toString());   
-			}		
+				finished = true;
+				return new String[]{messageType, builder.toString()};
+			}
+			
+			return null;
 		}
-		catch (IOException ie)
+		
+		void close() throws IOException
 		{
-			ie.printStackTrace();
+			reader.close();
 		}
-		catch (Exception ex)
+	}
+	
+	/**
+	 * A message parsed by the pipeline, waiting to be counted.
+	 */
+	private static class ParsedMessage
+	{
+		String messageType;
+		Message message;
+		
+		ParsedMessage(String messageType, Message message)
 		{
-			ex.printStackTrace();
+			this.messageType = messageType;
+			this.message = message;
+		}
+	}
+	
+	/**
+	 * This function reads a token cache file, as written by TokenCacheWriter, in 
+	 * place of the raw training data. As the messages have already been parsed, 
+	 * the words of each message are added to the hashmap directly. 
+	 * 
+	 * @param file The file object pointing to the token cache file. 
+	 */
+	private void parseCacheFile(File file)
+	{
+		try
+		{
+			TokenCacheReader reader = new TokenCacheReader(file);
+			TokenDictionary dictionary = reader.getDictionary();
+			TokenizedMessage message;
+			
+			while((message = reader.next()) != null)
+			{
+				String messageType = message.getMessageType();
+				updateTotals(messageType);
+				updateWordCount(messageType, message.getWordCount());
+				
+				int[] ids = message.getIds();
+				for(int i=0; i<ids.length; i++)
+				{
+					addWord(dictionary.getWord(ids[i]), messageType);
+				}
+				
+				messageCount++;
+				
+				if(messageCount%2500 == 0)
+				{
+					System.out.println("Parsed "+messageCount+" messages");
+				}
+			}
+			
+			reader.close();
+		}
+		catch (IOException ie)
+		{
+			ie.printStackTrace();
 		}
 	}
 	
@@ -245,40 +464,96 @@ public class BuildFilter implements PerformanceMonitor
 	 */
 	private void processMessage(String messageType, String rawText)
 	{	
-		//Instantiate a MIME message object with the raw text
+		TrainingMessageEvent event = new TrainingMessageEvent();
+		event.begin();
+		
+		Message message = parseMessage(rawText);
+		countMessage(messageType, message);
+		
+		commitEvent(event, messageType, message);
+	}
+	
+	/**
+	 * Instantiates a MIME message object with the raw text, recording the 
+	 * parsing and tokenizing time. 
+	 * 
+	 * @param rawText The raw email text, including the MIME headers. 
+	 * @return The parsed message.
+	 */
+	private Message parseMessage(String rawText)
+	{
 		Message message = new Message(rawText);
+		monitorEvent.recordStage(MonitorEvent.STAGE_MIME, message.getMimeNanos());
+		monitorEvent.recordStage(MonitorEvent.STAGE_TOKENIZE, message.getTokenizeNanos());
+		return message;
+	}
+	
+	/**
+	 * Adds the words of a parsed message to the hashmap. 
+	 * 
+	 * @param messageType The message type, either "SPAM" or "HAM"
+	 * @param message The parsed message.
+	 */
+	private void countMessage(String messageType, Message message)
+	{
+		long start = System.nanoTime();
 		
 		//Records the number of words in each type of message
 		updateWordCount(messageType, message.getWordCount());
 		
-		//Get the set of cleaned, lower-case words from this message
-		HashSet<String> wordSet = message.getWordSet();
-		
-		//Get the iterator for this set
-		Iterator<String> iterator = wordSet.iterator();
-		String word;
-		Word wordObject;
+		//Get the iterator for the set of cleaned, lower-case words from this message
+		Iterator<String> iterator = message.getWordSet().iterator();
 		
 		//Iterate through each word in the set, adding or updating the hashmap
 		while(iterator.hasNext())
 		{
-			//Get the word, and check if it already exists in the hashmap
-			word = (String) iterator.next();			
-			wordObject = wordList.get(word);
-			
-			//If not add it to the hashmap
-			if(wordObject != null)
-			{
-				wordObject.add(messageType);
-				wordList.put(word, wordObject);
-			}
-			//Otherwise increment the counters for SPAM/HAM for this word
-			else
-			{
-				wordObject = new Word(word, messageType);
-				wordList.put(word, wordObject);
-			}
+			addWord(iterator.next(), messageType);
 		}	
+		
+		monitorEvent.recordStage(MonitorEvent.STAGE_COUNT, System.nanoTime()-start);
+	}
+	
+	private static void commitEvent(TrainingMessageEvent event, String messageType, Message message)
+	{
+		if(event.shouldCommit())
+		{
+			event.messageType = messageType;
+			event.messageSize = message.getSize();
+			event.parsePath = message.getParsePath();
+			event.tokenCount = message.getNumWords();
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Adds a single occurrence of a word to the hashmap, for a message of 
+	 * the given type.
+	 * 
+	 * @param word The cleaned, lower-case word.
+	 * @param messageType The message type, either "SPAM" or "HAM"
+	 */
+	private void addWord(String word, String messageType)
+	{
+		if(hashedModel != null)
+		{
+			hashedModel.add(word, messageType);
+			return;
+		}
+		
+		//Check if the word already exists in the hashmap
+		Word wordObject = wordList.get(word);
+		
+		//If so increment the counters for SPAM/HAM for this word
+		if(wordObject != null)
+		{
+			wordObject.add(messageType);
+		}
+		//Otherwise add it to the hashmap
+		else
+		{
+			wordObject = new Word(word, messageType);
+			wordList.put(word, wordObject);
+		}
 	}
 	
 	
@@ -305,11 +580,6 @@ public class BuildFilter implements PerformanceMonitor
 			//Write a header giving the total spam/ham messages, and their word count
 			out.write(hamTotal+"|"+spamTotal+"|"+hamWordCount+"|"+spamWordCount+"\n");
 			
-			//Include only words that occur more than three times
-			//but less than one-in-every three messages (i.e., too frequent)
-			int minThreshold = 3;
-			int maxThreshold = messageCount/3; 
-			
 			//Calculate the spamicity of each word, and exclude those around 0.5
 			double spamicity;
 			
@@ -319,24 +589,19 @@ public class BuildFilter implements PerformanceMonitor
 			nf.setMinimumFractionDigits(2);
 			
 			//Iterate though the word list, saving any words that 
-			//occur 3 or more times
+			//pass the frequency and spamicity thresholds
 			while(iterator.hasNext())
 			{
 				word = wordList.get(iterator.next());
 				
 				spamicity = ((double) word.getSpamCount()) / ( (double) word.getHamCount()+word.getSpamCount());
 				
-				//Exclude words with a spamicity near to 0.5
-				if((spamicity < 0.45)||(spamicity > 0.55))
+				if(parameters.includeWord(word.getHamCount(), word.getSpamCount(), messageCount))
 				{
-					//Exclude infrequent or overly frequent words
-					if((word.getFrequency() >= minThreshold)&&(word.getFrequency() < maxThreshold))
-					{
-						out.write(word.getWord()+"|"+word.getHamCount()+"|"
-								+word.getSpamCount()+"|"+nf.format(spamicity)+"\n");
-						
-						filterSize++;
-					}
+					out.write(word.getWord()+"|"+word.getHamCount()+"|"
+							+word.getSpamCount()+"|"+nf.format(spamicity)+"\n");
+					
+					filterSize++;
 				}
 			}
 			
@@ -352,6 +617,71 @@ public class BuildFilter implements PerformanceMonitor
 	}
 
 	
+	/**
+	 * Writes the hashed model out to file, with the message and word totals. 
+	 * 
+	 * @param outputFile The output file to write the hashed model.
+	 */
+	private void saveHashedModel(String outputFile)
+	{
+		System.out.println("Writing to file: "+outputFile);
+		
+		try
+		{
+			hashedModel.setTotals(hamTotal, spamTotal, hamWordCount, spamWordCount, messageCount);
+			hashedModel.save(new File(outputFile));
+			
+			System.out.println("Wrote: "+hashedModel.getUsedSlots()+" of "+(1 << hashedModel.getBits())
+					+" slots to "+outputFile);
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes the counts of every word in the hash map out to file, without 
+	 * any pruning, so that filters with other pruning parameters can be derived 
+	 * later without retraining (see ParameterSweep). The file has the same 
+	 * format as the spam filter, except the header also gives the message count, 
+	 * hamTotal|spamTotal|hamWordCount|spamWordCount|messageCount
+	 * 
+	 * @param outputFile The output file to write the word counts.
+	 */
+	private void saveWordCounts(String outputFile)
+	{
+		System.out.println("Writing to file: "+outputFile);
+		
+		try
+		{
+			BufferedWriter out = new BufferedWriter(new FileWriter(new File(outputFile)));
+			out.write(hamTotal+"|"+spamTotal+"|"+hamWordCount+"|"+spamWordCount+"|"+messageCount+"\n");
+			
+			//Used to format the spamicity value for writing to file
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(8);
+			nf.setMinimumFractionDigits(2);
+			
+			Iterator<Word> iterator = wordList.values().iterator();
+			while(iterator.hasNext())
+			{
+				Word word = iterator.next();
+				double spamicity = ((double) word.getSpamCount()) / ( (double) word.getHamCount()+word.getSpamCount());
+				
+				out.write(word.getWord()+"|"+word.getHamCount()+"|"
+						+word.getSpamCount()+"|"+nf.format(spamicity)+"\n");
+			}
+			
+			out.close();
+			System.out.println("Wrote: "+wordList.size()+" words to "+outputFile);
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
 	/**
 	 * Function used to update the SPAM/HAM message totals whenever a 
 	 * new message is read by this parser. 
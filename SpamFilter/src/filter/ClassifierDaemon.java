@@ -0,0 +1,161 @@
+package classifier.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A minimal classification server, so that the spam filter can be load tested
+ * across a socket as well as in-process. It listens on the loopback interface,
+ * and each connection is handled by its own thread. The protocol is,
+ *
+ * request		length (int)|raw message (UTF-8 bytes)
+ * response		verdict|confidence, e.g., "SPAM|0.9731" (writeUTF)
+ *
+ * and any number of requests can be sent on one connection.
+ */
+
+public class ClassifierDaemon implements Runnable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	//The largest message accepted
+	private static final int MAX_MESSAGE_SIZE = 64*1024*1024;
+
+	private SpamFilter filter;
+	private ServerSocket serverSocket;
+	private ExecutorService connections;
+	private volatile boolean running;
+
+	/**
+	 * Opens the server socket on the loopback interface.
+	 *
+	 * @param filter The spam filter used to classify the messages.
+	 * @param port The port to listen on, or 0 for any free port.
+	 * @throws IOException If the socket cannot be opened.
+	 */
+	public ClassifierDaemon(SpamFilter filter, int port) throws IOException
+	{
+		this.filter = filter;
+		serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+		connections = Executors.newCachedThreadPool();
+		running = true;
+	}
+
+	/**
+	 * @return The port the daemon is listening on.
+	 */
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the daemon is closed.
+	 */
+	public void run()
+	{
+		while(running)
+		{
+			try
+			{
+				final Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+
+				connections.execute(new Runnable() {
+					public void run()
+					{
+						handle(socket);
+					}
+				});
+			}
+			catch(IOException io)
+			{
+				if(running)
+				{
+					io.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Classifies each message sent on a connection, until it is closed.
+	 */
+	private void handle(Socket socket)
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			while(true)
+			{
+				int length;
+				try
+				{
+					length = in.readInt();
+				}
+				catch(EOFException eof)
+				{
+					break;
+				}
+
+				if(length < 0 || length > MAX_MESSAGE_SIZE)
+				{
+					System.err.println("Message length "+length+" is invalid, closing connection");
+					break;
+				}
+
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+
+				MessageClassifier classifier = filter.classifyMessage(new String(bytes, UTF8));
+				out.writeUTF(classifier.getMessageType()+"|"+classifier.getConfidenceLevel());
+				out.flush();
+			}
+		}
+		catch(IOException io)
+		{
+			io.printStackTrace();
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch(IOException io)
+			{
+				io.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections, and closes the server socket.
+	 */
+	public void close()
+	{
+		running = false;
+		connections.shutdownNow();
+
+		try
+		{
+			serverSocket.close();
+		}
+		catch(IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package classifier.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import classifier.utils.MonitorEvent;
+import classifier.utils.PerformanceMonitor;
+import classifier.utils.TokenDictionary;
+import classifier.utils.TokenizedCorpus;
+import classifier.utils.TokenizedMessage;
+import classifier.utils.Word;
+
+/**
+ * Runs a k-fold cross-validation of the spam filter over a corpus. Each message 
+ * is parsed only once, and assigned to a fold deterministically from its position 
+ * in the corpus. The word counts are totalled once for the whole corpus, and the 
+ * filter for each fold is then built by subtracting that fold's messages from the 
+ * totals, and adding them back afterwards, rather than by retraining. The held-out messages of each 
+ * fold are scored in parallel, and the TPR, FPR and AUC are reported for each fold 
+ * and for all the folds pooled together. 
+ */
+public class CrossValidation implements PerformanceMonitor
+{
+	//The seed used to assign messages to folds
+	private static final long DEFAULT_SEED = 0x5DEECE66DL;
+	
+	private int folds, threads;
+	private double threshold;
+	private long seed;
+	
+	//The parameters used to prune each fold's filter
+	private FilterParameters parameters;
+	
+	//The parsed messages, and the fold each one belongs to
+	private TokenizedCorpus corpus;
+	private int[] foldOf;
+	
+	//The HAM/SPAM count of each word id over the whole corpus
+	private int[] hamCounts, spamCounts;
+	
+	//The number of messages, and words, of each type in each fold
+	private int[] foldHamTotal, foldSpamTotal, foldMessages;
+	
+	/**
+	 * Sets up a cross-validation run. 
+	 * 
+	 * @param folds The number of folds, k.
+	 * @param threshold The probability threshold used to classify a message as SPAM.
+	 * @param threads The number of threads used to score the held-out messages.
+	 */
+	public CrossValidation(int folds, double threshold, int threads)
+	{
+		this.folds = folds;
+		this.threshold = threshold;
+		this.threads = threads;
+		seed = DEFAULT_SEED;
+		parameters = new FilterParameters();
+	}
+	
+	/**
+	 * Sets the parameters used to prune the filter built for each fold.
+	 * 
+	 * @param parameters The pruning and smoothing parameters.
+	 */
+	public void setParameters(FilterParameters parameters)
+	{
+		this.parameters = parameters;
+	}
+	
+	/**
+	 * Sets the seed used to assign the messages to folds. 
+	 * 
+	 * @param seed The seed value.
+	 */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+	
+	/**
+	 * Loads and parses the corpus, either a raw corpus or a token cache, and 
+	 * totals the word counts for the whole corpus. 
+	 * 
+	 * @param inputFilename The corpus or token cache file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public void load(String inputFilename) throws IOException
+	{
+		MonitorEvent event = new MonitorEvent();
+		monitorStart(event);
+		
+		System.out.println("Loading corpus: "+inputFilename);
+		corpus = TokenizedCorpus.load(new File(inputFilename));
+		
+		int vocabulary = corpus.getDictionary().size();
+		hamCounts = new int[vocabulary];
+		spamCounts = new int[vocabulary];
+		foldHamTotal = new int[folds];
+		foldSpamTotal = new int[folds];
+		foldMessages = new int[folds];
+		foldOf = new int[corpus.size()];
+		
+		for(int i=0; i<corpus.size(); i++)
+		{
+			TokenizedMessage message = corpus.get(i);
+			int fold = getFold(i);
+			foldOf[i] = fold;
+			foldMessages[fold]++;
+			
+			if(message.getType() == TokenizedMessage.SPAM)
+			{
+				foldSpamTotal[fold]++;
+			}
+			else if(message.getType() == TokenizedMessage.HAM)
+			{
+				foldHamTotal[fold]++;
+			}
+			addCounts(message, 1);
+		}
+		
+		monitorStop(event);
+		System.out.println("Loaded "+corpus.size()+" messages, "+vocabulary+" words");
+	}
+	
+	/**
+	 * Adds a message's words to the corpus counts, or subtracts them.
+	 * 
+	 * @param message The message.
+	 * @param delta 1 to add the message, -1 to subtract it.
+	 */
+	private void addCounts(TokenizedMessage message, int delta)
+	{
+		int[] counts = (message.getType() == TokenizedMessage.SPAM) ? spamCounts 
+				: (message.getType() == TokenizedMessage.HAM) ? hamCounts : null;
+		if(counts == null)
+		{
+			return;
+		}
+		
+		int[] ids = message.getIds();
+		for(int j=0; j<ids.length; j++)
+		{
+			counts[ids[j]] += delta;
+		}
+	}
+	
+	/**
+	 * Assigns a message to a fold, by mixing its index with the seed.
+	 * 
+	 * @param index The position of the message in the corpus.
+	 * @return The fold number, between 0 and k-1.
+	 */
+	private int getFold(int index)
+	{
+		long z = seed + (index+1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		
+		return (int) ((z >>> 1) % folds);
+	}
+	
+	/**
+	 * Runs the cross-validation, printing the results for each fold and the 
+	 * pooled results. 
+	 * 
+	 * @return The pooled evaluation over all the folds.
+	 * @throws Exception If scoring fails.
+	 */
+	public Evaluation run() throws Exception
+	{
+		Evaluation pooled = new Evaluation();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(2);
+		
+		System.out.println("\n==============================");
+		System.out.println("Fold\tMessages\tBuild (ms)\tScore (ms)\tResults");
+		
+		try
+		{
+			for(int fold=0; fold<folds; fold++)
+			{
+				long buildStart = System.nanoTime();
+				final FoldModel model = buildModel(fold);
+				long buildTime = System.nanoTime()-buildStart;
+				
+				long scoreStart = System.nanoTime();
+				Evaluation evaluation = score(executor, model, fold);
+				long scoreTime = System.nanoTime()-scoreStart;
+				
+				pooled.add(evaluation);
+				
+				System.out.println(fold+"\t"+evaluation.size()+"\t\t"+nf.format(buildTime/1e6)+"\t\t"
+						+nf.format(scoreTime/1e6)+"\t\t"+evaluation.toString(threshold));
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		System.out.println("Pooled\t"+pooled.size()+"\t\t\t\t\t\t"+pooled.toString(threshold));
+		return pooled;
+	}
+	
+	/**
+	 * Builds the spam filter for a fold, i.e., from the counts of every message 
+	 * except those in the fold. The fold's messages are subtracted from the 
+	 * corpus counts while the filter is built, and then added back, so no 
+	 * counts are held per fold. The words are included using the same rules 
+	 * as BuildFilter. 
+	 * 
+	 * @param fold The fold being held out.
+	 * @return The model for the fold.
+	 */
+	private FoldModel buildModel(int fold)
+	{
+		int hamTotal = 0;
+		int spamTotal = 0;
+		int messageCount = 0;
+		
+		for(int i=0; i<folds; i++)
+		{
+			if(i != fold)
+			{
+				hamTotal += foldHamTotal[i];
+				spamTotal += foldSpamTotal[i];
+				messageCount += foldMessages[i];
+			}
+		}
+		
+		adjustFold(fold, -1);
+		
+		TokenDictionary dictionary = corpus.getDictionary();
+		Word[] words = new Word[hamCounts.length];
+		
+		for(int id=0; id<words.length; id++)
+		{
+			int ham = hamCounts[id];
+			int spam = spamCounts[id];
+			
+			if(parameters.includeWord(ham, spam, messageCount))
+			{
+				double spamicity = ((double) spam) / ((double) ham+spam);
+				words[id] = new Word(dictionary.getWord(id), ham, spam, spamicity);
+			}
+		}
+		
+		adjustFold(fold, 1);
+		
+		double probHam = ((double) hamTotal)/((double) hamTotal+spamTotal);
+		double probSpam = ((double) spamTotal)/((double) hamTotal+spamTotal);
+		
+		return new FoldModel(words, probHam, probSpam, parameters.getSmoothing());
+	}
+	
+	/**
+	 * Adds the words of every message in a fold to the corpus counts, or subtracts them.
+	 * 
+	 * @param fold The fold.
+	 * @param delta 1 to add the fold's messages, -1 to subtract them.
+	 */
+	private void adjustFold(int fold, int delta)
+	{
+		for(int i=0; i<corpus.size(); i++)
+		{
+			if(foldOf[i] == fold)
+			{
+				addCounts(corpus.get(i), delta);
+			}
+		}
+	}
+	
+	/**
+	 * Scores the held-out messages of a fold in parallel. 
+	 * 
+	 * @param executor The thread pool used to score the messages.
+	 * @param model The model built without the fold.
+	 * @param fold The fold being scored.
+	 * @return The evaluation of the fold.
+	 */
+	private Evaluation score(ExecutorService executor, final FoldModel model, final int fold) throws Exception
+	{
+		final Evaluation evaluation = new Evaluation();
+		ArrayList<Future<Object>> results = new ArrayList<Future<Object>>();
+		
+		//Split the corpus into one chunk per thread
+		int chunk = (corpus.size()+threads-1)/threads;
+		
+		for(int t=0; t<threads; t++)
+		{
+			final int start = t*chunk;
+			final int end = Math.min(corpus.size(), start+chunk);
+			
+			results.add(executor.submit(new Callable<Object>() {
+				public Object call()
+				{
+					for(int i=start; i<end; i++)
+					{
+						TokenizedMessage message = corpus.get(i);
+						if((foldOf[i] == fold)&&(message.getType() != TokenizedMessage.UNKNOWN))
+						{
+							evaluation.add(model.classify(message).getConfidenceLevel(), message.isSpam());
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		
+		for(int i=0; i<results.size(); i++)
+		{
+			results.get(i).get();
+		}
+		
+		return evaluation;
+	}
+	
+	/**
+	 * Function used to monitor performance
+	 */
+	public void monitorStart(MonitorEvent event)
+	{
+		event.start();
+	}
+	
+	/**
+	 * Function used to monitor performance
+	 */
+	public void monitorStop(MonitorEvent event)
+	{
+		event.stop();
+		System.out.println(event.toString());
+	}
+	
+	/**
+	 * The spam filter built for a single fold, holding the word object for 
+	 * each word id in the corpus (null if the word is excluded).
+	 */
+	private static class FoldModel
+	{
+		private Word[] words;
+		private double probHam, probSpam, smoothing;
+		
+		FoldModel(Word[] words, double probHam, double probSpam, double smoothing)
+		{
+			this.words = words;
+			this.probHam = probHam;
+			this.probSpam = probSpam;
+			this.smoothing = smoothing;
+		}
+		
+		MessageClassifier classify(TokenizedMessage message)
+		{
+			MessageClassifier classifier = new MessageClassifier(probHam, probSpam, smoothing);
+			
+			int[] ids = message.getIds();
+			for(int i=0; i<ids.length; i++)
+			{
+				if(words[ids[i]] != null)
+				{
+					classifier.addWord(words[ids[i]]);
+				}
+			}
+			
+			return classifier;
+		}
+	}
+}
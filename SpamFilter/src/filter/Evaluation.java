@@ -0,0 +1,201 @@
+package classifier.filter;
+
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Records the spam probability given to each evaluated message along with its 
+ * actual type, and calculates the true-positive rate, false-positive rate and the 
+ * area under the ROC curve (AUC). SPAM is taken as the positive class, i.e., the 
+ * TPR is the fraction of SPAM messages classified as SPAM, and the FPR is the 
+ * fraction of HAM messages classified as SPAM. 
+ */
+public class Evaluation {
+
+	//The spam probability of each message, and whether it is actually spam
+	private double[] probabilities;
+	private boolean[] spam;
+	private int size;
+	
+	public Evaluation()
+	{
+		probabilities = new double[1024];
+		spam = new boolean[1024];
+		size = 0;
+	}
+	
+	/**
+	 * Adds the result for a single message. This method is synchronized, so 
+	 * results may be added from several scoring threads.
+	 * 
+	 * @param probability The probability the message is SPAM, from the classifier.
+	 * @param isSpam True if the message is actually SPAM.
+	 */
+	public synchronized void add(double probability, boolean isSpam)
+	{
+		if(size == probabilities.length)
+		{
+			probabilities = Arrays.copyOf(probabilities, size*2);
+			spam = Arrays.copyOf(spam, size*2);
+		}
+		
+		probabilities[size] = probability;
+		spam[size] = isSpam;
+		size++;
+	}
+	
+	/**
+	 * Adds all the results from another evaluation, e.g., to pool the results 
+	 * of several cross-validation folds.
+	 * 
+	 * @param other The other evaluation.
+	 */
+	public synchronized void add(Evaluation other)
+	{
+		for(int i=0; i<other.size; i++)
+		{
+			add(other.probabilities[i], other.spam[i]);
+		}
+	}
+	
+	public synchronized int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * @param threshold The probability above which a message is classed as SPAM.
+	 * @return The fraction of SPAM messages correctly classified as SPAM.
+	 */
+	public synchronized double getTruePositiveRate(double threshold)
+	{
+		int positives = 0;
+		int truePositives = 0;
+		
+		for(int i=0; i<size; i++)
+		{
+			if(spam[i])
+			{
+				positives++;
+				if(probabilities[i] > threshold)
+				{
+					truePositives++;
+				}
+			}
+		}
+		
+		return ((double) truePositives) / ((double) positives);
+	}
+	
+	/**
+	 * @param threshold The probability above which a message is classed as SPAM.
+	 * @return The fraction of HAM messages incorrectly classified as SPAM.
+	 */
+	public synchronized double getFalsePositiveRate(double threshold)
+	{
+		int negatives = 0;
+		int falsePositives = 0;
+		
+		for(int i=0; i<size; i++)
+		{
+			if(!spam[i])
+			{
+				negatives++;
+				if(probabilities[i] > threshold)
+				{
+					falsePositives++;
+				}
+			}
+		}
+		
+		return ((double) falsePositives) / ((double) negatives);
+	}
+	
+	/**
+	 * @param threshold The probability above which a message is classed as SPAM.
+	 * @return The fraction of all messages that were correctly classified.
+	 */
+	public synchronized double getAccuracy(double threshold)
+	{
+		int correct = 0;
+		
+		for(int i=0; i<size; i++)
+		{
+			if((probabilities[i] > threshold) == spam[i])
+			{
+				correct++;
+			}
+		}
+		
+		return ((double) correct) / ((double) size);
+	}
+	
+	/**
+	 * Calculates the area under the ROC curve, i.e., the probability that a 
+	 * randomly chosen SPAM message is given a higher score than a randomly 
+	 * chosen HAM message. This uses the Mann-Whitney rank sum, with tied 
+	 * scores given their average rank.
+	 * 
+	 * @return The AUC, between 0.0 and 1.0.
+	 */
+	public synchronized double getAUC()
+	{
+		//Sort the message indexes by probability
+		Integer[] order = new Integer[size];
+		for(int i=0; i<size; i++)
+		{
+			order[i] = i;
+		}
+		
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(probabilities[a], probabilities[b]);
+			}
+		});
+		
+		double rankSum = 0.0;
+		long positives = 0;
+		int i = 0;
+		
+		while(i < size)
+		{
+			//Find the run of tied scores, and give each their average rank
+			int j = i;
+			while((j+1 < size)&&(probabilities[order[j+1]] == probabilities[order[i]]))
+			{
+				j++;
+			}
+			
+			double rank = (i + j)/2.0 + 1.0;
+			for(int k=i; k<=j; k++)
+			{
+				if(spam[order[k]])
+				{
+					rankSum += rank;
+					positives++;
+				}
+			}
+			
+			i = j+1;
+		}
+		
+		long negatives = size-positives;
+		return (rankSum - positives*(positives+1)/2.0) / ((double) positives*negatives);
+	}
+	
+	/**
+	 * @param threshold The probability above which a message is classed as SPAM.
+	 * @return A tab-delimited string giving the TPR, FPR and AUC. 
+	 */
+	public String toString(double threshold)
+	{
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(6);
+		nf.setMinimumFractionDigits(6);
+		
+		return "TPR: "+nf.format(getTruePositiveRate(threshold))+"\t FPR: "+nf.format(getFalsePositiveRate(threshold))
+				+"\t AUC: "+nf.format(getAUC());
+	}
+}
@@ -0,0 +1,459 @@
+package classifier.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the count deltas added to a live model, so that
+ * feedback isn't lost if the process stops between snapshots. The log is
+ * written in numbered segments next to the filter file, e.g., spam-filter.dat.log.3,
+ * and each record is,
+ *
+ * record		length (int)|CRC-32 (int)|payload
+ * payload		hamTotal|spamTotal|hamWordCount|spamWordCount|count (varints)
+ * 			then word (UTF)|ham|spam (varints) for each of the count words
+ *
+ * where every number is a delta. The records are encoded by the calling
+ * threads, and committed in groups, i.e., whichever thread finds no write in
+ * progress writes every pending record, and forces them to disk once, while
+ * the others wait for it.
+ *
+ * A snapshot of the live model starts a new segment, and records the first
+ * segment it doesn't include in its header, so once the snapshot is written
+ * the older segments are deleted. On startup, the remaining segments are
+ * replayed onto the loaded snapshot, up to any torn record at the end.
+ */
+
+public class FeedbackLog {
+
+	private File filterFile;
+	private int segment;
+	private FileChannel channel;
+
+	//The group commit state, guarded by the lock
+	private final Object lock = new Object();
+	private ByteArrayOutputStream pending;
+	private long appended, committed;
+	private boolean writing;
+	private IOException failure;
+	private long commitCount;
+
+	/**
+	 * @param filterFile The filter file the log segments are written next to.
+	 */
+	public FeedbackLog(File filterFile)
+	{
+		this.filterFile = filterFile;
+		pending = new ByteArrayOutputStream(1 << 16);
+	}
+
+	/**
+	 * Encodes a record adding one message's words to the counts.
+	 *
+	 * @param wordSet The set of unique words in the message.
+	 * @param wordCount The number of words in the message.
+	 * @param spam True if the message is SPAM, false if it is HAM.
+	 * @return The encoded record, including its length and checksum.
+	 */
+	public static byte[] encode(Collection<String> wordSet, int wordCount, boolean spam)
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64+wordSet.size()*12);
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			//Leave room for the length and checksum
+			out.writeLong(0);
+
+			writeVarint(out, spam ? 0 : 1);
+			writeVarint(out, spam ? 1 : 0);
+			writeVarint(out, spam ? 0 : wordCount);
+			writeVarint(out, spam ? wordCount : 0);
+			writeVarint(out, wordSet.size());
+
+			Iterator<String> iterator = wordSet.iterator();
+			while(iterator.hasNext())
+			{
+				out.writeUTF(iterator.next());
+				writeVarint(out, spam ? 0 : 1);
+				writeVarint(out, spam ? 1 : 0);
+			}
+			out.close();
+
+			byte[] record = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(record, 8, record.length-8);
+			ByteBuffer.wrap(record).putInt(record.length-8).putInt((int) crc.getValue());
+
+			return record;
+		}
+		catch(IOException io)
+		{
+			//Not possible when writing to memory
+			throw new IllegalStateException(io);
+		}
+	}
+
+	/**
+	 * Writes a zig-zag encoded varint, so small negative deltas are also one byte.
+	 */
+	private static void writeVarint(DataOutputStream out, int value) throws IOException
+	{
+		int zigzag = (value << 1) ^ (value >> 31);
+		while((zigzag & ~0x7f) != 0)
+		{
+			out.writeByte((zigzag & 0x7f) | 0x80);
+			zigzag >>>= 7;
+		}
+		out.writeByte(zigzag);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException
+	{
+		int zigzag = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = in.readByte();
+			zigzag |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		while(b < 0);
+
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	/**
+	 * Replays the segments not included in the model's snapshot, then opens a
+	 * new segment for appending. Any torn or corrupt record ends its segment,
+	 * and is truncated.
+	 *
+	 * @param model The live model, loaded from the latest snapshot.
+	 * @param baseSegment The first segment not included in the snapshot.
+	 * @return The number of records replayed.
+	 * @throws IOException If a segment cannot be read, or the new segment opened.
+	 */
+	public int replay(LiveModel model, int baseSegment) throws IOException
+	{
+		int[] segments = listSegments();
+		int replayed = 0;
+		segment = baseSegment;
+
+		for(int i=0; i<segments.length; i++)
+		{
+			if(segments[i] < baseSegment)
+			{
+				//Already folded into the snapshot, but not yet deleted
+				getSegmentFile(segments[i]).delete();
+				continue;
+			}
+
+			replayed += replaySegment(model, getSegmentFile(segments[i]));
+			segment = segments[i]+1;
+		}
+
+		channel = new RandomAccessFile(getSegmentFile(segment), "rw").getChannel();
+		channel.position(channel.size());
+
+		return replayed;
+	}
+
+	/**
+	 * Applies each complete record of a segment to the model.
+	 */
+	private int replaySegment(LiveModel model, File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		int replayed = 0;
+
+		try
+		{
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			CRC32 crc = new CRC32();
+
+			while(buffer.remaining() >= 8)
+			{
+				int start = buffer.position();
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+
+				if(length < 0 || length > buffer.remaining())
+				{
+					buffer.position(start);
+					break;
+				}
+
+				crc.reset();
+				crc.update(data, start+8, length);
+				if((int) crc.getValue() != checksum)
+				{
+					buffer.position(start);
+					break;
+				}
+
+				applyRecord(model, new DataInputStream(new ByteArrayInputStream(data, start+8, length)));
+				buffer.position(start+8+length);
+				replayed++;
+			}
+
+			if(buffer.position() < data.length)
+			{
+				System.err.println("Truncating "+(data.length-buffer.position())+" bytes of torn records from "+file);
+				raf.setLength(buffer.position());
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		return replayed;
+	}
+
+	private static void applyRecord(LiveModel model, DataInputStream in) throws IOException
+	{
+		int hamTotal = readVarint(in);
+		int spamTotal = readVarint(in);
+		int hamWordCount = readVarint(in);
+		int spamWordCount = readVarint(in);
+		int count = readVarint(in);
+
+		for(int i=0; i<count; i++)
+		{
+			String word = in.readUTF();
+			model.applyDelta(word, readVarint(in), readVarint(in));
+		}
+
+		model.applyTotals(hamTotal, spamTotal, hamWordCount, spamWordCount);
+	}
+
+	/**
+	 * Appends a record, and waits until it has been forced to disk.
+	 *
+	 * @param record The record, from encode().
+	 * @throws IOException If the record cannot be written.
+	 */
+	public void append(byte[] record) throws IOException
+	{
+		long target;
+		synchronized(lock)
+		{
+			if(channel == null)
+			{
+				throw new IOException("The feedback log hasn't been opened by replay()");
+			}
+			
+			pending.write(record, 0, record.length);
+			target = ++appended;
+		}
+		
+		while(true)
+		{
+			ByteBuffer batch;
+			FileChannel batchChannel;
+			long batchEnd;
+			
+			synchronized(lock)
+			{
+				//Wait for any commit in progress, which may include this record
+				while(writing && committed < target)
+				{
+					try
+					{
+						lock.wait();
+					}
+					catch(InterruptedException ie)
+					{
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted waiting for the feedback log");
+					}
+				}
+				
+				if(committed >= target)
+				{
+					return;
+				}
+				if(failure != null)
+				{
+					throw failure;
+				}
+				
+				//Commit every pending record, including those of the waiting threads
+				writing = true;
+				batch = ByteBuffer.wrap(pending.toByteArray());
+				batchChannel = channel;
+				batchEnd = appended;
+				pending.reset();
+			}
+			
+			//Write outside the lock, so the next group can build up meanwhile
+			IOException error = commit(batchChannel, batch);
+			
+			synchronized(lock)
+			{
+				if(error != null)
+				{
+					failure = error;
+				}
+				else
+				{
+					committed = batchEnd;
+					commitCount++;
+				}
+				writing = false;
+				lock.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Writes a batch of records and forces it to disk.
+	 *
+	 * @return The error, or null if the batch was written.
+	 */
+	private static IOException commit(FileChannel channel, ByteBuffer batch)
+	{
+		try
+		{
+			while(batch.hasRemaining())
+			{
+				channel.write(batch);
+			}
+			channel.force(false);
+			return null;
+		}
+		catch(IOException io)
+		{
+			return io;
+		}
+	}
+
+	/**
+	 * Closes the current segment, and starts a new one. No records may be
+	 * appended while rotating, which LiveModel ensures with its snapshot lock.
+	 *
+	 * @return The number of the new segment, i.e., the first not included in a snapshot taken now.
+	 * @throws IOException If the new segment cannot be opened.
+	 */
+	public int rotate() throws IOException
+	{
+		synchronized(lock)
+		{
+			channel.close();
+			segment++;
+			channel = new RandomAccessFile(getSegmentFile(segment), "rw").getChannel();
+			return segment;
+		}
+	}
+
+	/**
+	 * Deletes the segments before the given segment, once they are included in a snapshot.
+	 *
+	 * @param baseSegment The first segment not included in the snapshot.
+	 */
+	public void deleteBefore(int baseSegment)
+	{
+		int[] segments = listSegments();
+		for(int i=0; i<segments.length; i++)
+		{
+			if(segments[i] < baseSegment && !getSegmentFile(segments[i]).delete())
+			{
+				System.err.println("Cannot delete "+getSegmentFile(segments[i]));
+			}
+		}
+	}
+
+	/**
+	 * @return The numbers of the existing segments, in order.
+	 */
+	private int[] listSegments()
+	{
+		final String prefix = filterFile.getName()+".log.";
+		File directory = filterFile.getAbsoluteFile().getParentFile();
+		String[] names = directory.list();
+
+		int[] segments = new int[names == null ? 0 : names.length];
+		int count = 0;
+		for(int i=0; i<segments.length; i++)
+		{
+			if(names[i].startsWith(prefix))
+			{
+				try
+				{
+					segments[count] = Integer.parseInt(names[i].substring(prefix.length()));
+					count++;
+				}
+				catch(NumberFormatException ex)
+				{
+					//Not a segment, e.g., a temporary file
+				}
+			}
+		}
+
+		segments = Arrays.copyOf(segments, count);
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private File getSegmentFile(int number)
+	{
+		return new File(filterFile.getPath()+".log."+number);
+	}
+
+	/**
+	 * @return The filter file the log belongs to, which compaction replaces.
+	 */
+	public File getFilterFile()
+	{
+		return filterFile;
+	}
+
+	/**
+	 * @return The number of records appended.
+	 */
+	public long getRecordCount()
+	{
+		synchronized(lock)
+		{
+			return appended;
+		}
+	}
+
+	/**
+	 * @return The number of group commits, i.e., writes forced to disk.
+	 */
+	public long getCommitCount()
+	{
+		synchronized(lock)
+		{
+			return commitCount;
+		}
+	}
+
+	public void close() throws IOException
+	{
+		synchronized(lock)
+		{
+			if(channel != null)
+			{
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,368 @@
+package classifier.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import classifier.utils.FilterFileReader;
+import classifier.utils.HashMixer;
+import classifier.utils.Word;
+
+/**
+ * The difference between two spam filter files, i.e., the words removed,
+ * added and changed, and the new header totals, so that a retrained filter can
+ * be rolled out to classifier processes by applying the delta to the filter
+ * they have loaded (see SpamFilter.applyDelta()), rather than copying and
+ * reloading the whole file.
+ *
+ * Each filter is stamped with a checksum of its contents, the sum of a 64-bit
+ * hash of each word's line and one of the header, which is independent of the
+ * order the words are written or held in. A delta records the checksums of the
+ * filters it is from and to, so it is only applied to the filter it was made
+ * from, and the result must match the filter it was made to. The delta file
+ * is gzipped, which also checks it with a CRC-32, and has the format,
+ *
+ * header		magic|version|from checksum|to checksum|hamTotal|spamTotal|hamWordCount|spamWordCount
+ * removed		count|word (UTF) for each
+ * added		count|word (UTF)|ham (int)|spam (int)|spamicity (double) for each
+ * changed		count|word (UTF)|ham (int)|spam (int)|spamicity (double) for each
+ */
+
+public class FilterDelta {
+
+	//Identifies the file as a filter delta, "SFDL"
+	public static final int MAGIC = 0x5346444C;
+	public static final int VERSION = 1;
+
+	private long fromChecksum, toChecksum;
+	private int[] totals;
+	private List<String> removed;
+	private List<Word> added, changed;
+
+	private FilterDelta()
+	{
+		removed = new ArrayList<String>();
+		added = new ArrayList<Word>();
+		changed = new ArrayList<Word>();
+	}
+
+	/**
+	 * Compares two spam filter files.
+	 *
+	 * @param fromFile The filter loaded by the classifiers.
+	 * @param toFile The retrained filter.
+	 * @return The delta from the first filter to the second.
+	 * @throws IOException If either file cannot be read.
+	 */
+	public static FilterDelta diff(File fromFile, File toFile) throws IOException
+	{
+		FilterDelta delta = new FilterDelta();
+
+		int[] fromTotals = new int[4];
+		HashMap<String, Word> from = readFilter(fromFile, fromTotals);
+		delta.totals = new int[4];
+		HashMap<String, Word> to = readFilter(toFile, delta.totals);
+
+		delta.fromChecksum = getChecksum(from.values(), fromTotals);
+		delta.toChecksum = getChecksum(to.values(), delta.totals);
+
+		Iterator<String> iterator = from.keySet().iterator();
+		while(iterator.hasNext())
+		{
+			String word = iterator.next();
+			if(!to.containsKey(word))
+			{
+				delta.removed.add(word);
+			}
+		}
+
+		Iterator<Word> words = to.values().iterator();
+		while(words.hasNext())
+		{
+			Word word = words.next();
+			Word previous = from.get(word.getWord());
+
+			if(previous == null)
+			{
+				delta.added.add(word);
+			}
+			else if(hash(previous) != hash(word))
+			{
+				delta.changed.add(word);
+			}
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Reads the words of a spam filter file, as SpamFilter does.
+	 *
+	 * @param totals Set to the header totals, hamTotal|spamTotal|hamWordCount|spamWordCount.
+	 */
+	private static HashMap<String, Word> readFilter(File file, int[] totals) throws IOException
+	{
+		HashMap<String, Word> words = new HashMap<String, Word>();
+		FilterFileReader reader = new FilterFileReader(file);
+
+		try
+		{
+			System.arraycopy(reader.getTotals(), 0, totals, 0, totals.length);
+
+			Word word;
+			while((word = reader.next()) != null)
+			{
+				words.put(word.getWord(), word);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		return words;
+	}
+
+	/**
+	 * Calculates the order-independent checksum of a filter.
+	 *
+	 * @param words The words of the filter.
+	 * @param totals The header totals, hamTotal|spamTotal|hamWordCount|spamWordCount.
+	 * @return The checksum.
+	 */
+	public static long getChecksum(Iterable<Word> words, int[] totals)
+	{
+		long checksum = hash(totals);
+
+		Iterator<Word> iterator = words.iterator();
+		while(iterator.hasNext())
+		{
+			checksum += hash(iterator.next());
+		}
+
+		return checksum;
+	}
+
+	/**
+	 * @return The 64-bit hash of a word's line, i.e., the word, counts and spamicity.
+	 */
+	static long hash(Word word)
+	{
+		//FNV-1a over the characters, then mix in each of the values
+		String text = word.getWord();
+		long hash = 0xcbf29ce484222325L;
+		for(int i=0; i<text.length(); i++)
+		{
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash = HashMixer.mix64(hash ^ word.getHamCount());
+		hash = HashMixer.mix64(hash ^ ((long) word.getSpamCount() << 32));
+		return HashMixer.mix64(hash ^ Double.doubleToLongBits(word.getSpamicity()));
+	}
+
+	/**
+	 * @return The 64-bit hash of the header totals.
+	 */
+	static long hash(int[] totals)
+	{
+		long hash = 0x5346444CL;
+		for(int i=0; i<totals.length; i++)
+		{
+			hash = HashMixer.mix64(hash ^ ((long) totals[i] << (i%2 == 0 ? 0 : 32)) ^ i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes the delta to a file.
+	 *
+	 * @param file The delta file to be written.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void save(File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(file), 1 << 16)));
+
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fromChecksum);
+			out.writeLong(toChecksum);
+			for(int i=0; i<totals.length; i++)
+			{
+				out.writeInt(totals[i]);
+			}
+
+			out.writeInt(removed.size());
+			for(int i=0; i<removed.size(); i++)
+			{
+				out.writeUTF(removed.get(i));
+			}
+
+			writeWords(out, added);
+			writeWords(out, changed);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static void writeWords(DataOutputStream out, List<Word> words) throws IOException
+	{
+		out.writeInt(words.size());
+		for(int i=0; i<words.size(); i++)
+		{
+			Word word = words.get(i);
+			out.writeUTF(word.getWord());
+			out.writeInt(word.getHamCount());
+			out.writeInt(word.getSpamCount());
+			out.writeDouble(word.getSpamicity());
+		}
+	}
+
+	/**
+	 * Loads a delta saved by save().
+	 *
+	 * @param file The delta file.
+	 * @return The loaded delta.
+	 * @throws IOException If the file cannot be read, isn't a delta, or fails its CRC check.
+	 */
+	public static FilterDelta load(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+
+		try
+		{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+			{
+				throw new IOException(file+" is not a filter delta file");
+			}
+
+			FilterDelta delta = new FilterDelta();
+			delta.fromChecksum = in.readLong();
+			delta.toChecksum = in.readLong();
+			delta.totals = new int[4];
+			for(int i=0; i<delta.totals.length; i++)
+			{
+				delta.totals[i] = in.readInt();
+			}
+
+			int count = in.readInt();
+			for(int i=0; i<count; i++)
+			{
+				delta.removed.add(in.readUTF());
+			}
+
+			readWords(in, delta.added);
+			readWords(in, delta.changed);
+
+			//Read to the end, so the gzip trailer's CRC is checked
+			if(in.read() != -1)
+			{
+				throw new IOException(file+" has data after the delta");
+			}
+
+			return delta;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static void readWords(DataInputStream in, List<Word> words) throws IOException
+	{
+		int count = in.readInt();
+		for(int i=0; i<count; i++)
+		{
+			words.add(new Word(in.readUTF(), in.readInt(), in.readInt(), in.readDouble()));
+		}
+	}
+
+	/**
+	 * Calculates the checksum the filter will have once the delta is applied,
+	 * from the checksum it has now, without changing it.
+	 *
+	 * @param wordList The vocabulary the delta will be applied to.
+	 * @param checksum The vocabulary's current checksum.
+	 * @param currentTotals The current header totals.
+	 * @return The checksum after the delta is applied.
+	 */
+	long getAppliedChecksum(Map<String, Word> wordList, long checksum, int[] currentTotals)
+	{
+		checksum += hash(totals)-hash(currentTotals);
+
+		for(int i=0; i<removed.size(); i++)
+		{
+			Word word = wordList.get(removed.get(i));
+			if(word != null)
+			{
+				checksum -= hash(word);
+			}
+		}
+
+		for(int i=0; i<added.size()+changed.size(); i++)
+		{
+			Word word = (i < added.size()) ? added.get(i) : changed.get(i-added.size());
+			Word previous = wordList.get(word.getWord());
+			if(previous != null)
+			{
+				checksum -= hash(previous);
+			}
+			checksum += hash(word);
+		}
+
+		return checksum;
+	}
+
+	public long getFromChecksum()
+	{
+		return fromChecksum;
+	}
+
+	public long getToChecksum()
+	{
+		return toChecksum;
+	}
+
+	/**
+	 * @return The new header totals, hamTotal|spamTotal|hamWordCount|spamWordCount.
+	 */
+	public int[] getTotals()
+	{
+		return totals;
+	}
+
+	public List<String> getRemoved()
+	{
+		return removed;
+	}
+
+	public List<Word> getAdded()
+	{
+		return added;
+	}
+
+	public List<Word> getChanged()
+	{
+		return changed;
+	}
+}
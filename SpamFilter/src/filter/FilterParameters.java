@@ -0,0 +1,108 @@
+package classifier.filter;
+
+/**
+ * The parameters used to prune the spam filter and to smooth the word 
+ * probabilities when classifying. By default these are,
+ * 
+ * minFrequency		3		Words occurring less often are excluded.
+ * maxDivisor		3		Words in one-in-every three messages or more are excluded.
+ * bandLow/High		0.45/0.55	Words with a spamicity in this range are excluded.
+ * smoothing		3.0		The weight given to the prior for extreme spamicities.
+ */
+public class FilterParameters {
+
+	public static final int DEFAULT_MIN_FREQUENCY = 3;
+	public static final int DEFAULT_MAX_DIVISOR = 3;
+	public static final double DEFAULT_BAND_LOW = 0.45;
+	public static final double DEFAULT_BAND_HIGH = 0.55;
+	public static final double DEFAULT_SMOOTHING = 3.0;
+	
+	private int minFrequency, maxDivisor;
+	private double bandLow, bandHigh, smoothing;
+	
+	/**
+	 * Creates the default parameters, as used by BuildFilter.
+	 */
+	public FilterParameters()
+	{
+		this(DEFAULT_MIN_FREQUENCY, DEFAULT_MAX_DIVISOR, DEFAULT_BAND_LOW, DEFAULT_BAND_HIGH, DEFAULT_SMOOTHING);
+	}
+	
+	/**
+	 * @param minFrequency The minimum number of messages a word must occur in.
+	 * @param maxDivisor Words must occur in less than 1/maxDivisor of the messages.
+	 * @param bandLow The lower bound of the excluded spamicity band.
+	 * @param bandHigh The upper bound of the excluded spamicity band.
+	 * @param smoothing The smoothing strength applied to extreme spamicities.
+	 */
+	public FilterParameters(int minFrequency, int maxDivisor, double bandLow, double bandHigh, double smoothing)
+	{
+		this.minFrequency = minFrequency;
+		this.maxDivisor = maxDivisor;
+		this.bandLow = bandLow;
+		this.bandHigh = bandHigh;
+		this.smoothing = smoothing;
+	}
+	
+	/**
+	 * Checks whether a word should be included in the spam filter, i.e., it 
+	 * is neither too infrequent or too frequent, and its spamicity is outside 
+	 * of the excluded band. 
+	 * 
+	 * @param hamCount The number of HAM messages containing the word.
+	 * @param spamCount The number of SPAM messages containing the word.
+	 * @param messageCount The total number of training messages.
+	 * @return True if the word should be included, false otherwise.
+	 */
+	public boolean includeWord(int hamCount, int spamCount, int messageCount)
+	{
+		int frequency = hamCount+spamCount;
+		if(frequency == 0)
+		{
+			return false;
+		}
+		
+		//Exclude words with a spamicity near to 0.5
+		double spamicity = ((double) spamCount) / ((double) frequency);
+		if((spamicity >= bandLow)&&(spamicity <= bandHigh))
+		{
+			return false;
+		}
+		
+		//Exclude infrequent or overly frequent words
+		return (frequency >= minFrequency)&&(frequency < messageCount/maxDivisor);
+	}
+	
+	public int getMinFrequency()
+	{
+		return minFrequency;
+	}
+	
+	public int getMaxDivisor()
+	{
+		return maxDivisor;
+	}
+	
+	public double getBandLow()
+	{
+		return bandLow;
+	}
+	
+	public double getBandHigh()
+	{
+		return bandHigh;
+	}
+	
+	public double getSmoothing()
+	{
+		return smoothing;
+	}
+	
+	/**
+	 * @return A tab-delimited string giving the parameter values.
+	 */
+	public String toString()
+	{
+		return minFrequency+"\t"+maxDivisor+"\t"+bandLow+"-"+bandHigh+"\t"+smoothing;
+	}
+}
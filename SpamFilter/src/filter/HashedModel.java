@@ -0,0 +1,285 @@
+package classifier.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import classifier.utils.HashMixer;
+import classifier.utils.Word;
+
+/**
+ * A spam filter model using the hashing trick. Rather than storing each word,
+ * every word is hashed into a fixed table of 2^k slots, each holding a HAM and
+ * SPAM count. Words which share a slot share their counts, so the memory used
+ * is set by k alone, and doesn't grow with the vocabulary of the corpus.
+ *
+ * All the counts are kept, and the pruning parameters (see FilterParameters)
+ * are applied to each slot when it is looked up. The model is saved as a binary
+ * file with the format,
+ *
+ * header		magic|version|k|hamTotal|spamTotal|hamWordCount|spamWordCount|messageCount
+ * counts		ham|spam for each slot
+ *
+ * where every field is a 4-byte int.
+ */
+
+public class HashedModel {
+
+	//Identifies the file as a hashed model, "SFHM"
+	public static final int MAGIC = 0x5346484D;
+	public static final int VERSION = 1;
+
+	//The HAM and SPAM count of each slot, interleaved so that both are in one cache line
+	private int[] counts;
+	private int bits, mask;
+
+	private int hamTotal, spamTotal, hamWordCount, spamWordCount, messageCount;
+
+	private FilterParameters parameters;
+
+	/**
+	 * Creates an empty model.
+	 *
+	 * @param bits The number of bits, k, in the slot index, i.e., the model has 2^k slots.
+	 */
+	public HashedModel(int bits)
+	{
+		if(bits < 1 || bits > 29)
+		{
+			throw new IllegalArgumentException("Hash bits must be between 1 and 29, not "+bits);
+		}
+
+		this.bits = bits;
+		mask = (1 << bits)-1;
+		counts = new int[2 << bits];
+		parameters = new FilterParameters();
+	}
+
+	/**
+	 * Checks whether a file is a hashed model, from its magic number.
+	 *
+	 * @param file The file to check.
+	 * @return True if the file is a hashed model, false otherwise.
+	 */
+	public static boolean isHashedModel(File file)
+	{
+		if(!file.isFile() || file.length() < 8)
+		{
+			return false;
+		}
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			int magic = in.readInt();
+			in.close();
+			return magic == MAGIC;
+		}
+		catch(IOException io)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Loads a model saved by save().
+	 *
+	 * @param file The model file.
+	 * @return The loaded model.
+	 * @throws IOException If the file cannot be read, or isn't a hashed model.
+	 */
+	public static HashedModel load(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+		try
+		{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+			{
+				throw new IOException(file+" is not a hashed model file");
+			}
+
+			HashedModel model = new HashedModel(in.readInt());
+			model.setTotals(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+
+			for(int i=0; i<model.counts.length; i++)
+			{
+				model.counts[i] = in.readInt();
+			}
+
+			return model;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Saves the model to a file.
+	 *
+	 * @param file The model file to be written.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void save(File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(bits);
+			out.writeInt(hamTotal);
+			out.writeInt(spamTotal);
+			out.writeInt(hamWordCount);
+			out.writeInt(spamWordCount);
+			out.writeInt(messageCount);
+
+			for(int i=0; i<counts.length; i++)
+			{
+				out.writeInt(counts[i]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Sets the message and word totals, as written in the spam filter header.
+	 */
+	public void setTotals(int hamTotal, int spamTotal, int hamWordCount, int spamWordCount, int messageCount)
+	{
+		this.hamTotal = hamTotal;
+		this.spamTotal = spamTotal;
+		this.hamWordCount = hamWordCount;
+		this.spamWordCount = spamWordCount;
+		this.messageCount = messageCount;
+	}
+
+	/**
+	 * Sets the parameters used to prune the slots when they are looked up.
+	 *
+	 * @param parameters The pruning parameters.
+	 */
+	public void setParameters(FilterParameters parameters)
+	{
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Adds a single occurrence of a word, for a message of the given type.
+	 *
+	 * @param word The cleaned, lower-case word.
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 */
+	public void add(String word, String messageType)
+	{
+		int slot = slot(word);
+
+		if(messageType.equals("SPAM"))
+		{
+			counts[2*slot+1]++;
+		}
+		else if(messageType.equals("HAM"))
+		{
+			counts[2*slot]++;
+		}
+		else
+		{
+			System.err.println("Error adding type '"+messageType+"' to "+word);
+		}
+	}
+
+	/**
+	 * Looks up the counts of a word's slot. A new Word object is created for
+	 * the lookup, as nothing is stored per word.
+	 *
+	 * @param word The cleaned, lower-case word.
+	 * @return The word, with its slot's counts and spamicity, or null if the slot is pruned.
+	 */
+	public Word getWord(String word)
+	{
+		int slot = slot(word);
+		int hamCount = counts[2*slot];
+		int spamCount = counts[2*slot+1];
+
+		if(!parameters.includeWord(hamCount, spamCount, messageCount))
+		{
+			return null;
+		}
+
+		double spamicity = ((double) spamCount) / ((double) hamCount+spamCount);
+		return new Word(word, hamCount, spamCount, spamicity);
+	}
+
+	/**
+	 * @return The slot index for the word.
+	 */
+	private int slot(String word)
+	{
+		//Spread the bits of the hash code, so the low bits are well mixed
+		return HashMixer.mix32(word.hashCode()) & mask;
+	}
+
+	/**
+	 * @return The number of slots with a non-zero count.
+	 */
+	public int getUsedSlots()
+	{
+		int used = 0;
+		for(int i=0; i<counts.length; i+=2)
+		{
+			if(counts[i] != 0 || counts[i+1] != 0)
+			{
+				used++;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @return The size of the count table, in bytes, which is the whole of the retained model.
+	 */
+	public long getRetainedSize()
+	{
+		return 16+4L*counts.length;
+	}
+
+	public int getBits()
+	{
+		return bits;
+	}
+
+	public int getHamTotal()
+	{
+		return hamTotal;
+	}
+
+	public int getSpamTotal()
+	{
+		return spamTotal;
+	}
+
+	public int getHamWordCount()
+	{
+		return hamWordCount;
+	}
+
+	public int getSpamWordCount()
+	{
+		return spamWordCount;
+	}
+
+	public int getMessageCount()
+	{
+		return messageCount;
+	}
+}
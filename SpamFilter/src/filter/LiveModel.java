@@ -0,0 +1,571 @@
+package classifier.filter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import classifier.utils.FilterFileReader;
+import classifier.utils.Message;
+import classifier.utils.Word;
+
+/**
+ * A spam filter vocabulary which can be trained with user feedback while it
+ * is classifying. Each word's HAM and SPAM counts are atomic counters, held in
+ * a ConcurrentHashMap, along with the message and word totals, so a lookup
+ * never blocks, however much feedback is being added.
+ *
+ * The Word object scored for each word is cached, and checked against the
+ * counters on each lookup. Only once a word's counts have changed is its
+ * spamicity recalculated, and the pruning parameters re-applied, as they would
+ * be by BuildFilter.
+ *
+ * Snapshots are written in the normal spam filter format, along with the
+ * unpruned .counts file, so a snapshot can be loaded by SpamFilter, or used to
+ * resume the live model. Feedback is paused while the counts are copied for a
+ * snapshot, so it is consistent, but classification is not. With a feedback
+ * log (see FeedbackLog), each feedback message is also durable once added,
+ * and a snapshot over the log's filter file compacts the log.
+ */
+
+public class LiveModel {
+
+	private ConcurrentHashMap<String, Counts> words;
+	private AtomicInteger hamTotal, spamTotal, messageCount;
+	private AtomicInteger hamWordCount, spamWordCount;
+	private FilterParameters parameters;
+
+	//The number of feedback messages added, so unchanged snapshots can be skipped
+	private AtomicLong version;
+	private long snapshotVersion;
+
+	//Shared by the feedback threads, and held exclusively while copying a snapshot
+	private ReentrantReadWriteLock snapshotLock;
+	private ScheduledExecutorService snapshots;
+	
+	//The feedback log, and the first log segment not included in the loaded counts
+	private FeedbackLog log;
+	private int baseSegment;
+
+	/**
+	 * The live counts of a single word, and the word object last scored.
+	 */
+	private static class Counts
+	{
+		final String word;
+		final AtomicInteger ham, spam;
+		volatile Word scored;
+
+		Counts(String word, int hamCount, int spamCount)
+		{
+			this.word = word;
+			ham = new AtomicInteger(hamCount);
+			spam = new AtomicInteger(spamCount);
+		}
+	}
+
+	/**
+	 * Creates a live model from a loaded vocabulary.
+	 *
+	 * @param vocabulary The word objects of the spam filter.
+	 * @param hamTotal The number of HAM messages trained on.
+	 * @param spamTotal The number of SPAM messages trained on.
+	 * @param hamWordCount The number of words in the HAM messages.
+	 * @param spamWordCount The number of words in the SPAM messages.
+	 * @param messageCount The number of messages trained on.
+	 * @param parameters The pruning parameters applied to the updated words.
+	 */
+	public LiveModel(Collection<Word> vocabulary, int hamTotal, int spamTotal, int hamWordCount,
+			int spamWordCount, int messageCount, FilterParameters parameters)
+	{
+		words = new ConcurrentHashMap<String, Counts>(Math.max(16, (int) (vocabulary.size()/0.75)+1));
+		this.hamTotal = new AtomicInteger(hamTotal);
+		this.spamTotal = new AtomicInteger(spamTotal);
+		this.hamWordCount = new AtomicInteger(hamWordCount);
+		this.spamWordCount = new AtomicInteger(spamWordCount);
+		this.messageCount = new AtomicInteger(messageCount);
+		this.parameters = parameters;
+
+		version = new AtomicLong();
+		snapshotLock = new ReentrantReadWriteLock();
+
+		Iterator<Word> iterator = vocabulary.iterator();
+		while(iterator.hasNext())
+		{
+			Word word = iterator.next();
+			Counts counts = new Counts(word.getWord(), word.getHamCount(), word.getSpamCount());
+
+			//Keep the loaded word, so the scores are unchanged until there's feedback
+			if(parameters.includeWord(word.getHamCount(), word.getSpamCount(), messageCount))
+			{
+				counts.scored = word;
+			}
+			words.put(word.getWord(), counts);
+		}
+	}
+
+	/**
+	 * Loads the unpruned word counts written by BuildFilter, or by a snapshot,
+	 * so that feedback on the pruned words is counted from their true totals.
+	 *
+	 * @param countsFile The counts file, e.g., spam-filter.dat.counts
+	 * @param parameters The pruning parameters.
+	 * @return The live model.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static LiveModel loadCounts(File countsFile, FilterParameters parameters) throws IOException
+	{
+		FilterFileReader reader = new FilterFileReader(countsFile);
+
+		try
+		{
+			List<Word> vocabulary = new ArrayList<Word>();
+			Word word;
+			while((word = reader.next()) != null)
+			{
+				vocabulary.add(word);
+			}
+
+			System.out.println("Loaded live counts for "+vocabulary.size()+" words");
+			LiveModel model = new LiveModel(vocabulary, reader.getHamTotal(), reader.getSpamTotal(), 
+					reader.getHamWordCount(), reader.getSpamWordCount(), 
+					reader.getHeaderField(4, reader.getHamTotal()+reader.getSpamTotal()), parameters);
+			model.setBaseSegment(reader.getHeaderField(5, 0));
+			return model;
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Looks up a word, recalculating its spamicity if its counts have changed
+	 * since it was last scored. This never blocks.
+	 *
+	 * @param word The cleaned, lower-case word.
+	 * @return The word object, or null if the word is unknown or pruned.
+	 */
+	public Word getWord(String word)
+	{
+		Counts counts = words.get(word);
+		if(counts == null)
+		{
+			return null;
+		}
+
+		int hamCount = counts.ham.get();
+		int spamCount = counts.spam.get();
+
+		//An included word stays included while its counts are unchanged, as the message count only grows
+		Word scored = counts.scored;
+		if(scored != null && scored.getHamCount() == hamCount && scored.getSpamCount() == spamCount)
+		{
+			return scored;
+		}
+
+		if(!parameters.includeWord(hamCount, spamCount, messageCount.get()))
+		{
+			return null;
+		}
+
+		//Racing readers may each create the word, but they're all equivalent
+		scored = new Word(word, hamCount, spamCount, ((double) spamCount)/((double) hamCount+spamCount));
+		counts.scored = scored;
+		return scored;
+	}
+
+	/**
+	 * Adds a message marked by a user as SPAM or HAM, as BuildFilter would
+	 * when training.
+	 *
+	 * @param rawText The raw message text, including the MIME headers.
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 */
+	public void addFeedback(String rawText, String messageType) throws IOException
+	{
+		Message message = new Message(rawText);
+		addFeedback(message.getWordSet(), message.getWordCount(), messageType);
+	}
+
+	/**
+	 * Adds the words of a parsed message marked by a user as SPAM or HAM.
+	 *
+	 * @param wordSet The set of unique words in the message.
+	 * @param wordCount The number of words in the message.
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 * @throws IOException If the feedback cannot be written to the log, when it isn't added.
+	 */
+	public void addFeedback(Collection<String> wordSet, int wordCount, String messageType) throws IOException
+	{
+		boolean spam = messageType.equals("SPAM");
+		if(!spam && !messageType.equals("HAM"))
+		{
+			System.err.println("Error adding feedback of type '"+messageType+"'");
+			return;
+		}
+
+		//Encode the log record before taking the lock
+		byte[] record = (log != null) ? FeedbackLog.encode(wordSet, wordCount, spam) : null;
+
+		snapshotLock.readLock().lock();
+		try
+		{
+			//Apply the feedback only once it is durable
+			if(record != null)
+			{
+				log.append(record);
+			}
+
+			Iterator<String> iterator = wordSet.iterator();
+			while(iterator.hasNext())
+			{
+				applyDelta(iterator.next(), spam ? 0 : 1, spam ? 1 : 0);
+			}
+
+			applyTotals(spam ? 0 : 1, spam ? 1 : 0, spam ? 0 : wordCount, spam ? wordCount : 0);
+		}
+		finally
+		{
+			snapshotLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds to the counts of a word, adding the word if it is new.
+	 */
+	void applyDelta(String word, int hamDelta, int spamDelta)
+	{
+		Counts counts = words.get(word);
+		if(counts == null)
+		{
+			Counts added = new Counts(word, 0, 0);
+			counts = words.putIfAbsent(word, added);
+			if(counts == null)
+			{
+				counts = added;
+			}
+		}
+
+		if(hamDelta != 0)
+		{
+			counts.ham.addAndGet(hamDelta);
+		}
+		if(spamDelta != 0)
+		{
+			counts.spam.addAndGet(spamDelta);
+		}
+	}
+
+	/**
+	 * Adds to the message and word totals, once the words of the messages have been added.
+	 */
+	void applyTotals(int hamDelta, int spamDelta, int hamWordDelta, int spamWordDelta)
+	{
+		hamWordCount.addAndGet(hamWordDelta);
+		spamWordCount.addAndGet(spamWordDelta);
+		hamTotal.addAndGet(hamDelta);
+		spamTotal.addAndGet(spamDelta);
+		messageCount.addAndGet(hamDelta+spamDelta);
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Opens the feedback log next to the filter file, replaying any feedback
+	 * logged since the counts were loaded. This must be called before any
+	 * feedback is added, and before classifying.
+	 *
+	 * @param filterFile The filter file the counts were loaded from.
+	 * @return The number of feedback records replayed.
+	 * @throws IOException If the log cannot be read or opened.
+	 */
+	public int openLog(File filterFile) throws IOException
+	{
+		FeedbackLog opened = new FeedbackLog(filterFile);
+		int replayed = opened.replay(this, baseSegment);
+		log = opened;
+
+		System.out.println("Replayed "+replayed+" feedback records from the log");
+		return replayed;
+	}
+
+	/**
+	 * Sets the first log segment not included in the loaded counts, from the filter header.
+	 */
+	public void setBaseSegment(int baseSegment)
+	{
+		this.baseSegment = baseSegment;
+	}
+
+	/**
+	 * @return The feedback log, or null if feedback isn't logged.
+	 */
+	public FeedbackLog getLog()
+	{
+		return log;
+	}
+
+	/**
+	 * @return The current probability of a message being SPAM, from the message totals.
+	 */
+	public double getProbSpam()
+	{
+		int ham = hamTotal.get();
+		int spam = spamTotal.get();
+		return ((double) spam)/((double) ham+spam);
+	}
+
+	/**
+	 * Writes a snapshot of the model, as a spam filter file of the words which
+	 * pass the pruning parameters, and a .counts file of every word. Each file
+	 * is written alongside, then renamed over the previous snapshot. A snapshot
+	 * over the feedback log's filter file also starts a new log segment, which
+	 * is given in both headers, and deletes the segments it includes.
+	 *
+	 * @param filterFile The spam filter file to be written.
+	 * @return False if the snapshot was skipped, as nothing has changed since the last one.
+	 * @throws IOException If the files cannot be written.
+	 */
+	public synchronized boolean snapshot(File filterFile) throws IOException
+	{
+		//Copy the counts and totals, while no feedback is being added
+		String[] keys;
+		int[] hamCounts, spamCounts;
+		int[] totals;
+		long copiedVersion;
+		boolean compacting = (log != null) && log.getFilterFile().getAbsoluteFile().equals(filterFile.getAbsoluteFile());
+		int segment = baseSegment;
+
+		snapshotLock.writeLock().lock();
+		try
+		{
+			copiedVersion = version.get();
+			if(copiedVersion == snapshotVersion && filterFile.exists())
+			{
+				return false;
+			}
+
+			keys = new String[words.size()];
+			hamCounts = new int[keys.length];
+			spamCounts = new int[keys.length];
+
+			int i = 0;
+			Iterator<Counts> iterator = words.values().iterator();
+			while(iterator.hasNext())
+			{
+				Counts counts = iterator.next();
+				keys[i] = counts.word;
+				hamCounts[i] = counts.ham.get();
+				spamCounts[i] = counts.spam.get();
+				i++;
+			}
+
+			totals = new int[]{hamTotal.get(), spamTotal.get(), hamWordCount.get(),
+					spamWordCount.get(), messageCount.get()};
+
+			//Later feedback goes to a new segment, which the snapshot doesn't include
+			if(compacting)
+			{
+				segment = log.rotate();
+			}
+		}
+		finally
+		{
+			snapshotLock.writeLock().unlock();
+		}
+
+		//Used to format the spamicity value for writing to file, as BuildFilter does
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(8);
+		nf.setMinimumFractionDigits(2);
+
+		String header = totals[0]+"|"+totals[1]+"|"+totals[2]+"|"+totals[3];
+		String segmentField = compacting ? "|"+segment : "";
+		File filterTemp = new File(filterFile.getPath()+".tmp");
+		File countsFile = new File(filterFile.getPath()+".counts");
+		File countsTemp = new File(countsFile.getPath()+".tmp");
+
+		BufferedWriter filterOut = new BufferedWriter(new FileWriter(filterTemp));
+		BufferedWriter countsOut = new BufferedWriter(new FileWriter(countsTemp));
+		try
+		{
+			filterOut.write(header+segmentField+"\n");
+			countsOut.write(header+"|"+totals[4]+segmentField+"\n");
+
+			for(int i=0; i<keys.length; i++)
+			{
+				String line = keys[i]+"|"+hamCounts[i]+"|"+spamCounts[i]+"|"
+						+nf.format(((double) spamCounts[i])/((double) hamCounts[i]+spamCounts[i]))+"\n";
+
+				countsOut.write(line);
+				if(parameters.includeWord(hamCounts[i], spamCounts[i], totals[4]))
+				{
+					filterOut.write(line);
+				}
+			}
+		}
+		finally
+		{
+			filterOut.close();
+			countsOut.close();
+		}
+
+		replace(countsTemp, countsFile);
+		replace(filterTemp, filterFile);
+		snapshotVersion = copiedVersion;
+
+		if(compacting)
+		{
+			log.deleteBefore(segment);
+			baseSegment = segment;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Renames a file over another.
+	 */
+	private static void replace(File source, File target) throws IOException
+	{
+		if(!source.renameTo(target))
+		{
+			//Some platforms can't rename over an existing file
+			target.delete();
+			if(!source.renameTo(target))
+			{
+				throw new IOException("Cannot rename "+source+" to "+target);
+			}
+		}
+	}
+
+	/**
+	 * Starts writing a snapshot periodically, on a background thread.
+	 *
+	 * @param filterFile The spam filter file to be written.
+	 * @param periodSeconds The time between snapshots.
+	 */
+	public synchronized void startSnapshots(final File filterFile, long periodSeconds)
+	{
+		stopSnapshots();
+
+		snapshots = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "live-model-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		snapshots.scheduleWithFixedDelay(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					if(snapshot(filterFile))
+					{
+						System.out.println("Wrote live model snapshot to "+filterFile);
+					}
+				}
+				catch(IOException io)
+				{
+					io.printStackTrace();
+				}
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the periodic snapshots, waiting for any snapshot in progress.
+	 */
+	public synchronized void stopSnapshots()
+	{
+		if(snapshots != null)
+		{
+			snapshots.shutdown();
+			try
+			{
+				snapshots.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			catch(InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+			}
+			snapshots = null;
+		}
+	}
+
+	/**
+	 * @return The words which currently pass the pruning parameters.
+	 */
+	public List<Word> getWords()
+	{
+		List<Word> scored = new ArrayList<Word>();
+
+		Iterator<String> iterator = words.keySet().iterator();
+		while(iterator.hasNext())
+		{
+			Word word = getWord(iterator.next());
+			if(word != null)
+			{
+				scored.add(word);
+			}
+		}
+
+		return scored;
+	}
+
+	public int size()
+	{
+		return words.size();
+	}
+
+	public int getHamTotal()
+	{
+		return hamTotal.get();
+	}
+
+	public int getSpamTotal()
+	{
+		return spamTotal.get();
+	}
+
+	public long getVersion()
+	{
+		return version.get();
+	}
+
+	/**
+	 * Estimates the retained size of the model, as SpamFilter.getRetainedSize()
+	 * does for the hashmap, with a Counts object and two atomic counters per word.
+	 *
+	 * @return The estimated retained size, in bytes.
+	 */
+	public long getRetainedSize()
+	{
+		long size = 16 + 16 + 4L*Integer.highestOneBit(Math.max(1, (int) (words.size()/0.75))*2-1);
+
+		Iterator<String> iterator = words.keySet().iterator();
+		while(iterator.hasNext())
+		{
+			//Node (32), String (24), Counts (24), two AtomicIntegers (32), Word (32) and the bytes
+			size += 32 + 24 + 24 + 32 + 32 + ((16 + iterator.next().length() + 7) & ~7L);
+		}
+
+		return size;
+	}
+}
@@ -0,0 +1,424 @@
+package classifier.filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import classifier.utils.CorpusReader;
+import classifier.utils.Histogram;
+
+/**
+ * Drives the spam filter at a fixed, open-loop arrival rate, to find how many
+ * messages per second can be classified within a latency target. The messages
+ * of a corpus are replayed in order, each one due at start + i/rate, regardless
+ * of how quickly the earlier messages completed.
+ *
+ * Each latency is measured from the time the message was due, not the time a
+ * worker got round to sending it, so any time spent queued behind slow messages
+ * is included, i.e., the latencies are corrected for coordinated omission. The
+ * service time, from the actual send, is also recorded for comparison.
+ *
+ * The rate is stepped up by a fixed factor, and a row of the throughput/latency
+ * table printed for each step, until the filter is saturated. Each worker keeps
+ * the same connection to the target for every step, opened before the first
+ * step starts, so connecting is never part of a measured latency.
+ */
+
+public class LoadDriver {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	//A step is saturated below this fraction of the target rate
+	private static final double SATURATION_RATIO = 0.95;
+
+	private Target target;
+	private int workers;
+	private List<String> messages;
+
+	/**
+	 * The system being driven, either the filter in this JVM or a daemon.
+	 */
+	public interface Target
+	{
+		/**
+		 * Readies a worker to send messages, e.g., opens its connection, if it
+		 * isn't already. Called for every worker before each step starts.
+		 *
+		 * @param worker The index of the worker.
+		 * @throws IOException If the worker cannot connect.
+		 */
+		public void connect(int worker) throws IOException;
+
+		/**
+		 * Classifies a message, and waits for the result.
+		 *
+		 * @param worker The index of the worker sending the message.
+		 * @param text The raw message text.
+		 * @return The verdict.
+		 * @throws IOException If the message cannot be sent.
+		 */
+		public String classify(int worker, String text) throws IOException;
+
+		public void close();
+	}
+
+	/**
+	 * The result of a single step at a fixed rate.
+	 */
+	public static class StepResult
+	{
+		public double rate, throughput;
+		public long completed, dropped;
+		public Histogram latency, serviceTime;
+
+		/**
+		 * @param p99Limit The 99th percentile latency target in nanoseconds, or 0 for none.
+		 * @return True if the step didn't keep up with the rate, or missed the latency target.
+		 */
+		public boolean isSaturated(long p99Limit)
+		{
+			return (throughput < rate*SATURATION_RATIO)||(dropped > 0)
+					||((p99Limit > 0)&&(latency.getPercentile(99.0) > p99Limit));
+		}
+	}
+
+	/**
+	 * Creates a load driver.
+	 *
+	 * @param target The filter, or daemon, to be driven.
+	 * @param workers The number of threads sending messages.
+	 */
+	public LoadDriver(Target target, int workers)
+	{
+		this.target = target;
+		this.workers = workers;
+		messages = new ArrayList<String>();
+	}
+
+	/**
+	 * Reads the messages to be replayed into memory, so that reading the
+	 * corpus isn't part of the measurement.
+	 *
+	 * @param corpusFile The corpus file.
+	 * @param maxMessages The maximum number of messages read.
+	 * @throws IOException If the corpus cannot be read.
+	 */
+	public void load(File corpusFile, int maxMessages) throws IOException
+	{
+		CorpusReader reader = new CorpusReader(corpusFile);
+		try
+		{
+			while(messages.size() < maxMessages && reader.next())
+			{
+				messages.add(reader.getText());
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		System.out.println("Loaded "+messages.size()+" messages from "+corpusFile);
+	}
+
+	/**
+	 * Runs the workers at a fixed rate for the given duration. Messages which
+	 * are still waiting to be sent a full duration after the end of the step are
+	 * dropped, but recorded with the latency they had reached. A worker which
+	 * cannot connect before the step is counted as a drop, and sits the step out.
+	 *
+	 * @param rate The arrival rate, in messages per second.
+	 * @param durationNanos The length of the step.
+	 * @return The throughput and latency of the step.
+	 */
+	public StepResult runStep(double rate, long durationNanos) throws InterruptedException
+	{
+		final StepResult result = new StepResult();
+		result.rate = rate;
+		result.latency = new Histogram();
+		result.serviceTime = new Histogram();
+
+		final AtomicLong next = new AtomicLong();
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		final double interval = 1e9/rate;
+
+		//Connect each worker, or reconnect it after a failure, before the step starts
+		List<Integer> connected = new ArrayList<Integer>();
+		for(int i=0; i<workers; i++)
+		{
+			try
+			{
+				target.connect(i);
+				connected.add(i);
+			}
+			catch(IOException io)
+			{
+				System.err.println("Worker "+i+" cannot connect: "+io.getMessage());
+				dropped.incrementAndGet();
+			}
+		}
+
+		//Start slightly in the future, so all the workers are ready
+		final long start = System.nanoTime()+10000000L;
+		final long deadline = start+durationNanos;
+		final long abandon = deadline+durationNanos;
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i=0; i<connected.size(); i++)
+		{
+			final int worker = connected.get(i);
+			Thread thread = new Thread(new Runnable() {
+				public void run()
+				{
+					boolean failed = false;
+					while(true)
+					{
+						long index = next.getAndIncrement();
+						long due = start+(long) (index*interval);
+						if(due >= deadline)
+						{
+							break;
+						}
+
+						long now = System.nanoTime();
+						if(now > abandon)
+						{
+							result.latency.record(now-due);
+							dropped.incrementAndGet();
+							continue;
+						}
+
+						//Wait until the message is due
+						while(now < due)
+						{
+							LockSupport.parkNanos(due-now);
+							now = System.nanoTime();
+						}
+
+						try
+						{
+							target.classify(worker, messages.get((int) (index%messages.size())));
+						}
+						catch(IOException io)
+						{
+							//Report the first failure, the rest are counted in the dropped column
+							if(!failed)
+							{
+								System.err.println("Worker "+worker+" cannot send: "+io.getMessage());
+								failed = true;
+							}
+							dropped.incrementAndGet();
+							continue;
+						}
+
+						long end = System.nanoTime();
+						result.latency.record(end-due);
+						result.serviceTime.record(end-now);
+						completed.incrementAndGet();
+					}
+				}
+			}, "load-worker-"+worker);
+			thread.start();
+			threads.add(thread);
+		}
+
+		for(int i=0; i<threads.size(); i++)
+		{
+			threads.get(i).join();
+		}
+
+		long elapsed = Math.max(System.nanoTime(), deadline)-start;
+		result.completed = completed.get();
+		result.dropped = dropped.get();
+		result.throughput = result.completed/(elapsed/1e9);
+
+		return result;
+	}
+
+	/**
+	 * Steps the rate up from the start rate, printing a row for each step,
+	 * until the filter is saturated or the maximum rate is reached.
+	 *
+	 * @param startRate The first rate, in messages per second.
+	 * @param factor The factor the rate is multiplied by at each step.
+	 * @param maxRate The highest rate tried.
+	 * @param stepNanos The length of each step.
+	 * @param p99Limit The 99th percentile latency target in nanoseconds, or 0 for none.
+	 * @return The highest rate sustained without saturating.
+	 */
+	public double run(double startRate, double factor, double maxRate, long stepNanos, long p99Limit)
+			throws InterruptedException
+	{
+		if(messages.isEmpty())
+		{
+			System.err.println("No messages loaded, exiting");
+			return 0.0;
+		}
+
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(2);
+		nf.setGroupingUsed(false);
+
+		//Warm up at the start rate, without reporting the results
+		System.out.println("Warming up at "+nf.format(startRate)+" msg/s");
+		runStep(startRate, stepNanos);
+
+		System.out.println("\n==============================");
+		System.out.println("Rate\tAchieved\tp50 (ms)\tp90 (ms)\tp99 (ms)\tp99.9 (ms)\tMax (ms)\tService p99 (ms)\tDropped");
+
+		double sustained = 0.0;
+		for(double rate=startRate; rate<=maxRate; rate*=factor)
+		{
+			StepResult result = runStep(rate, stepNanos);
+
+			System.out.println(nf.format(rate)+"\t"+nf.format(result.throughput)+"\t\t"
+					+nf.format(result.latency.getPercentile(50.0)/1e6)+"\t\t"
+					+nf.format(result.latency.getPercentile(90.0)/1e6)+"\t\t"
+					+nf.format(result.latency.getPercentile(99.0)/1e6)+"\t\t"
+					+nf.format(result.latency.getPercentile(99.9)/1e6)+"\t\t"
+					+nf.format(result.latency.getMax()/1e6)+"\t\t"
+					+nf.format(result.serviceTime.getPercentile(99.0)/1e6)+"\t\t\t"+result.dropped);
+
+			if(result.isSaturated(p99Limit))
+			{
+				System.out.println("Saturated at "+nf.format(rate)+" msg/s");
+				break;
+			}
+			sustained = rate;
+		}
+
+		System.out.println("==============================");
+		System.out.println("Highest sustained rate: "+nf.format(sustained)+" msg/s with "+workers+" workers");
+
+		return sustained;
+	}
+
+	/**
+	 * @return A target classifying messages with a spam filter in this JVM.
+	 */
+	public static Target inProcess(final SpamFilter filter)
+	{
+		return new Target() {
+			public void connect(int worker)
+			{
+			}
+
+			public String classify(int worker, String text)
+			{
+				return filter.classifyMessage(text).getMessageType();
+			}
+
+			public void close()
+			{
+			}
+		};
+	}
+
+	/**
+	 * Creates a target sending messages to a ClassifierDaemon. Each worker
+	 * has its own connection, opened before the first step and kept for the
+	 * whole run. A connection which fails is closed, and the worker's later
+	 * messages in the step are dropped, until it reconnects before the next step.
+	 *
+	 * @param host The daemon host name.
+	 * @param port The daemon port.
+	 * @return The daemon target.
+	 */
+	public static Target daemon(final String host, final int port)
+	{
+		final ConcurrentHashMap<Integer, Connection> connections = new ConcurrentHashMap<Integer, Connection>();
+
+		return new Target() {
+			public void connect(int worker) throws IOException
+			{
+				if(!connections.containsKey(worker))
+				{
+					connections.put(worker, new Connection(host, port));
+				}
+			}
+
+			public String classify(int worker, String text) throws IOException
+			{
+				Connection connection = connections.get(worker);
+				if(connection == null)
+				{
+					throw new IOException("Worker "+worker+" is not connected to "+host+":"+port);
+				}
+
+				try
+				{
+					return connection.classify(text);
+				}
+				catch(IOException io)
+				{
+					connections.remove(worker);
+					connection.close();
+					throw io;
+				}
+			}
+
+			public void close()
+			{
+				Iterator<Connection> iterator = connections.values().iterator();
+				while(iterator.hasNext())
+				{
+					iterator.next().close();
+				}
+				connections.clear();
+			}
+		};
+	}
+
+	/**
+	 * A single worker's connection to a ClassifierDaemon.
+	 */
+	private static class Connection
+	{
+		private Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+
+		Connection(String host, int port) throws IOException
+		{
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		String classify(String text) throws IOException
+		{
+			byte[] bytes = text.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.flush();
+
+			return in.readUTF();
+		}
+
+		void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch(IOException io)
+			{
+				io.printStackTrace();
+			}
+		}
+	}
+}
@@ -11,21 +11,47 @@ public class MessageClassifier {
 	private ArrayList <Word> words;
 	private double threshold;
 	
+	//The words added by their spamicity and frequency alone, without a word object
+	private double scoredLogOdds;
+	private int scoredCount;
+	
 	//The overall probability for any given message to be SPAM/HAM
 	private double probHam, probSpam;
 	
+	//The weight given to the overall probability when smoothing extreme spamicities
+	private double smoothing;
+	
 	//The probabilty this message is Spam
 	private double probMsgSpam;
 	
+	//Set if the message was only partially parsed
+	private boolean truncated;
+	
 	public MessageClassifier(double probHam, double probSpam)
+	{
+		this(probHam, probSpam, FilterParameters.DEFAULT_SMOOTHING);
+	}
+	
+	/**
+	 * Alternate constructor that sets the smoothing strength used to adjust 
+	 * words with a spamicity of exactly 0.0 or 1.0 towards the overall 
+	 * probability of a message being SPAM. 
+	 * 
+	 * @param probHam The overall probability of a message being HAM.
+	 * @param probSpam The overall probability of a message being SPAM.
+	 * @param smoothing The smoothing strength, 3.0 by default.
+	 */
+	public MessageClassifier(double probHam, double probSpam, double smoothing)
 	{
 		this.probHam = probHam;
 		this.probSpam = probSpam;
+		this.smoothing = smoothing;
 		words = new ArrayList<Word>();
 		threshold = 0.4;
 		
 		//Set to a nonsense value initially
 		probMsgSpam = -1.0;
+		truncated = false;
 	}
 	
 	/**
@@ -37,9 +63,43 @@ public class MessageClassifier {
 	{
 		words.add(word);
 	}
+	
+	/**
+	 * Adds a word by its spamicity and frequency alone, e.g., read straight 
+	 * from an off-heap model, so that no word object is created. The word is 
+	 * counted by size(), but isn't returned by getWord() or found by contains().
+	 * 
+	 * @param spamicity The spamicity of the word.
+	 * @param frequency The number of training messages containing the word.
+	 */
+	public void addWord(double spamicity, int frequency)
+	{
+		scoredLogOdds += getLogOdds(spamicity, frequency, probSpam, smoothing);
+		scoredCount++;
+	}
+
+	/**
+	 * Flags that the classification is based on a truncated message, 
+	 * i.e., one where parsing stopped early after hitting a parsing limit.
+	 * 
+	 * @param truncated True if the message was truncated. 
+	 */
+	public void setTruncated(boolean truncated)
+	{
+		this.truncated = truncated;
+	}
+	
+	/**
+	 * @return True if only part of the message was used for classification.
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
 
 	/**
-	 * Gets the word from the array of word objects.
+	 * Gets the word from the array of word objects, which doesn't include 
+	 * the words added by their spamicity alone.
 	 *
 	 * @param index The index of the word in the array.
 	 * @return A word object corresponding to the item at the index.
@@ -51,11 +111,11 @@ public class MessageClassifier {
 	
 	/**
 	 * 
-	 * @return The number of word objects currently in the array.
+	 * @return The number of words added, as objects or by their spamicity.
 	 */
 	public int size()
 	{
-		return words.size();
+		return words.size()+scoredCount;
 	}
 	
 	/**
@@ -92,22 +152,51 @@ public class MessageClassifier {
 		
 		for(int i=0; i<words.size(); i++)
 		{
-			//Get the spamicity of a word
-			double pSpam = words.get(i).getSpamicity();
-			
-			//Adjust extreme probability values
-			if((pSpam == 1.0)||(pSpam == 0.0))
-			{
-				double frequency = (double) words.get(i).getFrequency();
-				pSpam = (3.0*probSpam)+(frequency*pSpam);
-				pSpam = pSpam / (3.0 + frequency);
-			}
-			
 			//Add to the log-likelihood
-			loglik += (Math.log(1.0-pSpam) - Math.log(pSpam));			
+			loglik += getLogOdds(words.get(i), probSpam, smoothing);
+		}
+		
+		return loglik+scoredLogOdds;
+	}
+	
+	/**
+	 * Returns the contribution of a single word to the log-likelihood, i.e., 
+	 * log(1-p) - log(p) for the word's spamicity p, where extreme spamicities 
+	 * of 0.0 or 1.0 are first smoothed towards the overall SPAM probability. 
+	 * 
+	 * @param word The word object.
+	 * @param probSpam The overall probability of a message being SPAM.
+	 * @param smoothing The smoothing strength.
+	 * @return The log-odds of the word being HAM.
+	 */
+	public static double getLogOdds(Word word, double probSpam, double smoothing)
+	{
+		return getLogOdds(word.getSpamicity(), word.getFrequency(), probSpam, smoothing);
+	}
+	
+	/**
+	 * Returns the contribution of a single word to the log-likelihood, from 
+	 * its spamicity and frequency. 
+	 * 
+	 * @param spamicity The spamicity of the word.
+	 * @param wordFrequency The number of training messages containing the word.
+	 * @param probSpam The overall probability of a message being SPAM.
+	 * @param smoothing The smoothing strength.
+	 * @return The log-odds of the word being HAM.
+	 */
+	public static double getLogOdds(double spamicity, int wordFrequency, double probSpam, double smoothing)
+	{
+		double pSpam = spamicity;
+		
+		//Adjust extreme probability values
+		if((pSpam == 1.0)||(pSpam == 0.0))
+		{
+			double frequency = (double) wordFrequency;
+			pSpam = (smoothing*probSpam)+(frequency*pSpam);
+			pSpam = pSpam / (smoothing + frequency);
 		}
 		
-		return loglik;
+		return Math.log(1.0-pSpam) - Math.log(pSpam);
 	}
 	
 	/**
@@ -0,0 +1,370 @@
+package classifier.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import classifier.utils.FilterFileReader;
+import classifier.utils.Message;
+import classifier.utils.ParserConfig;
+import classifier.utils.TokenDictionary;
+import classifier.utils.Word;
+
+/**
+ * Serves the spam filters of many tenants, e.g., customer domains, from one
+ * shared vocabulary. Each word string is held once, in a TokenDictionary
+ * shared by all the tenants, and each tenant's filter is only primitive
+ * arrays, i.e., the sorted ids of its words, with their counts and spamicity.
+ * A message is tokenized, and its words looked up in the shared dictionary,
+ * once, then scored against any tenant's filter by a binary search of its ids.
+ *
+ * The tenants' filters are loaded when first used, and the least recently
+ * used are unloaded when their total size, with that of the shared dictionary, 
+ * exceeds the memory budget. The words of an unloaded filter stay in the shared 
+ * dictionary, so reloading the filter adds no new strings, but the dictionary 
+ * never shrinks. Once it alone exceeds the budget, only the filter in use is 
+ * kept loaded.
+ */
+
+public class ModelRegistry {
+
+	private TokenDictionary vocabulary;
+	private ReentrantReadWriteLock vocabularyLock;
+
+	//The filter file of each registered tenant
+	private HashMap<String, File> filterFiles;
+
+	//The loaded filters, in access order, guarded by the registry
+	private LinkedHashMap<String, TenantModel> models;
+	private long budget, loadedSize;
+	private volatile long dictionarySize;		//The retained size of the shared dictionary
+	private long loadCount, evictionCount;
+
+	private ParserConfig parserConfig;
+	private double smoothing;
+
+	/**
+	 * One tenant's filter, with the words in order of their shared ids.
+	 */
+	private static class TenantModel
+	{
+		int[] ids;
+		int[] hamCounts, spamCounts;
+		double[] spamicities;
+		double probSpam;
+
+		/**
+		 * @return The size of the arrays, in bytes.
+		 */
+		long getSize()
+		{
+			return 4*16+(long) ids.length*(4+4+4+8);
+		}
+	}
+
+	/**
+	 * @param budget The largest total size, in bytes, of the loaded tenant filters and the shared dictionary.
+	 */
+	public ModelRegistry(long budget)
+	{
+		this.budget = budget;
+		vocabulary = new TokenDictionary();
+		vocabularyLock = new ReentrantReadWriteLock();
+		filterFiles = new HashMap<String, File>();
+		models = new LinkedHashMap<String, TenantModel>(16, 0.75f, true);
+		parserConfig = ParserConfig.getDefault();
+		smoothing = FilterParameters.DEFAULT_SMOOTHING;
+	}
+
+	/**
+	 * Registers a tenant, whose filter is loaded when first used.
+	 *
+	 * @param tenant The tenant name, e.g., the customer domain.
+	 * @param filterFile The tenant's spam filter file.
+	 */
+	public synchronized void register(String tenant, File filterFile)
+	{
+		filterFiles.put(tenant, filterFile);
+
+		//A new file replaces any loaded filter
+		TenantModel model = models.remove(tenant);
+		if(model != null)
+		{
+			loadedSize -= model.getSize();
+		}
+	}
+
+	/**
+	 * Classifies a message with a tenant's filter.
+	 *
+	 * @param tenant The tenant name.
+	 * @param text The raw text comprising the message (include MIME headers).
+	 * @return The instantiated SPAM classifier for this message.
+	 * @throws IOException If the tenant's filter cannot be loaded.
+	 */
+	public MessageClassifier classifyMessage(String tenant, String text) throws IOException
+	{
+		return classifyMessage(new String[]{tenant}, text)[0];
+	}
+
+	/**
+	 * Classifies a message with the filter of each of several tenants, e.g.,
+	 * the recipient domains of a message, parsing the message and looking up
+	 * its words in the shared dictionary only once.
+	 *
+	 * @param tenants The tenant names.
+	 * @param text The raw text comprising the message (include MIME headers).
+	 * @return The instantiated SPAM classifier for each tenant.
+	 * @throws IOException If a tenant's filter cannot be loaded.
+	 */
+	public MessageClassifier[] classifyMessage(String[] tenants, String text) throws IOException
+	{
+		//Load the filters first, so their words are in the dictionary
+		TenantModel[] tenantModels = new TenantModel[tenants.length];
+		for(int i=0; i<tenants.length; i++)
+		{
+			tenantModels[i] = getModel(tenants[i]);
+		}
+
+		Message message = new Message(text, parserConfig);
+		Set<String> wordSet = message.getWordSet();
+		int[] ids = new int[wordSet.size()];
+		int count = 0;
+
+		MessageClassifier[] classifiers = new MessageClassifier[tenants.length];
+		vocabularyLock.readLock().lock();
+		try
+		{
+			Iterator<String> iterator = wordSet.iterator();
+			while(iterator.hasNext())
+			{
+				int id = vocabulary.lookup(iterator.next());
+				if(id != -1)
+				{
+					ids[count++] = id;
+				}
+			}
+
+			for(int i=0; i<tenants.length; i++)
+			{
+				classifiers[i] = score(tenantModels[i], ids, count);
+				classifiers[i].setTruncated(message.isTruncated());
+			}
+		}
+		finally
+		{
+			vocabularyLock.readLock().unlock();
+		}
+
+		return classifiers;
+	}
+
+	/**
+	 * Scores the shared ids of a message's words against a tenant's filter,
+	 * with the dictionary's read lock held.
+	 */
+	private MessageClassifier score(TenantModel model, int[] ids, int count)
+	{
+		MessageClassifier classifier = new MessageClassifier(1.0-model.probSpam, model.probSpam, smoothing);
+
+		for(int i=0; i<count; i++)
+		{
+			int index = Arrays.binarySearch(model.ids, ids[i]);
+			if(index >= 0)
+			{
+				//Scored from the arrays, without creating a word
+				classifier.addWord(model.spamicities[index], model.hamCounts[index]+model.spamCounts[index]);
+			}
+		}
+
+		return classifier;
+	}
+
+	/**
+	 * Gets a tenant's filter, loading it if needed.
+	 */
+	private TenantModel getModel(String tenant) throws IOException
+	{
+		File filterFile;
+		synchronized(this)
+		{
+			TenantModel model = models.get(tenant);
+			if(model != null)
+			{
+				return model;
+			}
+
+			filterFile = filterFiles.get(tenant);
+			if(filterFile == null)
+			{
+				throw new IllegalArgumentException("Unknown tenant "+tenant);
+			}
+		}
+
+		//Load outside the lock, so other tenants are served meanwhile
+		TenantModel model = load(filterFile);
+
+		synchronized(this)
+		{
+			//Another thread may have loaded the filter first
+			TenantModel loaded = models.get(tenant);
+			if(loaded != null)
+			{
+				return loaded;
+			}
+
+			models.put(tenant, model);
+			loadedSize += model.getSize();
+			loadCount++;
+
+			//Unload the least recently used filters, other than the one just loaded
+			Iterator<TenantModel> iterator = models.values().iterator();
+			while(loadedSize+dictionarySize > budget && models.size() > 1)
+			{
+				TenantModel evicted = iterator.next();
+				iterator.remove();
+				loadedSize -= evicted.getSize();
+				evictionCount++;
+			}
+		}
+
+		return model;
+	}
+
+	/**
+	 * Reads a spam filter file into arrays, adding its words to the shared dictionary.
+	 */
+	private TenantModel load(File filterFile) throws IOException
+	{
+		List<String> words = new ArrayList<String>();
+		List<Word> values = new ArrayList<Word>();
+		int hamTotal, spamTotal;
+
+		FilterFileReader reader = new FilterFileReader(filterFile);
+		try
+		{
+			hamTotal = reader.getHamTotal();
+			spamTotal = reader.getSpamTotal();
+
+			Word word;
+			while((word = reader.next()) != null)
+			{
+				//The word is kept only in the shared dictionary
+				words.add(word.getWord());
+				values.add(new Word(null, word.getHamCount(), word.getSpamCount(), word.getSpamicity()));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		//Pair each word's shared id with its index, to sort by id
+		long[] pairs = new long[words.size()];
+		vocabularyLock.writeLock().lock();
+		try
+		{
+			for(int i=0; i<pairs.length; i++)
+			{
+				pairs[i] = ((long) vocabulary.getId(words.get(i)) << 32) | i;
+			}
+			dictionarySize = vocabulary.getRetainedSize();
+		}
+		finally
+		{
+			vocabularyLock.writeLock().unlock();
+		}
+		Arrays.sort(pairs);
+
+		TenantModel model = new TenantModel();
+		model.ids = new int[pairs.length];
+		model.hamCounts = new int[pairs.length];
+		model.spamCounts = new int[pairs.length];
+		model.spamicities = new double[pairs.length];
+		model.probSpam = ((double) spamTotal)/((double) hamTotal+spamTotal);
+
+		for(int i=0; i<pairs.length; i++)
+		{
+			Word word = values.get((int) pairs[i]);
+			model.ids[i] = (int) (pairs[i] >>> 32);
+			model.hamCounts[i] = word.getHamCount();
+			model.spamCounts[i] = word.getSpamCount();
+			model.spamicities[i] = word.getSpamicity();
+		}
+
+		return model;
+	}
+
+	public void setParserConfig(ParserConfig config)
+	{
+		parserConfig = config;
+	}
+
+	/**
+	 * Sets the smoothing strength used for every tenant (see FilterParameters).
+	 */
+	public void setSmoothing(double smoothing)
+	{
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * @return The number of words in the shared dictionary.
+	 */
+	public int getVocabularySize()
+	{
+		vocabularyLock.readLock().lock();
+		try
+		{
+			return vocabulary.size();
+		}
+		finally
+		{
+			vocabularyLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The total size of the loaded tenant filters, in bytes, excluding the shared dictionary.
+	 */
+	public synchronized long getLoadedSize()
+	{
+		return loadedSize;
+	}
+	
+	/**
+	 * @return The estimated size of the shared dictionary, in bytes, which counts against the budget.
+	 */
+	public long getDictionarySize()
+	{
+		return dictionarySize;
+	}
+
+	public synchronized int getLoadedCount()
+	{
+		return models.size();
+	}
+
+	/**
+	 * @return The number of tenant filters loaded, including reloads after being unloaded.
+	 */
+	public synchronized long getLoadCount()
+	{
+		return loadCount;
+	}
+
+	/**
+	 * @return The number of tenant filters unloaded to keep within the budget.
+	 */
+	public synchronized long getEvictionCount()
+	{
+		return evictionCount;
+	}
+}
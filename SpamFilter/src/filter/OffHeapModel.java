@@ -0,0 +1,218 @@
+package classifier.filter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import classifier.utils.HashMixer;
+import classifier.utils.Word;
+
+/**
+ * A spam filter vocabulary held in a direct ByteBuffer, outside the Java heap,
+ * so that the collector has no per-word objects to trace or copy. The buffer
+ * holds an open-addressing table, at most half full, followed by the entries,
+ *
+ * slot		hash (int)|entry offset+1 (int), or 0 if empty
+ * entry		ham (int)|spam (int)|spamicity (double)|length (short)|UTF-8 bytes
+ *
+ * A lookup compares the stored hash, then the word's characters, directly
+ * against the buffer, so no objects are created for the words which aren't in
+ * the filter, i.e., most of them.
+ */
+
+public class OffHeapModel {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int SLOT_SIZE = 8;
+	private static final int ENTRY_HEADER = 18;
+
+	private ByteBuffer buffer;
+	private int mask;
+	private int size;
+
+	/**
+	 * Copies a vocabulary into a new direct buffer.
+	 *
+	 * @param vocabulary The word objects of the spam filter.
+	 */
+	public OffHeapModel(Collection<Word> vocabulary)
+	{
+		size = vocabulary.size();
+		int slots = Integer.highestOneBit(Math.max(1, size)*2-1)*2;
+		mask = slots-1;
+
+		//Encode the words first, to find the size of the buffer
+		byte[][] keys = new byte[size][];
+		long capacity = (long) slots*SLOT_SIZE;
+		Iterator<Word> iterator = vocabulary.iterator();
+		for(int i=0; i<size; i++)
+		{
+			keys[i] = iterator.next().getWord().getBytes(UTF8);
+			if(keys[i].length > Short.MAX_VALUE)
+			{
+				throw new IllegalArgumentException("Word of "+keys[i].length+" bytes is too long");
+			}
+			capacity += ENTRY_HEADER+keys[i].length;
+		}
+
+		if(capacity > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Vocabulary of "+capacity+" bytes is too large for one buffer");
+		}
+
+		buffer = ByteBuffer.allocateDirect((int) capacity);
+		int offset = slots*SLOT_SIZE;
+
+		iterator = vocabulary.iterator();
+		for(int i=0; i<size; i++)
+		{
+			Word word = iterator.next();
+			int hash = HashMixer.mix32(word.getWord().hashCode());
+			int slot = hash & mask;
+			while(buffer.getInt(slot*SLOT_SIZE+4) != 0)
+			{
+				slot = (slot+1) & mask;
+			}
+			buffer.putInt(slot*SLOT_SIZE, hash);
+			buffer.putInt(slot*SLOT_SIZE+4, offset+1);
+
+			buffer.putInt(offset, word.getHamCount());
+			buffer.putInt(offset+4, word.getSpamCount());
+			buffer.putDouble(offset+8, word.getSpamicity());
+			buffer.putShort(offset+16, (short) keys[i].length);
+			for(int j=0; j<keys[i].length; j++)
+			{
+				buffer.put(offset+ENTRY_HEADER+j, keys[i][j]);
+			}
+			offset += ENTRY_HEADER+keys[i].length;
+		}
+	}
+
+	/**
+	 * Finds the entry of a word.
+	 *
+	 * @param word The cleaned, lower-case word.
+	 * @return The offset of the word's entry in the buffer, or -1 if the word isn't in the model.
+	 */
+	public int find(String word)
+	{
+		int hash = HashMixer.mix32(word.hashCode());
+		int slot = hash & mask;
+		int entry;
+
+		while((entry = buffer.getInt(slot*SLOT_SIZE+4)) != 0)
+		{
+			if(buffer.getInt(slot*SLOT_SIZE) == hash && matches(word, entry-1))
+			{
+				return entry-1;
+			}
+			slot = (slot+1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compares a word with the bytes of an entry, a character at a time for ASCII words.
+	 */
+	private boolean matches(String word, int entry)
+	{
+		int length = buffer.getShort(entry+16);
+		int position = entry+ENTRY_HEADER;
+
+		if(word.length() == length)
+		{
+			int i = 0;
+			while(i < length && word.charAt(i) < 0x80 && buffer.get(position+i) == word.charAt(i))
+			{
+				i++;
+			}
+			if(i == length)
+			{
+				return true;
+			}
+			if(word.charAt(i) < 0x80)
+			{
+				return false;
+			}
+		}
+		else if(word.length() > length)
+		{
+			//A UTF-8 encoding is never shorter than the number of characters
+			return false;
+		}
+
+		//Compare any non-ASCII word in full
+		byte[] bytes = word.getBytes(UTF8);
+		if(bytes.length != length)
+		{
+			return false;
+		}
+		for(int i=0; i<length; i++)
+		{
+			if(buffer.get(position+i) != bytes[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getHamCount(int entry)
+	{
+		return buffer.getInt(entry);
+	}
+
+	public int getSpamCount(int entry)
+	{
+		return buffer.getInt(entry+4);
+	}
+
+	public double getSpamicity(int entry)
+	{
+		return buffer.getDouble(entry+8);
+	}
+
+	/**
+	 * Copies every entry back on to the heap as a word object.
+	 *
+	 * @return The words of the model.
+	 */
+	public List<Word> getWords()
+	{
+		List<Word> words = new ArrayList<Word>(size);
+
+		for(int slot=0; slot<=mask; slot++)
+		{
+			int entry = buffer.getInt(slot*SLOT_SIZE+4)-1;
+			if(entry != -1)
+			{
+				byte[] key = new byte[buffer.getShort(entry+16)];
+				for(int i=0; i<key.length; i++)
+				{
+					key[i] = buffer.get(entry+ENTRY_HEADER+i);
+				}
+				words.add(new Word(new String(key, UTF8), getHamCount(entry), getSpamCount(entry), getSpamicity(entry)));
+			}
+		}
+
+		return words;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The size of the direct buffer, in bytes, none of which is on the heap.
+	 */
+	public long getOffHeapSize()
+	{
+		return buffer.capacity();
+	}
+}
@@ -0,0 +1,397 @@
+package classifier.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import classifier.utils.FilterFileReader;
+import classifier.utils.MonitorEvent;
+import classifier.utils.PerformanceMonitor;
+import classifier.utils.TokenDictionary;
+import classifier.utils.TokenizedCorpus;
+import classifier.utils.TokenizedMessage;
+import classifier.utils.Word;
+
+/**
+ * Evaluates spam filters built with a grid of pruning and smoothing parameters, 
+ * without retraining. The unpruned word counts written by BuildFilter (the .counts 
+ * file) are loaded once, along with a tokenized evaluation set, and the filter for 
+ * each set of parameters is derived from these in memory. The candidates are 
+ * evaluated in parallel, and the filter size, TPR/FPR/AUC and scoring latency of 
+ * each are printed, marking those on the size/accuracy/latency frontier. 
+ */
+public class ParameterSweep implements PerformanceMonitor
+{
+	//The vocabulary and unpruned counts of each word
+	private TokenDictionary vocabulary;
+	private int[] hamCounts, spamCounts;
+	private int hamTotal, spamTotal, messageCount;
+	
+	//The evaluation messages, and the vocabulary id of each of their word ids
+	private TokenizedCorpus evaluation;
+	private int[] vocabularyIds;
+	
+	//The parameter sets to evaluate
+	private ArrayList<FilterParameters> grid;
+	
+	private double threshold;
+	private int threads;
+	
+	/**
+	 * @param threshold The probability threshold used to classify a message as SPAM.
+	 * @param threads The number of candidate filters evaluated in parallel.
+	 */
+	public ParameterSweep(double threshold, int threads)
+	{
+		this.threshold = threshold;
+		this.threads = threads;
+		
+		//By default, sweep around the BuildFilter parameters
+		setGrid(new int[]{1, 2, 3, 5, 10}, new int[]{2, 3, 5, 10}, 
+				new double[]{0.0, 0.05, 0.1}, new double[]{1.0, 3.0, 10.0});
+	}
+	
+	/**
+	 * Sets the grid of parameters, with one candidate filter for every 
+	 * combination of the given values. 
+	 * 
+	 * @param minFrequencies The minimum word frequencies.
+	 * @param maxDivisors The maximum frequency divisors.
+	 * @param bandWidths The half-widths of the spamicity band excluded around 0.5.
+	 * @param smoothings The smoothing strengths.
+	 */
+	public void setGrid(int[] minFrequencies, int[] maxDivisors, double[] bandWidths, double[] smoothings)
+	{
+		grid = new ArrayList<FilterParameters>();
+		
+		for(int a=0; a<minFrequencies.length; a++)
+		{
+			for(int b=0; b<maxDivisors.length; b++)
+			{
+				for(int c=0; c<bandWidths.length; c++)
+				{
+					for(int d=0; d<smoothings.length; d++)
+					{
+						grid.add(new FilterParameters(minFrequencies[a], maxDivisors[b], 
+								0.5-bandWidths[c], 0.5+bandWidths[c], smoothings[d]));
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Loads the unpruned word counts, as written by BuildFilter.
+	 * 
+	 * @param countsFilename The name of the counts file, e.g., spam-filter.dat.counts
+	 * @throws IOException If the file cannot be read.
+	 */
+	public void loadCounts(String countsFilename) throws IOException
+	{
+		FilterFileReader reader = new FilterFileReader(new File(countsFilename));
+		
+		hamTotal = reader.getHamTotal();
+		spamTotal = reader.getSpamTotal();
+		messageCount = reader.getHeaderField(4, hamTotal+spamTotal);
+		
+		vocabulary = new TokenDictionary();
+		hamCounts = new int[1024];
+		spamCounts = new int[1024];
+		
+		Word word;
+		while((word = reader.next()) != null)
+		{
+			int id = vocabulary.getId(word.getWord());
+			if(id == hamCounts.length)
+			{
+				hamCounts = Arrays.copyOf(hamCounts, id*2);
+				spamCounts = Arrays.copyOf(spamCounts, id*2);
+			}
+			
+			hamCounts[id] = word.getHamCount();
+			spamCounts[id] = word.getSpamCount();
+		}
+		
+		reader.close();
+		System.out.println("Loaded counts for "+vocabulary.size()+" words");
+	}
+	
+	/**
+	 * Loads and tokenizes the evaluation set, either a raw corpus or a token cache. 
+	 * The counts must be loaded first.
+	 * 
+	 * @param inputFilename The evaluation corpus or token cache file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public void loadEvaluation(String inputFilename) throws IOException
+	{
+		evaluation = TokenizedCorpus.load(new File(inputFilename));
+		
+		TokenDictionary dictionary = evaluation.getDictionary();
+		vocabularyIds = new int[dictionary.size()];
+		
+		for(int i=0; i<vocabularyIds.length; i++)
+		{
+			vocabularyIds[i] = vocabulary.lookup(dictionary.getWord(i));
+		}
+		
+		System.out.println("Loaded "+evaluation.size()+" evaluation messages");
+	}
+	
+	/**
+	 * Evaluates each candidate filter in the grid, printing the results in order 
+	 * of filter size. 
+	 * 
+	 * @param fprTarget The maximum acceptable false-positive rate.
+	 * @return The results for each candidate.
+	 * @throws Exception If the evaluation fails.
+	 */
+	public ArrayList<SweepResult> run(double fprTarget) throws Exception
+	{
+		MonitorEvent event = new MonitorEvent();
+		monitorStart(event);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<SweepResult>> futures = new ArrayList<Future<SweepResult>>();
+		
+		for(int i=0; i<grid.size(); i++)
+		{
+			final FilterParameters parameters = grid.get(i);
+			futures.add(executor.submit(new Callable<SweepResult>() {
+				public SweepResult call()
+				{
+					return evaluate(parameters);
+				}
+			}));
+		}
+		
+		ArrayList<SweepResult> results = new ArrayList<SweepResult>();
+		for(int i=0; i<futures.size(); i++)
+		{
+			results.add(futures.get(i).get());
+		}
+		executor.shutdown();
+		
+		monitorStop(event);
+		printResults(results, fprTarget);
+		
+		return results;
+	}
+	
+	/**
+	 * Derives the filter for a set of parameters from the unpruned counts, and 
+	 * scores each of the evaluation messages. 
+	 * 
+	 * @param parameters The pruning and smoothing parameters.
+	 * @return The result for this candidate filter.
+	 */
+	private SweepResult evaluate(FilterParameters parameters)
+	{
+		//The size of the filter is the number of words kept from the whole vocabulary
+		int size = 0;
+		for(int id=0; id<vocabulary.size(); id++)
+		{
+			if(parameters.includeWord(hamCounts[id], spamCounts[id], messageCount))
+			{
+				size++;
+			}
+		}
+		
+		//Build the word object for each evaluation word id in the filter
+		Word[] words = new Word[vocabularyIds.length];
+		for(int i=0; i<words.length; i++)
+		{
+			int id = vocabularyIds[i];
+			if((id != -1)&&(parameters.includeWord(hamCounts[id], spamCounts[id], messageCount)))
+			{
+				double spamicity = ((double) spamCounts[id]) / ((double) hamCounts[id]+spamCounts[id]);
+				words[i] = new Word(vocabulary.getWord(id), hamCounts[id], spamCounts[id], spamicity);
+			}
+		}
+		
+		double probHam = ((double) hamTotal)/((double) hamTotal+spamTotal);
+		double probSpam = ((double) spamTotal)/((double) hamTotal+spamTotal);
+		
+		Evaluation result = new Evaluation();
+		long start = System.nanoTime();
+		
+		for(int i=0; i<evaluation.size(); i++)
+		{
+			TokenizedMessage message = evaluation.get(i);
+			if(message.getType() == TokenizedMessage.UNKNOWN)
+			{
+				continue;
+			}
+			
+			MessageClassifier classifier = new MessageClassifier(probHam, probSpam, parameters.getSmoothing());
+			int[] ids = message.getIds();
+			for(int j=0; j<ids.length; j++)
+			{
+				if(words[ids[j]] != null)
+				{
+					classifier.addWord(words[ids[j]]);
+				}
+			}
+			
+			result.add(classifier.getConfidenceLevel(), message.isSpam());
+		}
+		
+		long elapsed = System.nanoTime()-start;
+		return new SweepResult(parameters, size, result, elapsed/Math.max(1, result.size()));
+	}
+	
+	/**
+	 * Prints the results in order of filter size. Candidates on the frontier, 
+	 * i.e., where no filter of the same size or smaller is at least as good on 
+	 * TPR, FPR and scoring latency, and better on one of these or on size, are 
+	 * marked with a '*', and the smallest filter meeting the FPR target is 
+	 * marked with a '>'.
+	 */
+	private void printResults(ArrayList<SweepResult> results, double fprTarget)
+	{
+		Collections.sort(results, new Comparator<SweepResult>() {
+			public int compare(SweepResult a, SweepResult b)
+			{
+				return (a.size < b.size) ? -1 : ((a.size == b.size) ? 0 : 1);
+			}
+		});
+		
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(6);
+		nf.setMinimumFractionDigits(6);
+		
+		SweepResult best = null;
+		
+		//Find the frontier before printing, since a result may be dominated by 
+		//one of the same size that comes after it
+		boolean[] dominated = new boolean[results.size()];
+		for(int i=0; i<results.size(); i++)
+		{
+			for(int j=0; j<results.size() && !dominated[i]; j++)
+			{
+				SweepResult other = results.get(j);
+				if((j != i)&&(other.size <= results.get(i).size))
+				{
+					dominated[i] = dominates(other, results.get(i));
+				}
+			}
+		}
+		
+		System.out.println("\n==============================");
+		System.out.println("   MinFreq\tMaxDiv\tBand\t\tSmooth\tWords\tTPR\t\tFPR\t\tAUC\t\tns/msg");
+		
+		for(int i=0; i<results.size(); i++)
+		{
+			SweepResult result = results.get(i);
+			double tpr = result.evaluation.getTruePositiveRate(threshold);
+			double fpr = result.evaluation.getFalsePositiveRate(threshold);
+			
+			String mark = dominated[i] ? " " : "*";
+			if((best == null)&&(fpr <= fprTarget))
+			{
+				best = result;
+				mark = mark.concat(">");
+			}
+			else
+			{
+				mark = mark.concat(" ");
+			}
+			
+			System.out.println(mark+" "+result.parameters.toString()+"\t"+result.size+"\t"+nf.format(tpr)+"\t"
+					+nf.format(fpr)+"\t"+nf.format(result.evaluation.getAUC())+"\t"+result.nanosPerMessage);
+		}
+		
+		if(best != null)
+		{
+			System.out.println("Smallest filter with FPR <= "+fprTarget+": "+best.size+" words ("+best.parameters.toString()+")");
+		}
+		else
+		{
+			System.out.println("No filter meets the FPR target of "+fprTarget);
+		}
+	}
+	
+	/**
+	 * @param a A result no larger than b.
+	 * @param b A result.
+	 * @return True if a is at least as good as b on TPR, FPR and latency, and 
+	 * better on one of these or smaller.
+	 */
+	private boolean dominates(SweepResult a, SweepResult b)
+	{
+		double tprA = a.evaluation.getTruePositiveRate(threshold);
+		double tprB = b.evaluation.getTruePositiveRate(threshold);
+		double fprA = a.evaluation.getFalsePositiveRate(threshold);
+		double fprB = b.evaluation.getFalsePositiveRate(threshold);
+		
+		if((tprA < tprB)||(fprA > fprB)||(a.nanosPerMessage > b.nanosPerMessage))
+		{
+			return false;
+		}
+		return (a.size < b.size)||(tprA > tprB)||(fprA < fprB)||(a.nanosPerMessage < b.nanosPerMessage);
+	}
+	
+	/**
+	 * Function used to monitor performance
+	 */
+	public void monitorStart(MonitorEvent event)
+	{
+		event.start();
+	}
+	
+	/**
+	 * Function used to monitor performance
+	 */
+	public void monitorStop(MonitorEvent event)
+	{
+		event.stop();
+		System.out.println(event.toString());
+	}
+	
+	/**
+	 * The result of evaluating a single candidate filter.
+	 */
+	public static class SweepResult
+	{
+		private FilterParameters parameters;
+		private int size;
+		private Evaluation evaluation;
+		private long nanosPerMessage;
+		
+		SweepResult(FilterParameters parameters, int size, Evaluation evaluation, long nanosPerMessage)
+		{
+			this.parameters = parameters;
+			this.size = size;
+			this.evaluation = evaluation;
+			this.nanosPerMessage = nanosPerMessage;
+		}
+		
+		public FilterParameters getParameters()
+		{
+			return parameters;
+		}
+		
+		public int getSize()
+		{
+			return size;
+		}
+		
+		public Evaluation getEvaluation()
+		{
+			return evaluation;
+		}
+		
+		public long getNanosPerMessage()
+		{
+			return nanosPerMessage;
+		}
+	}
+}
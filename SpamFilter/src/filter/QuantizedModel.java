@@ -0,0 +1,230 @@
+package classifier.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import classifier.utils.HashMixer;
+import classifier.utils.Word;
+
+/**
+ * A compact, read-only scoring model built from a loaded spam filter. Only the
+ * smoothed log-odds of each word (see MessageClassifier.getLogOdds()) matter
+ * when scoring, so each word's weight is quantized to a signed 8 or 16-bit
+ * integer with a single shared scale, and the weights are packed into one array
+ * by word id. The ids are assigned in order of decreasing frequency, so the
+ * weights of the most common words are together at the start of the array, and
+ * stay in the CPU cache.
+ *
+ * The words are found through an open-addressing table of ids, and scoring a
+ * message is an integer sum of the weights, with no Word objects, logarithms
+ * or boxing. Each weight is within scale/2 of its true value, so the total for
+ * n matched words is within n*scale/2, and as the slope of the logistic function
+ * is at most 1/4, the probability is within n*scale/8 of MessageClassifier's
+ * (unless the smoothing is zero, when infinite weights are clamped).
+ */
+
+public class QuantizedModel {
+
+	private int bits;
+	private double scale;
+
+	//The quantized weight of each word id, only one of which is used
+	private byte[] weights8;
+	private short[] weights16;
+
+	//The word for each id, and the id in each slot of the lookup table (or -1)
+	private String[] words;
+	private int[] table;
+	private int mask;
+
+	/**
+	 * Builds the model from the words of a spam filter.
+	 *
+	 * @param vocabulary The word objects of the spam filter.
+	 * @param probSpam The overall probability of a message being SPAM.
+	 * @param smoothing The smoothing strength.
+	 * @param bits The size of each quantized weight, either 8 or 16 bits.
+	 */
+	public QuantizedModel(Collection<Word> vocabulary, double probSpam, double smoothing, int bits)
+	{
+		if(bits != 8 && bits != 16)
+		{
+			throw new IllegalArgumentException("Weights must be 8 or 16 bits, not "+bits);
+		}
+		this.bits = bits;
+
+		//Assign the ids in order of decreasing frequency
+		ArrayList<Word> sorted = new ArrayList<Word>(vocabulary);
+		Collections.sort(sorted, new Comparator<Word>() {
+			public int compare(Word a, Word b)
+			{
+				return Integer.compare(b.getFrequency(), a.getFrequency());
+			}
+		});
+
+		int size = sorted.size();
+		words = new String[size];
+		double[] logOdds = new double[size];
+		double maxWeight = 0.0;
+
+		for(int i=0; i<size; i++)
+		{
+			words[i] = sorted.get(i).getWord();
+			logOdds[i] = MessageClassifier.getLogOdds(sorted.get(i), probSpam, smoothing);
+			if(!Double.isInfinite(logOdds[i]))
+			{
+				maxWeight = Math.max(maxWeight, Math.abs(logOdds[i]));
+			}
+		}
+
+		//Share one scale across all the weights, clamping any infinite weights
+		int maxLevel = (bits == 8) ? Byte.MAX_VALUE : Short.MAX_VALUE;
+		scale = (maxWeight > 0.0) ? maxWeight/maxLevel : 1.0;
+
+		if(bits == 8)
+		{
+			weights8 = new byte[size];
+		}
+		else
+		{
+			weights16 = new short[size];
+		}
+
+		for(int i=0; i<size; i++)
+		{
+			long level = Math.max(-maxLevel, Math.min(maxLevel, Math.round(logOdds[i]/scale)));
+			if(bits == 8)
+			{
+				weights8[i] = (byte) level;
+			}
+			else
+			{
+				weights16[i] = (short) level;
+			}
+		}
+
+		//The lookup table is at most half full
+		int tableSize = Integer.highestOneBit(Math.max(1, size)*2-1)*2;
+		table = new int[tableSize];
+		mask = tableSize-1;
+		Arrays.fill(table, -1);
+
+		for(int i=0; i<size; i++)
+		{
+			int slot = slot(words[i]);
+			while(table[slot] != -1)
+			{
+				slot = (slot+1) & mask;
+			}
+			table[slot] = i;
+		}
+	}
+
+	/**
+	 * @return The slot of the lookup table a word is first probed in.
+	 */
+	private int slot(String word)
+	{
+		return HashMixer.mix32(word.hashCode()) & mask;
+	}
+
+	/**
+	 * Finds the id of a word.
+	 *
+	 * @param word The cleaned, lower-case word.
+	 * @return The id of the word, or -1 if the word isn't in the model.
+	 */
+	public int getId(String word)
+	{
+		int slot = slot(word);
+		int id;
+
+		while((id = table[slot]) != -1)
+		{
+			if(words[id].equals(word))
+			{
+				return id;
+			}
+			slot = (slot+1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param id The word id.
+	 * @return The quantized weight of the word, to be multiplied by the scale.
+	 */
+	public int getWeight(int id)
+	{
+		return (bits == 8) ? weights8[id] : weights16[id];
+	}
+
+	/**
+	 * Scores the words of a message.
+	 *
+	 * @param messageWords The set of unique words in the message.
+	 * @return The probability the message is SPAM.
+	 */
+	public double getProbability(Collection<String> messageWords)
+	{
+		long total = 0;
+
+		Iterator<String> iterator = messageWords.iterator();
+		while(iterator.hasNext())
+		{
+			int id = getId(iterator.next());
+			if(id != -1)
+			{
+				total += getWeight(id);
+			}
+		}
+
+		return 1.0 / (1.0 + Math.exp(total*scale));
+	}
+
+	/**
+	 * Gets the largest difference possible between this model's probability
+	 * and MessageClassifier's, for a message with the given number of matched words.
+	 *
+	 * @param matchedWords The number of message words found in the model.
+	 * @return The bound on the difference in the probability of the message being SPAM.
+	 */
+	public double getErrorBound(int matchedWords)
+	{
+		return Math.min(1.0, matchedWords*scale/8.0);
+	}
+
+	/**
+	 * @return The value of one quantization level, in log-odds.
+	 */
+	public double getScale()
+	{
+		return scale;
+	}
+
+	public int getBits()
+	{
+		return bits;
+	}
+
+	public int size()
+	{
+		return words.length;
+	}
+
+	/**
+	 * Estimates the retained size of the model, excluding the word Strings
+	 * (which are shared with the spam filter it was built from).
+	 *
+	 * @return The size of the weights, word references and lookup table, in bytes.
+	 */
+	public long getRetainedSize()
+	{
+		return (16+words.length*bits/8)+(16+4L*words.length)+(16+4L*table.length);
+	}
+}
@@ -0,0 +1,183 @@
+package classifier.filter;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import classifier.utils.Message;
+import classifier.utils.MetricsRegistry;
+import classifier.utils.MonitorEvent;
+
+/**
+ * Classifies each message with a primary spam filter, whose verdict is used,
+ * and any number of shadow filters, e.g., a retrained filter before it is
+ * promoted. The message is parsed and tokenized once, with the primary
+ * filter's parsing limits, and the same words are scored by every filter
+ * (see SpamFilter.classifyWords()), so each shadow filter costs one extra
+ * lookup and scoring pass rather than a full classification.
+ *
+ * The time each filter takes to score the words is recorded as a stage named
+ * after the filter, alongside the parse stage, and the number of messages on
+ * which each shadow filter's verdict differs from the primary's is counted.
+ * The filters must all be added before messages are classified, after which
+ * this may be called from several threads at once.
+ */
+
+public class ShadowClassifier {
+
+	//The stage recording the MIME parsing and tokenizing
+	public static final String STAGE_PARSE = "parse";
+
+	private List<String> names;
+	private List<SpamFilter> filters;
+	private List<AtomicLong> disagreements;
+	private AtomicLong messageCount;
+
+	private MonitorEvent stageMonitor;
+
+	/**
+	 * @param name The name of the primary filter, used for its stage.
+	 * @param primary The primary spam filter, whose verdict is used.
+	 */
+	public ShadowClassifier(String name, SpamFilter primary)
+	{
+		names = new ArrayList<String>();
+		filters = new ArrayList<SpamFilter>();
+		disagreements = new ArrayList<AtomicLong>();
+		messageCount = new AtomicLong();
+		stageMonitor = new MonitorEvent();
+
+		addShadow(name, primary);
+	}
+
+	/**
+	 * Adds a shadow filter, whose verdicts are compared with the primary's.
+	 *
+	 * @param name The name of the filter, used for its stage.
+	 * @param shadow The shadow spam filter.
+	 */
+	public void addShadow(String name, SpamFilter shadow)
+	{
+		if(names.contains(name) || STAGE_PARSE.equals(name))
+		{
+			throw new IllegalArgumentException("Duplicate filter name "+name);
+		}
+
+		names.add(name);
+		filters.add(shadow);
+		disagreements.add(new AtomicLong());
+	}
+
+	/**
+	 * Classifies a message with the primary filter and every shadow filter.
+	 *
+	 * @param text The raw text comprising the message (include MIME headers).
+	 * @return The classifier of each filter, the primary's first, in the order they were added.
+	 */
+	public MessageClassifier[] classifyMessage(String text)
+	{
+		long start = System.nanoTime();
+		Message message = new Message(text, filters.get(0).getParserConfig());
+		HashSet<String> wordSet = message.getWordSet();
+		stageMonitor.recordStage(STAGE_PARSE, System.nanoTime()-start);
+
+		MessageClassifier[] classifiers = new MessageClassifier[filters.size()];
+		for(int i=0; i<classifiers.length; i++)
+		{
+			long scoreStart = System.nanoTime();
+			classifiers[i] = filters.get(i).classifyWords(wordSet, message.isTruncated());
+			classifiers[i].getConfidenceLevel();
+			stageMonitor.recordStage(names.get(i), System.nanoTime()-scoreStart);
+
+			if(i > 0 && !classifiers[i].getMessageType().equals(classifiers[0].getMessageType()))
+			{
+				disagreements.get(i).incrementAndGet();
+			}
+		}
+		messageCount.incrementAndGet();
+
+		//Only the primary verdict is served, and counted in the JVM-wide metrics
+		MetricsRegistry.getInstance().recordClassification(classifiers[0].getMessageType().equals("SPAM"), 
+				wordSet.size(), classifiers[0].size(), message.isTruncated());
+
+		return classifiers;
+	}
+
+	/**
+	 * @return The names of the filters, the primary's first.
+	 */
+	public List<String> getNames()
+	{
+		return names;
+	}
+
+	/**
+	 * @param name The name of a shadow filter.
+	 * @return The number of messages the shadow filter's verdict differed from the primary's.
+	 */
+	public long getDisagreementCount(String name)
+	{
+		int index = names.indexOf(name);
+		if(index == -1)
+		{
+			throw new IllegalArgumentException("Unknown filter name "+name);
+		}
+		return disagreements.get(index).get();
+	}
+
+	public long getMessageCount()
+	{
+		return messageCount.get();
+	}
+
+	/**
+	 * @return The monitor event for the parse stage, and the scoring stage of each filter.
+	 */
+	public MonitorEvent getStageMonitor()
+	{
+		return stageMonitor;
+	}
+
+	/**
+	 * Clears the message and disagreement counts, and the stage latencies, 
+	 * e.g., after a warm-up.
+	 */
+	public void reset()
+	{
+		messageCount.set(0);
+		for(int i=0; i<disagreements.size(); i++)
+		{
+			disagreements.get(i).set(0);
+		}
+		stageMonitor.reset();
+	}
+
+	/**
+	 * @return A summary of the disagreements and scoring latency of each shadow filter.
+	 */
+	public String getSummary()
+	{
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(2);
+
+		StringBuilder summary = new StringBuilder();
+		long messages = getMessageCount();
+
+		for(int i=1; i<names.size(); i++)
+		{
+			long disagreed = disagreements.get(i).get();
+			summary.append(names.get(i)).append(": ").append(disagreed).append(" of ").append(messages)
+					.append(" verdicts differ from ").append(names.get(0));
+			if(messages > 0)
+			{
+				summary.append(" (").append(nf.format(100.0*disagreed/messages)).append("%)");
+			}
+			summary.append("\n");
+		}
+		summary.append(stageMonitor.getStageSummary());
+
+		return summary.toString();
+	}
+}
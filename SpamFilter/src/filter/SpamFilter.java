@@ -1,66 +1,127 @@
 package classifier.filter;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.StringTokenizer;
+import java.util.Set;
 
+import classifier.utils.BlockedBloomFilter;
+import classifier.utils.ClassifyEvent;
+import classifier.utils.CorpusReader;
+import classifier.utils.FilterFileReader;
+import classifier.utils.FilterLoadEvent;
+import classifier.utils.FrontCodedDictionary;
 import classifier.utils.Message;
+import classifier.utils.MetricsRegistry;
 import classifier.utils.MonitorEvent;
+import classifier.utils.ParserConfig;
 import classifier.utils.PerformanceMonitor;
+import classifier.utils.Pipeline;
+import classifier.utils.PipelineConfig;
+import classifier.utils.SlowMessageLog;
+import classifier.utils.TokenCacheReader;
+import classifier.utils.TokenDictionary;
+import classifier.utils.TokenizedMessage;
 import classifier.utils.Word;
 
 
 public class SpamFilter implements PerformanceMonitor{
 	
-	private int hamTotal, spamTotal;			//Total HAM/SPAM messages
-	private int spamMsgCount, hamMsgCount;		//Word count for each type
+	//The system property giving the false-positive rate of a Bloom filter built when loading
+	public static final String BLOOM_PROPERTY = "classifier.bloom.fpr";
+	
+	private volatile FilterState state;			//The hashmap and the totals, replaced together
 	private int spamSize, hamSize;				//Mean words in each type
 	private int vocabularySize; 				//The num. words in spam filter
 	
-	//The double values to calculate probabilities
-	private double probSpamTotal, probHamTotal;
+	private HashedModel hashedModel;			//Or the hashed model, if loaded from one
+	private BlockedBloomFilter bloomFilter;		//Optionally rejects unknown words before the lookup
+	
+	//Or the front-coded dictionary, with the counts and spamicity of each word id
+	private FrontCodedDictionary dictionary;
+	private int[] hamCounts, spamCounts;
+	private double[] spamicities;
+	
+	private OffHeapModel offHeapModel;			//Or the vocabulary in a direct buffer
+	private LiveModel liveModel;				//Or the vocabulary updated with user feedback
+	
+	private String filterFilename;				//The file the filter was loaded from
+	private int logSegment;						//The first feedback log segment not in the filter
 	
-	private HashMap<String, Word> wordList;		//The spam filter hashmap
+	private ParserConfig parserConfig;			//The message parsing limits
+	private double smoothing;					//The smoothing strength
+	
+	private MonitorEvent stageMonitor;			//The latency of each classification stage
+	private SlowMessageLog slowLog;				//Captures messages over the latency budget
 	
 	/**
 	 * The constructor for the spam filter. Takes a pipe-delimited 
 	 * file as input, and re-creates the hashmap linking various words
-	 * to spam/ham counts. 
+	 * to spam/ham counts. If the system property classifier.bloom.fpr is set, 
+	 * e.g., -Dclassifier.bloom.fpr=0.01, a Bloom filter with that false-positive 
+	 * rate is built over the vocabulary once it is loaded (see enableBloomFilter()). 
 	 * 
 	 * @param trainingData The name of the spam filter file. 
 	 */
 	public SpamFilter(String trainingData)
 	{
+		FilterLoadEvent event = new FilterLoadEvent();
+		event.begin();
+		
+		filterFilename = trainingData;
+		parserConfig = ParserConfig.getDefault();
+		smoothing = FilterParameters.DEFAULT_SMOOTHING;
+		stageMonitor = new MonitorEvent();
+		MetricsRegistry.getInstance().addStages(this, stageMonitor);
+		
 		try
 		{
 			File file = new File(trainingData);
 			
+			//Load a hashed model, which has no word list
+			if(HashedModel.isHashedModel(file))
+			{
+				hashedModel = HashedModel.load(file);
+				setState(null, hashedModel.getHamTotal(), hashedModel.getSpamTotal(), 
+						hashedModel.getHamWordCount(), hashedModel.getSpamWordCount());
+				
+				vocabularySize = hashedModel.getUsedSlots();
+				System.out.println("Loaded hashed model, "+vocabularySize+" of "+(1 << hashedModel.getBits())+" slots used");
+				System.out.println("Vocabulary retained size: "+(getRetainedSize()/1024)+"kB");
+				
+				if(event.shouldCommit())
+				{
+					event.filename = trainingData;
+					event.vocabularySize = hashedModel.getUsedSlots();
+					event.retainedSize = getRetainedSize();
+					event.commit();
+				}
+			}
 			//Check the training data file exists
-			if(file.exists())
+			else if(file.exists())
 			{
-				wordList = new HashMap<String, Word>();
+				HashMap<String, Word> wordList = new HashMap<String, Word>();
 				
 				//The line count
 				int lineCount = 0;
-				BufferedReader reader = new BufferedReader(new FileReader(file));
-				String line, header;
-					
-				header = reader.readLine();
-				parseHeader(header);
+				FilterFileReader reader = new FilterFileReader(file);
+				Word word;
+				
+				//A snapshot of a live model with a feedback log also gives the log segment
+				logSegment = reader.getHeaderField(4, 0);
 					
 				System.out.print("Loading spam filter");
 
-				//Read the file line by line
-				while ((line = reader.readLine()) != null)
+				//Read the file word by word
+				while ((word = reader.next()) != null)
 				{
-					parseFilter(line);
+					wordList.put(word.getWord(), word);
 					lineCount++;
 						
 					if(lineCount%5000 == 0)
@@ -68,11 +129,29 @@ public class SpamFilter implements PerformanceMonitor{
 						System.out.print(".");
 					}
 				}
+				reader.close();
 				
 				System.out.println(" finished");
+				setState(wordList, reader.getHamTotal(), reader.getSpamTotal(), 
+						reader.getHamWordCount(), reader.getSpamWordCount());
 
 				//Set the size of the spam filter vocabulary
 				vocabularySize = wordList.size();	
+				System.out.println("Vocabulary retained size: "+(getRetainedSize()/1024)+"kB");
+				
+				String bloomRate = System.getProperty(BLOOM_PROPERTY);
+				if(bloomRate != null)
+				{
+					enableBloomFilter(bloomRate);
+				}
+				
+				if(event.shouldCommit())
+				{
+					event.filename = trainingData;
+					event.vocabularySize = vocabularySize;
+					event.retainedSize = getRetainedSize();
+					event.commit();
+				}
 			}
 			else
 			{
@@ -87,91 +166,110 @@ public class SpamFilter implements PerformanceMonitor{
 	
 	
 	/**
-	 * Parses the header for the spam filter file, adding the ham 
-	 * and spam counts from the training file to the hamCount and 
-	 * spamCount global variables. 
+	 * Publishes the vocabulary hashmap, with the message and word totals for 
+	 * each type from the header of the spam filter file. 
+	 */
+	private void setState(HashMap<String, Word> wordList, int hamTotal, int spamTotal, int hamWords, int spamWords)
+	{
+		state = new FilterState(wordList, hamTotal, spamTotal, hamWords, spamWords);
+		
+		//The mean size of messages from the two types
+		hamSize = getMeanSize(hamWords, hamTotal);
+		spamSize = getMeanSize(spamWords, spamTotal);
+	}
+	
+	/**
+	 * @return The mean words per message, or 0 if there are no messages of the 
+	 * type, e.g., a filter trained on HAM only.
+	 */
+	private static int getMeanSize(int words, int messages)
+	{
+		return (messages == 0) ? 0 : words/messages;
+	}
+	
+	
+	/**
+	 * Estimates the heap retained by the loaded vocabulary, i.e., the hashmap 
+	 * table, and the entry, String, character array and Word object for each 
+	 * word. This assumes a 64-bit JVM with compressed references and compact 
+	 * (Latin-1) strings, where objects are aligned to 8 bytes.
 	 * 
-	 * @param line The string giving the pipe-delimited header line. 
+	 * @return The estimated retained size of the vocabulary, in bytes.
 	 */
-	private void parseHeader(String line)
+	public long getRetainedSize()
 	{
-		//Tokenize the header line
-		StringTokenizer strtok = new StringTokenizer(line, "|");
-		try
+		if(hashedModel != null)
 		{
-			String hamCountStr = strtok.nextToken();
-			String spamCountStr = strtok.nextToken();
-			String hamWordsStr = strtok.nextToken();
-			String spamWordsStr = strtok.nextToken();
-			
-			//Set the ham, spam and overall totals
-			hamTotal = Integer.parseInt(hamCountStr);
-			spamTotal = Integer.parseInt(spamCountStr);
-			hamMsgCount = Integer.parseInt(hamWordsStr);
-			spamMsgCount = Integer.parseInt(spamWordsStr);
-			
-			//Calc. the probabilities here for re-use later
-			probHamTotal = ((double) hamTotal)/((double) hamTotal+spamTotal);
-			probSpamTotal = ((double) spamTotal)/((double) hamTotal+spamTotal);
-			
-			//The mean size of messages from the two types
-			hamSize = hamMsgCount/hamTotal;
-			spamSize = spamMsgCount/spamTotal;
+			return hashedModel.getRetainedSize();
 		}
-		catch(Exception ex)
+		if(dictionary != null)
 		{
-			ex.printStackTrace();
+			//The dictionary, and the two int and one double array indexed by id
+			return dictionary.getRetainedSize() + 3*16 + 16L*dictionary.size();
 		}
-
+		if(offHeapModel != null)
+		{
+			//Only the buffer object itself is on the heap
+			return 64;
+		}
+		if(liveModel != null)
+		{
+			return liveModel.getRetainedSize();
+		}
+		
+		HashMap<String, Word> wordList = state.wordList;
+		
+		//The table of references, sized to the next power of two above size/0.75
+		long tableSize = Integer.highestOneBit(Math.max(1, (int) (wordList.size()/0.75))*2-1);
+		long size = 16 + align(16 + 4*tableSize);
+		
+		Iterator<String> iterator = wordList.keySet().iterator();
+		while(iterator.hasNext())
+		{
+			String word = iterator.next();
+			
+			//HashMap.Node (32), String (24), Word (32) and the string's byte array
+			size += 32 + 24 + 32 + align(16 + word.length());
+		}
+		
+		return size;
 	}
 	
+	/**
+	 * Rounds an object size up to the 8-byte alignment of the JVM. 
+	 */
+	private static long align(long bytes)
+	{
+		return (bytes + 7) & ~7L;
+	}
 	
 	/**
-	 * Parses a pipe-delimited line, representing a word within the spam 
-	 * filter. 
+	 * Sets the limits used to bound the cost of parsing each classified message.
 	 * 
-	 * @param line A string giving the pipe-delimited line in the file.
+	 * @param config The parsing limits. 
 	 */
-	private void parseFilter(String line)
+	public void setParserConfig(ParserConfig config)
 	{
-		String delims = "\\|";		
-		String[] tokens = line.split(delims);
-		
-		String hamString, spamString, spamicityString;
-		int hamOccurrences, spamOccurrences;
-		double spamicity;
-		
-		String word;
-		Word wordObject;
-				
-		try
-		{
-			if(tokens.length != 4)
-			{
-				System.err.println("Line "+line+" cannot be parsed into word|ham|spam");
-			}
-			else
-			{
-				word = tokens[0];
-				hamString = tokens[1];
-				spamString = tokens[2];
-				spamicityString = tokens[3];
-				
-				hamOccurrences = Integer.parseInt(hamString);
-				spamOccurrences = Integer.parseInt(spamString);
-				spamicity = Double.parseDouble(spamicityString);
-				
-				wordObject = new Word(word, hamOccurrences, spamOccurrences, spamicity);
-				wordList.put(word, wordObject);
-			}
-		}
-		catch(NumberFormatException ex)
-		{
-			ex.printStackTrace();
-			System.err.println("Error parsing value in line: "+line);
-		}
+		parserConfig = config;
 	}
 	
+	/**
+	 * @return The limits used when parsing each classified message.
+	 */
+	public ParserConfig getParserConfig()
+	{
+		return parserConfig;
+	}
+	
+	/**
+	 * Sets the smoothing strength applied to words with extreme spamicities. 
+	 * 
+	 * @param smoothing The smoothing strength, 3.0 by default.
+	 */
+	public void setSmoothing(double smoothing)
+	{
+		this.smoothing = smoothing;
+	}
 	
 	/**
 	 * Returns an instantiated classifier object for the specified text. 
@@ -185,37 +283,601 @@ public class SpamFilter implements PerformanceMonitor{
 	 */
 	public MessageClassifier classifyMessage(String text)
 	{		
+		ClassifyEvent event = new ClassifyEvent();
+		event.begin();
+		
+		long startAllocated = MonitorEvent.getThreadAllocatedBytes();
+		long start = System.nanoTime();
+		
 		//Instantiate a MIME message object with the raw text
-		Message message = new Message(text);
+		Message message = new Message(text, parserConfig);
+		stageMonitor.recordStage(MonitorEvent.STAGE_MIME, message.getMimeNanos());
+		stageMonitor.recordStage(MonitorEvent.STAGE_TOKENIZE, message.getTokenizeNanos());
 		
 		//Get the set of cleaned, lower-case words from this message
 		HashSet<String> wordSet = message.getWordSet();
 		
+		long lookupStart = System.nanoTime();
+		MessageClassifier classifier = classifyWords(wordSet, message.isTruncated());
+		
+		//Calculate the probability now, so the scoring time is recorded
+		long scoreStart = System.nanoTime();
+		classifier.getConfidenceLevel();
+		long end = System.nanoTime();
+		
+		stageMonitor.recordStage(MonitorEvent.STAGE_LOOKUP, scoreStart-lookupStart);
+		stageMonitor.recordStage(MonitorEvent.STAGE_SCORE, end-scoreStart);
+		stageMonitor.recordStage(MonitorEvent.STAGE_CLASSIFY, end-start);
+		
+		//Add the verdict to the JVM-wide metrics, which read the stage latencies from stageMonitor
+		MetricsRegistry.getInstance().recordClassification(classifier.getMessageType().equals("SPAM"), wordSet.size(), 
+				classifier.size(), message.isTruncated());
+		
+		//Capture any message over the latency budget, without blocking
+		if(slowLog != null && slowLog.isSlow(end-start))
+		{
+			slowLog.offer(text, message, classifier.getMessageType(), new long[]{end-start, 
+					message.getMimeNanos(), message.getTokenizeNanos(), scoreStart-lookupStart, end-scoreStart});
+		}
+		
+		if(event.shouldCommit())
+		{
+			event.messageSize = message.getSize();
+			event.parsePath = message.getParsePath();
+			event.tokenCount = wordSet.size();
+			event.matchedWords = classifier.size();
+			event.verdict = classifier.getMessageType();
+			event.confidence = classifier.getConfidenceLevel();
+			event.truncated = message.isTruncated();
+			event.commit();
+		}
+		
+		if(startAllocated != -1)
+		{
+			stageMonitor.recordAllocation(MonitorEvent.getThreadAllocatedBytes()-startAllocated);
+		}
+		
+		return classifier;
+	}
+	
+	/**
+	 * Scores the words of a message which has already been parsed, e.g., once 
+	 * for several spam filters (see ShadowClassifier). 
+	 * 
+	 * @param wordSet The set of cleaned, lower-case words in the message.
+	 * @param truncated True if parsing stopped early at a parsing limit.
+	 * @return The instantiated SPAM classifier for this message. 
+	 */
+	public MessageClassifier classifyWords(Set<String> wordSet, boolean truncated)
+	{
 		//Get the iterator for the string elements comprising the message
 		Iterator<String> iterator = wordSet.iterator();
 				
+		//Read the hashmap and its totals once, as a delta may replace them meanwhile
+		FilterState current = state;
+		
+		//Use the current message totals of a live model, which change with feedback
+		double probHam = current.probHam;
+		double probSpam = current.probSpam;
+		if(liveModel != null)
+		{
+			probSpam = liveModel.getProbSpam();
+			probHam = 1.0-probSpam;
+		}
+		
 		//Consider only the most predictive spam terms per email to reduce noise
-		MessageClassifier classifier = new MessageClassifier(probHamTotal, probSpamTotal);
+		MessageClassifier classifier = new MessageClassifier(probHam, probSpam, smoothing);
+		classifier.setTruncated(truncated);
 		
 		//Tick through the message words, and build the sorted set.
 		while(iterator.hasNext())
 		{
-			Word word = this.wordList.get(iterator.next());
-			if(word != null)
+			String token = iterator.next();
+			
+			//Skip the lookup for words which definitely aren't in the filter
+			if(bloomFilter != null && !bloomFilter.mightContain(token))
+			{
+				continue;
+			}
+			
+			addWord(classifier, token, current);
+		}
+		
+		return classifier;
+	}
+	
+	/**
+	 * Looks up a word, and adds it to the classifier if it's in the filter. The 
+	 * off-heap model and the front-coded dictionary are scored straight from 
+	 * their counts, so no word object is created for them. 
+	 * 
+	 * @param classifier The classifier of the message.
+	 * @param token The cleaned, lower-case word.
+	 * @param current The hashmap and totals the message is classified with.
+	 */
+	private void addWord(MessageClassifier classifier, String token, FilterState current)
+	{
+		if(hashedModel == null && liveModel == null)
+		{
+			if(offHeapModel != null)
+			{
+				int entry = offHeapModel.find(token);
+				if(entry != -1)
+				{
+					classifier.addWord(offHeapModel.getSpamicity(entry), 
+							offHeapModel.getHamCount(entry)+offHeapModel.getSpamCount(entry));
+				}
+				return;
+			}
+			if(dictionary != null)
+			{
+				int id = dictionary.getId(token);
+				if(id != -1)
+				{
+					classifier.addWord(spamicities[id], hamCounts[id]+spamCounts[id]);
+				}
+				return;
+			}
+		}
+		
+		Word word = lookup(token, current);
+		if(word != null)
+		{
+			classifier.addWord(word);
+		}
+	}
+	
+	/**
+	 * Builds a Bloom filter with the false-positive rate given by the system 
+	 * property, reporting a rate that is not a number between 0 and 1. 
+	 */
+	private void enableBloomFilter(String bloomRate)
+	{
+		try
+		{
+			double falsePositiveRate = Double.parseDouble(bloomRate);
+			if(falsePositiveRate > 0.0 && falsePositiveRate < 1.0)
+			{
+				enableBloomFilter(falsePositiveRate);
+				return;
+			}
+		}
+		catch(NumberFormatException ex)
+		{
+		}
+		System.err.println("Not using a Bloom filter, "+BLOOM_PROPERTY+" must be between 0 and 1: "+bloomRate);
+	}
+	
+	/**
+	 * Builds a Bloom filter over the vocabulary, which is then checked before 
+	 * looking up each word of a message. Most of the words in a message aren't 
+	 * in the vocabulary, and the Bloom filter rejects them without a hashmap 
+	 * probe, although a check is slower than a probe while the vocabulary is 
+	 * in cache (see BlockedBloomFilter), so measure before enabling it. 
+	 * 
+	 * @param falsePositiveRate The rate at which unknown words pass the filter, e.g., 0.01.
+	 */
+	public void enableBloomFilter(double falsePositiveRate)
+	{
+		if(hashedModel != null)
+		{
+			System.err.println("The Bloom filter can't be used with a hashed model");
+			return;
+		}
+		if(liveModel != null)
+		{
+			System.err.println("The Bloom filter can't be used with a live model, as words are added by feedback");
+			return;
+		}
+		
+		if(state.wordList != null)
+		{
+			bloomFilter = new BlockedBloomFilter(state.wordList.keySet(), falsePositiveRate);
+		}
+		else
+		{
+			Collection<Word> vocabulary = getVocabulary();
+			bloomFilter = new BlockedBloomFilter(vocabulary.size(), falsePositiveRate);
+			
+			Iterator<Word> iterator = vocabulary.iterator();
+			while(iterator.hasNext())
+			{
+				bloomFilter.add(iterator.next().getWord());
+			}
+		}
+		System.out.println("Bloom filter size: "+(bloomFilter.getSize()/1024)+"kB, "
+				+bloomFilter.getHashCount()+" hashes");
+	}
+	
+	/**
+	 * Builds a compact scoring model from the vocabulary, with each word's 
+	 * log-odds quantized to 8 or 16 bits (see QuantizedModel). 
+	 * 
+	 * @param bits The size of each quantized weight, either 8 or 16 bits.
+	 * @return The quantized model.
+	 */
+	public QuantizedModel getQuantizedModel(int bits)
+	{
+		if(hashedModel != null)
+		{
+			throw new IllegalStateException("A hashed model can't be quantized");
+		}
+		return new QuantizedModel(getVocabulary(), state.probSpam, smoothing, bits);
+	}
+	
+	/**
+	 * @return The word objects of the vocabulary, copied from the dictionary or buffer if there's no hashmap.
+	 */
+	private Collection<Word> getVocabulary()
+	{
+		if(liveModel != null)
+		{
+			return liveModel.getWords();
+		}
+		if(offHeapModel != null)
+		{
+			return offHeapModel.getWords();
+		}
+		if(dictionary != null)
+		{
+			Collection<Word> vocabulary = new ArrayList<Word>(dictionary.size());
+			for(int i=0; i<dictionary.size(); i++)
+			{
+				vocabulary.add(new Word(dictionary.getWord(i), hamCounts[i], spamCounts[i], spamicities[i]));
+			}
+			return vocabulary;
+		}
+		return state.wordList.values();
+	}
+	
+	/**
+	 * Replaces the vocabulary hashmap with a front-coded dictionary of the 
+	 * words (see FrontCodedDictionary), and arrays of the counts and spamicity 
+	 * indexed by word id. This uses a fraction of the memory of the hashmap, 
+	 * where each word has its own entry, String and Word object, but each lookup 
+	 * is a binary search. The words found are scored from the arrays, without 
+	 * creating a Word object. 
+	 */
+	public void useFrontCodedDictionary()
+	{
+		HashMap<String, Word> wordList = state.wordList;
+		if(wordList == null)
+		{
+			System.err.println("The vocabulary is already compact, no dictionary built");
+			return;
+		}
+		
+		long hashMapSize = getRetainedSize();
+		
+		dictionary = new FrontCodedDictionary(wordList.keySet());
+		hamCounts = new int[dictionary.size()];
+		spamCounts = new int[dictionary.size()];
+		spamicities = new double[dictionary.size()];
+		
+		for(int i=0; i<dictionary.size(); i++)
+		{
+			Word word = wordList.get(dictionary.getWord(i));
+			hamCounts[i] = word.getHamCount();
+			spamCounts[i] = word.getSpamCount();
+			spamicities[i] = word.getSpamicity();
+		}
+		
+		state = state.withWordList(null);
+		System.out.println("Vocabulary retained size: "+(hashMapSize/1024)+"kB as a hashmap, "
+				+(getRetainedSize()/1024)+"kB front-coded");
+	}
+	
+	/**
+	 * Replaces the vocabulary hashmap with a live model (see LiveModel), so that 
+	 * messages marked by users as SPAM or HAM can be added while classifying. 
+	 * The unpruned counts are loaded from the filter's .counts file, written 
+	 * by BuildFilter, if it matches the filter, so feedback on pruned words is 
+	 * counted from their true totals. 
+	 */
+	public void enableFeedback()
+	{
+		FilterState current = state;
+		if(current.wordList == null)
+		{
+			System.err.println("Feedback needs the vocabulary hashmap, no live model built");
+			return;
+		}
+		if(bloomFilter != null)
+		{
+			System.out.println("Disabling the Bloom filter, as words are added by feedback");
+			bloomFilter = null;
+		}
+		
+		FilterParameters parameters = new FilterParameters();
+		File countsFile = new File(filterFilename+".counts");
+		
+		if(countsFile.exists())
+		{
+			try
+			{
+				liveModel = LiveModel.loadCounts(countsFile, parameters);
+				if(liveModel.getHamTotal() != current.hamTotal || liveModel.getSpamTotal() != current.spamTotal)
+				{
+					System.err.println("The totals of "+countsFile+" don't match the filter, ignoring it");
+					liveModel = null;
+				}
+			}
+			catch(IOException io)
+			{
+				io.printStackTrace();
+				liveModel = null;
+			}
+		}
+		
+		if(liveModel == null)
+		{
+			liveModel = new LiveModel(current.wordList.values(), current.hamTotal, current.spamTotal, 
+					current.hamWords, current.spamWords, current.hamTotal+current.spamTotal, parameters);
+			liveModel.setBaseSegment(logSegment);
+		}
+		
+		state = current.withWordList(null);
+		System.out.println("Live model enabled, "+liveModel.size()+" words");
+	}
+	
+	/**
+	 * Adds a message marked by a user as SPAM or HAM to the live model, 
+	 * concurrently with classification. 
+	 * 
+	 * @param rawText The raw message text, including the MIME headers.
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 * @throws IOException If the feedback cannot be written to the feedback log.
+	 */
+	public void addFeedback(String rawText, String messageType) throws IOException
+	{
+		if(liveModel == null)
+		{
+			throw new IllegalStateException("Feedback isn't enabled for this filter");
+		}
+		liveModel.addFeedback(rawText, messageType);
+	}
+	
+	/**
+	 * Makes the feedback durable, by logging it next to the filter file before 
+	 * it is applied (see FeedbackLog). Any feedback logged since the filter was 
+	 * written is replayed first. Snapshots of the live model over the filter 
+	 * file then compact the log. 
+	 * 
+	 * @return The number of feedback records replayed.
+	 * @throws IOException If the log cannot be read or opened.
+	 */
+	public int openFeedbackLog() throws IOException
+	{
+		if(liveModel == null)
+		{
+			throw new IllegalStateException("Feedback isn't enabled for this filter");
+		}
+		return liveModel.openLog(new File(filterFilename));
+	}
+	
+	/**
+	 * @return The live model, used to write snapshots, or null if feedback isn't enabled.
+	 */
+	public LiveModel getLiveModel()
+	{
+		return liveModel;
+	}
+	
+	/**
+	 * Moves the vocabulary off the heap, into a direct buffer (see OffHeapModel), 
+	 * so the collector doesn't have to trace the millions of long-lived entry, 
+	 * String and Word objects of a large hashmap. The words are looked up and 
+	 * scored straight from the buffer, without creating any objects. 
+	 */
+	public void useOffHeapModel()
+	{
+		if(state.wordList == null)
+		{
+			System.err.println("The vocabulary is already compact, no off-heap model built");
+			return;
+		}
+		
+		offHeapModel = new OffHeapModel(state.wordList.values());
+		state = state.withWordList(null);
+		System.out.println("Vocabulary moved off-heap, "+(offHeapModel.getOffHeapSize()/1024)+"kB");
+	}
+	
+	/**
+	 * @return The order-independent checksum of the loaded filter (see FilterDelta).
+	 */
+	public long getChecksum()
+	{
+		if(hashedModel != null)
+		{
+			throw new IllegalStateException("A hashed model has no words to checksum");
+		}
+		
+		FilterState current = state;
+		if(current.wordList == null)
+		{
+			return FilterDelta.getChecksum(getVocabulary(), current.getTotals());
+		}
+		return current.getChecksum();
+	}
+
+	/**
+	 * Applies a delta, written by FilterDelta, to a copy of the loaded vocabulary 
+	 * hashmap, so a retrained filter is rolled out without reloading the whole 
+	 * file. The copy and its totals then replace the loaded filter in a single 
+	 * write, so messages can be classified by other threads meanwhile, each with 
+	 * either the old filter or the new one, never part of each. The delta is only 
+	 * applied if it was made from the loaded filter, and would give the filter it 
+	 * was made to, so a failed check leaves the loaded filter unchanged. Deltas 
+	 * are applied one at a time. 
+	 *
+	 * @param deltaFile The delta file.
+	 * @throws IOException If the delta cannot be read, or doesn't match the loaded filter.
+	 */
+	public synchronized void applyDelta(File deltaFile) throws IOException
+	{
+		FilterState current = state;
+		if(current.wordList == null || hashedModel != null)
+		{
+			throw new IllegalStateException("A delta can only be applied to the vocabulary hashmap");
+		}
+
+		FilterDelta delta = FilterDelta.load(deltaFile);
+		long checksum = current.getChecksum();
+		if(checksum != delta.getFromChecksum())
+		{
+			throw new IOException(deltaFile+" was made from a different filter, checksum "
+					+Long.toHexString(delta.getFromChecksum())+", not "+Long.toHexString(checksum));
+		}
+		if(delta.getAppliedChecksum(current.wordList, checksum, current.getTotals()) != delta.getToChecksum())
+		{
+			throw new IOException(deltaFile+" doesn't give the filter it was made to");
+		}
+
+		HashMap<String, Word> wordList = new HashMap<String, Word>(current.wordList);
+		for(int i=0; i<delta.getRemoved().size(); i++)
+		{
+			wordList.remove(delta.getRemoved().get(i));
+		}
+		for(int i=0; i<delta.getAdded().size(); i++)
+		{
+			Word word = delta.getAdded().get(i);
+			wordList.put(word.getWord(), word);
+
+			//Added before the new filter is published, and removed words may still pass, which only costs a lookup
+			if(bloomFilter != null)
+			{
+				bloomFilter.add(word.getWord());
+			}
+		}
+		for(int i=0; i<delta.getChanged().size(); i++)
+		{
+			Word word = delta.getChanged().get(i);
+			wordList.put(word.getWord(), word);
+		}
+
+		int[] totals = delta.getTotals();
+		FilterState next = new FilterState(wordList, totals[0], totals[1], totals[2], totals[3]);
+		next.checksum = delta.getToChecksum();
+		
+		state = next;
+		vocabularySize = wordList.size();
+		hamSize = getMeanSize(totals[2], totals[0]);
+		spamSize = getMeanSize(totals[3], totals[1]);
+	}
+
+	/**
+	 * Removes the Bloom filter, so every word is looked up in the vocabulary.
+	 */
+	public void disableBloomFilter()
+	{
+		bloomFilter = null;
+	}
+	
+	/**
+	 * Sets the log used to capture messages which take longer than its latency 
+	 * budget to classify. 
+	 * 
+	 * @param slowLog The slow message log, or null to disable capturing.
+	 */
+	public void setSlowMessageLog(SlowMessageLog slowLog)
+	{
+		this.slowLog = slowLog;
+	}
+	
+	/**
+	 * Gets the event holding the latency histogram of each classification 
+	 * stage, i.e., MIME parsing, tokenizing, word lookup and scoring. 
+	 * 
+	 * @return The monitor event for the classification stages.
+	 */
+	public MonitorEvent getStageMonitor()
+	{
+		return stageMonitor;
+	}
+	
+	
+	/**
+	 * Returns an instantiated classifier object for a message read from a token 
+	 * cache, which has already been parsed.
+	 * 
+	 * @param message The tokenized message.
+	 * @param words The word object for each id in the cache dictionary, from getWords().
+	 * @return The instantiated SPAM classifier for this message. 
+	 */
+	public MessageClassifier classifyMessage(TokenizedMessage message, Word[] words)
+	{
+		FilterState current = state;
+		MessageClassifier classifier = new MessageClassifier(current.probHam, current.probSpam, smoothing);
+		
+		int[] ids = message.getIds();
+		for(int i=0; i<ids.length; i++)
+		{
+			if(words[ids[i]] != null)
 			{
-				classifier.addWord(word);
+				classifier.addWord(words[ids[i]]);
 			}
 		}
 		
 		return classifier;
 	}
 	
+	/**
+	 * Looks up a word in the vocabulary, the live model, the front-coded dictionary, 
+	 * the off-heap model, or the hashed model. 
+	 * 
+	 * @param word The cleaned, lower-case word.
+	 * @param current The hashmap and totals the word is looked up in.
+	 * @return The word object, or null if the word isn't in the filter.
+	 */
+	private Word lookup(String word, FilterState current)
+	{
+		if(hashedModel != null)
+		{
+			return hashedModel.getWord(word);
+		}
+		if(liveModel != null)
+		{
+			return liveModel.getWord(word);
+		}
+		if(offHeapModel != null)
+		{
+			int entry = offHeapModel.find(word);
+			return (entry == -1) ? null : new Word(word, offHeapModel.getHamCount(entry), 
+					offHeapModel.getSpamCount(entry), offHeapModel.getSpamicity(entry));
+		}
+		if(dictionary != null)
+		{
+			int id = dictionary.getId(word);
+			return (id == -1) ? null : new Word(word, hamCounts[id], spamCounts[id], spamicities[id]);
+		}
+		return current.wordList.get(word);
+	}
+	
+	/**
+	 * Looks up each word of a token cache dictionary in the spam filter, so
+	 * that cached messages can be classified without any further lookups. 
+	 * 
+	 * @param dictionary The token cache dictionary.
+	 * @return The word object for each id, or null if the word isn't in the filter.
+	 */
+	public Word[] getWords(TokenDictionary dictionary)
+	{
+		FilterState current = state;
+		Word[] words = new Word[dictionary.size()];
+		
+		for(int i=0; i<words.length; i++)
+		{
+			words[i] = lookup(dictionary.getWord(i), current);
+		}
+		
+		return words;
+	}
 	
 	/**
 	 * After reading in the evaluation dataset and run the tests on 
 	 * this data using the previously built spam-filter. 
 	 * 
-	 * @param inputFilename The filename of the evaluation dataset. 
+	 * @param inputFilename The filename of the evaluation dataset, or of a token cache of the dataset. 
 	 */
 	public void evaluateFilter(String inputFilename, String evalOutput, double threshold)
 	{
@@ -242,100 +904,98 @@ public class SpamFilter implements PerformanceMonitor{
 
 		try
 		{
-			//Initialize the buffered reader to read the input file
 			System.out.println("Evaluation input file "+file.getAbsolutePath());
-			BufferedReader reader = new BufferedReader(new FileReader(file));
-			String line;
 			
-			//The string builder is used to compile messages line-by-line
-			StringBuilder builder = new StringBuilder();
-	
-			//Variables used to record new messages and the message type (classification)
-			boolean newMessage = false;
-			String messageType = null;
+			//Classify the raw evaluation data with a pipeline, if configured
+			PipelineConfig pipelineConfig = PipelineConfig.getDefault();
+			if(pipelineConfig.isEnabled() && !TokenCacheReader.isCacheFile(file))
+			{
+				double[] counts = evaluatePipeline(file, threshold, pipelineConfig, event);
+				estSpamIsSpam = counts[0];
+				estHamIsSpam = counts[1];
+				estSpamIsHam = counts[2];
+				estHamIsHam = counts[3];
+				messageCount = (int) counts[4];
+			}
+			else
+			{
+				//Read either the raw evaluation data, or a token cache of the evaluation data
+				CorpusReader reader = null;
+				TokenCacheReader cacheReader = null;
+				Word[] cacheWords = null;
 			
-			//Read from the file
-			while ((line = reader.readLine()) != null)
-			{	
-				//If the new-message delimiter has been read
-				if(line.equals("%%%%%"))
+				if(TokenCacheReader.isCacheFile(file))
 				{
-					//Set the flag indicating a new message
-					newMessage = true;
-					
-					//Process the previous message
-					if(builder.length() > 0)
+					cacheReader = new TokenCacheReader(file);
+					cacheWords = getWords(cacheReader.getDictionary());
+				}
+				else
+				{
+					reader = new CorpusReader(file);
+				}
+			
+				String messageType;
+				MessageClassifier classifier;
+			
+				//Read from the file
+				while (true)
+				{	
+					if(cacheReader != null)
 					{
-						MessageClassifier classifier = classifyMessage(builder.toString());
-						boolean spam = classifier.isSpam(threshold);
-						double confidence = classifier.getConfidenceLevel();
-						String type = classifier.getMessageType();
-						
-						if(spam && messageType.equals("HAM"))
+						TokenizedMessage message = cacheReader.next();
+						if(message == null)
 						{
-							estSpamIsHam += 1.0;
+							break;
 						}
-						else if(spam && messageType.equals("SPAM"))
-						{
-							estSpamIsSpam += 1.0;
-						}
-						else if(!spam && messageType.equals("HAM"))
+					
+						messageType = message.getMessageType();
+						classifier = classifyMessage(message, cacheWords);
+					}
+					else
+					{
+						if(!reader.next())
 						{
-							estHamIsHam += 1.0;
+							break;
 						}
-						else if(!spam && messageType.equals("SPAM"))
-						{
-							estHamIsSpam += 1.0;
-						}							
-						
-						System.out.println("Classifies Messages as "+type+" with confidence "+confidence+", actual type is "+messageType);
-					}
 					
-					messageCount++;
-				}
-				//Otherwise continue reading the rest of the evaluation data
-				else
-				{
-					if(newMessage)
+						messageType = reader.getMessageType();
+						classifier = classifyMessage(reader.getText());
+					}
+				
+					boolean spam = classifier.isSpam(threshold);
+					double confidence = classifier.getConfidenceLevel();
+					String type = classifier.getMessageType();
+				
+					if(spam && messageType.equals("HAM"))
 					{
-						messageType = line;
-						builder = new StringBuilder();
-						newMessage = false;
+						estSpamIsHam += 1.0;
 					}
-					else
+					else if(spam && messageType.equals("SPAM"))
 					{
-						builder.append(line+"\n");
+						estSpamIsSpam += 1.0;
 					}
-				}
-			}
-	
-			
-			//Process the last message
-			if(builder.length() > 0)
-			{
-				MessageClassifier classifier = classifyMessage(builder.toString());
-				boolean spam = classifier.isSpam(threshold);
-				double confidence = classifier.getConfidenceLevel();
-				String type = classifier.getMessageType();
+					else if(!spam && messageType.equals("HAM"))
+					{
+						estHamIsHam += 1.0;
+					}
+					else if(!spam && messageType.equals("SPAM"))
+					{
+						estHamIsSpam += 1.0;
+					}							
 				
-				if(spam && messageType.equals("HAM"))
-				{
-					estSpamIsHam += 1.0;
+					System.out.println("Classifies Messages as "+type+" with confidence "+confidence+", actual type is "+messageType);
+				
+					messageCount++;
 				}
-				else if(spam && messageType.equals("SPAM"))
+			
+				if(cacheReader != null)
 				{
-					estSpamIsSpam += 1.0;
+					cacheReader.close();
 				}
-				else if(!spam && messageType.equals("HAM"))
+				else
 				{
-					estHamIsHam += 1.0;
+					reader.close();
 				}
-				else if(!spam && messageType.equals("SPAM"))
-				{
-					estHamIsSpam += 1.0;
-				}							
-				
-				System.out.println("Classifies Messages as "+type+" with confidence "+confidence+", actual type is "+messageType);
 			}
 	
 			monitorStop(event);
@@ -376,8 +1036,231 @@ public class SpamFilter implements PerformanceMonitor{
 		
 		System.out.print("False-Negatives:  \t"+estSpamIsHam);
 		System.out.print("\t("+nf.format(estSpamIsHam*100 / (double) messageCount)+"%)\n");
+		
+		System.out.println(parserConfig.toString());
+		System.out.print(stageMonitor.getStageSummary());
+	}
+	
+	/**
+	 * Classifies the raw evaluation data through a pipeline of a reading 
+	 * thread, the classifying threads, the thread tallying the verdicts, and 
+	 * the thread printing each verdict, in the order of the evaluation data. 
+	 * 
+	 * @param file The evaluation data file.
+	 * @param threshold The probability threshold to assess SPAM/HAM.
+	 * @param config The number of threads in each stage.
+	 * @param event The monitor event of the evaluation, given the allocation of the pipeline's threads.
+	 * @return The SPAM classified as SPAM, HAM as SPAM, SPAM as HAM, HAM as HAM, and the message count.
+	 * @throws Exception If the file cannot be read, or a message cannot be classified.
+	 */
+	private double[] evaluatePipeline(File file, final double threshold, PipelineConfig config, MonitorEvent event) throws Exception
+	{
+		final double[] counts = new double[5];
+		final CorpusReader reader = new CorpusReader(file);
+		final VerdictPrinter printer = new VerdictPrinter(config.getQueueCapacity());
+		Pipeline pipeline = new Pipeline(config.getQueueCapacity());
+		
+		pipeline.setSource("read", new Pipeline.Source<EvaluatedMessage>() {
+			private long sequence = 0;
+			
+			public EvaluatedMessage next() throws IOException, InterruptedException
+			{
+				//Don't read ahead of the printing by more than its window
+				printer.awaitWindow(sequence);
+				
+				if(!reader.next())
+				{
+					return null;
+				}
+				return new EvaluatedMessage(sequence++, reader.getMessageType(), reader.getText());
+			}
+		});
+		
+		pipeline.addStage("classify", config.getParseThreads(), new Pipeline.Stage<EvaluatedMessage, EvaluatedMessage>() {
+			public EvaluatedMessage process(EvaluatedMessage item)
+			{
+				MessageClassifier classifier = classifyMessage(item.text);
+				item.spam = classifier.isSpam(threshold);
+				item.confidence = classifier.getConfidenceLevel();
+				item.type = classifier.getMessageType();
+				item.text = null;
+				return item;
+			}
+		});
+		
+		pipeline.addStage("tally", config.getAggregateThreads(), new Pipeline.Stage<EvaluatedMessage, EvaluatedMessage>() {
+			public EvaluatedMessage process(EvaluatedMessage item)
+			{
+				synchronized(counts)
+				{
+					if(item.spam && item.messageType.equals("HAM"))
+					{
+						counts[2] += 1.0;
+					}
+					else if(item.spam && item.messageType.equals("SPAM"))
+					{
+						counts[0] += 1.0;
+					}
+					else if(!item.spam && item.messageType.equals("HAM"))
+					{
+						counts[3] += 1.0;
+					}
+					else if(!item.spam && item.messageType.equals("SPAM"))
+					{
+						counts[1] += 1.0;
+					}
+					counts[4] += 1.0;
+				}
+				return item;
+			}
+		});
+		
+		pipeline.addStage("print", config.getWriteThreads(), new Pipeline.Stage<EvaluatedMessage, Object>() {
+			public Object process(EvaluatedMessage item)
+			{
+				printer.print(item);
+				return null;
+			}
+		});
+		
+		try
+		{
+			pipeline.run();
+		}
+		finally
+		{
+			reader.close();
+		}
+		
+		event.addAllocatedBytes(pipeline.getAllocatedBytes());
+		System.out.println(config);
+		System.out.print(pipeline.getSummary());
+		return counts;
 	}
 	
+	/**
+	 * A message of the evaluation data, and its verdict, passed along the pipeline.
+	 */
+	private static class EvaluatedMessage
+	{
+		long sequence;
+		String messageType, text;
+		
+		boolean spam;
+		double confidence;
+		String type;
+		
+		EvaluatedMessage(long sequence, String messageType, String text)
+		{
+			this.sequence = sequence;
+			this.messageType = messageType;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Prints the verdicts of the evaluation data in order, holding each one 
+	 * classified out of order until those before it are printed. The reading 
+	 * thread waits while it is a whole window ahead of the next verdict to 
+	 * print, so at most a window of verdicts are held. 
+	 */
+	private static class VerdictPrinter
+	{
+		private HashMap<Long, EvaluatedMessage> pending;
+		private long next;
+		private int window;
+		
+		VerdictPrinter(int window)
+		{
+			pending = new HashMap<Long, EvaluatedMessage>();
+			this.window = window;
+		}
+		
+		/**
+		 * Waits until a message is within the window of the next verdict to print.
+		 * 
+		 * @param sequence The position of the message in the evaluation data.
+		 */
+		synchronized void awaitWindow(long sequence) throws InterruptedException
+		{
+			while(sequence-next >= window)
+			{
+				wait();
+			}
+		}
+		
+		/**
+		 * Prints a verdict, and any held verdicts which follow it, if those before it are printed.
+		 */
+		synchronized void print(EvaluatedMessage item)
+		{
+			pending.put(item.sequence, item);
+			while((item = pending.remove(next)) != null)
+			{
+				System.out.println("Classifies Messages as "+item.type+" with confidence "+item.confidence
+						+", actual type is "+item.messageType);
+				next++;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * The vocabulary hashmap and the totals it was counted from, which are
+	 * only ever replaced together, so a message is never classified with the
+	 * words of one filter and the totals of another.
+	 */
+	private static class FilterState
+	{
+		final HashMap<String, Word> wordList;	//Null once replaced by a compact model
+		final int hamTotal, spamTotal;			//Total HAM/SPAM messages
+		final int hamWords, spamWords;			//Word count for each type
+		final double probHam, probSpam;			//The probability of each type
+
+		Long checksum;							//The checksum of the hashmap, once calculated
+
+		FilterState(HashMap<String, Word> wordList, int hamTotal, int spamTotal, int hamWords, int spamWords)
+		{
+			this.wordList = wordList;
+			this.hamTotal = hamTotal;
+			this.spamTotal = spamTotal;
+			this.hamWords = hamWords;
+			this.spamWords = spamWords;
+
+			//Calc. the probabilities here for re-use later
+			probHam = ((double) hamTotal)/((double) hamTotal+spamTotal);
+			probSpam = ((double) spamTotal)/((double) hamTotal+spamTotal);
+		}
+
+		/**
+		 * @return The same totals, with another vocabulary hashmap.
+		 */
+		FilterState withWordList(HashMap<String, Word> wordList)
+		{
+			return new FilterState(wordList, hamTotal, spamTotal, hamWords, spamWords);
+		}
+
+		/**
+		 * @return The header totals, in the order FilterDelta expects.
+		 */
+		int[] getTotals()
+		{
+			return new int[]{hamTotal, spamTotal, hamWords, spamWords};
+		}
+
+		/**
+		 * @return The checksum of the hashmap, calculated once, as the hashmap is never changed.
+		 */
+		long getChecksum()
+		{
+			if(checksum == null)
+			{
+				checksum = FilterDelta.getChecksum(wordList.values(), getTotals());
+			}
+			return checksum;
+		}
+	}
+
 	/**
 	* writeFile() creates an XML representation of the route request
 	* and writes the contents to a user-specifed file. 
@@ -0,0 +1,340 @@
+package classifier.filter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import classifier.utils.FilterFileReader;
+import classifier.utils.Word;
+
+/**
+ * A spam filter built from a sliding window over the last N epochs, e.g., days,
+ * of training data, rather than the whole corpus. Each epoch is the unpruned
+ * word counts of its messages, as written by BuildFilter (the .counts file), and
+ * the window is advanced by adding the counts of the new epoch and subtracting
+ * those of the expired one, so an advance costs time in proportion to the two
+ * epochs' vocabularies, not the window's.
+ *
+ * The epochs can also be exponentially decayed, so an epoch of age a has a
+ * weight of decay^a. Rather than re-weighting the whole window at each advance,
+ * the counts are kept multiplied by a growing scale, (1/decay)^t, each epoch is
+ * added with the scale current when it was added, and the counts are divided by
+ * the current scale when read. The counts are only rescaled, in one pass over
+ * the window, when the scale grows too large for a double.
+ *
+ * Words are removed once no epoch in the window contains them, so the rounding
+ * of the decayed counts never leaves words behind.
+ */
+
+public class WindowedModel {
+
+	//The scale at which the window is rescaled, well within the range of a double
+	private static final double MAX_SCALE = 1e100;
+
+	private int window;
+	private double decay;
+
+	//The epochs in the window, oldest first
+	private List<Epoch> epochs;
+
+	//The scaled counts of each word and the totals, summed over the window
+	private HashMap<String, Counts> words;
+	private double hamTotal, spamTotal, hamWordCount, spamWordCount, messageCount;
+	private double scale;
+
+	/**
+	 * The unpruned counts of the messages in one epoch.
+	 */
+	public static class Epoch
+	{
+		private String name;
+		private String[] words;
+		private int[] hamCounts, spamCounts;
+		private int hamTotal, spamTotal, hamWordCount, spamWordCount, messageCount;
+
+		//The scale of the window when the epoch was added
+		private double addedScale;
+
+		/**
+		 * Loads an epoch from a counts file.
+		 *
+		 * @param countsFile The counts file written by BuildFilter, e.g., day-12.dat.counts
+		 * @return The epoch.
+		 * @throws IOException If the file cannot be read.
+		 */
+		public static Epoch load(File countsFile) throws IOException
+		{
+			Epoch epoch = new Epoch();
+			epoch.name = countsFile.getName();
+
+			FilterFileReader reader = new FilterFileReader(countsFile);
+			try
+			{
+				epoch.hamTotal = reader.getHamTotal();
+				epoch.spamTotal = reader.getSpamTotal();
+				epoch.hamWordCount = reader.getHamWordCount();
+				epoch.spamWordCount = reader.getSpamWordCount();
+				epoch.messageCount = reader.getHeaderField(4, epoch.hamTotal+epoch.spamTotal);
+
+				List<String> words = new ArrayList<String>();
+				List<int[]> counts = new ArrayList<int[]>();
+				Word word;
+				while((word = reader.next()) != null)
+				{
+					words.add(word.getWord());
+					counts.add(new int[]{word.getHamCount(), word.getSpamCount()});
+				}
+
+				epoch.words = words.toArray(new String[words.size()]);
+				epoch.hamCounts = new int[words.size()];
+				epoch.spamCounts = new int[words.size()];
+				for(int i=0; i<epoch.words.length; i++)
+				{
+					epoch.hamCounts[i] = counts.get(i)[0];
+					epoch.spamCounts[i] = counts.get(i)[1];
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+
+			return epoch;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return The number of distinct words in the epoch.
+		 */
+		public int size()
+		{
+			return words.length;
+		}
+	}
+
+	/**
+	 * The scaled counts of a word over the window.
+	 */
+	private static class Counts
+	{
+		double ham, spam;
+
+		//The number of epochs in the window containing the word
+		int epochs;
+	}
+
+	/**
+	 * Creates an empty window.
+	 *
+	 * @param window The number of epochs in the window.
+	 * @param decay The weight of each epoch relative to the next, between 0 (exclusive) and 1, where 1 is no decay.
+	 */
+	public WindowedModel(int window, double decay)
+	{
+		if(window < 1)
+		{
+			throw new IllegalArgumentException("The window must have at least one epoch, not "+window);
+		}
+		if(decay <= 0.0 || decay > 1.0)
+		{
+			throw new IllegalArgumentException("The decay must be in (0, 1], not "+decay);
+		}
+
+		this.window = window;
+		this.decay = decay;
+		epochs = new ArrayList<Epoch>();
+		words = new HashMap<String, Counts>();
+		scale = 1.0;
+	}
+
+	/**
+	 * Advances the window by one epoch, adding the new epoch's counts, and
+	 * subtracting those of the oldest epoch once the window is full.
+	 *
+	 * @param epoch The new epoch.
+	 * @return The expired epoch, or null if the window wasn't yet full.
+	 */
+	public Epoch advance(Epoch epoch)
+	{
+		//Each epoch added is worth 1/decay times the one before, relative to the scale
+		if(!epochs.isEmpty())
+		{
+			scale /= decay;
+			if(scale > MAX_SCALE)
+			{
+				rescale();
+			}
+		}
+
+		epoch.addedScale = scale;
+		add(epoch, 1);
+		epochs.add(epoch);
+
+		Epoch expired = null;
+		if(epochs.size() > window)
+		{
+			expired = epochs.remove(0);
+			add(expired, -1);
+		}
+
+		return expired;
+	}
+
+	/**
+	 * Adds, or subtracts, the counts of an epoch at the scale it was added with.
+	 *
+	 * @param sign 1 to add the epoch, or -1 to subtract it.
+	 */
+	private void add(Epoch epoch, int sign)
+	{
+		double weight = sign*epoch.addedScale;
+
+		for(int i=0; i<epoch.words.length; i++)
+		{
+			Counts counts = words.get(epoch.words[i]);
+			if(counts == null)
+			{
+				counts = new Counts();
+				words.put(epoch.words[i], counts);
+			}
+
+			counts.epochs += sign;
+			if(counts.epochs == 0)
+			{
+				words.remove(epoch.words[i]);
+				continue;
+			}
+
+			counts.ham += weight*epoch.hamCounts[i];
+			counts.spam += weight*epoch.spamCounts[i];
+		}
+
+		hamTotal += weight*epoch.hamTotal;
+		spamTotal += weight*epoch.spamTotal;
+		hamWordCount += weight*epoch.hamWordCount;
+		spamWordCount += weight*epoch.spamWordCount;
+		messageCount += weight*epoch.messageCount;
+	}
+
+	/**
+	 * Divides all the counts, and the scales of the epochs, by the current
+	 * scale, so that the scale can start again from 1.
+	 */
+	private void rescale()
+	{
+		double factor = 1.0/scale;
+
+		Iterator<Counts> iterator = words.values().iterator();
+		while(iterator.hasNext())
+		{
+			Counts counts = iterator.next();
+			counts.ham *= factor;
+			counts.spam *= factor;
+		}
+
+		for(int i=0; i<epochs.size(); i++)
+		{
+			epochs.get(i).addedScale *= factor;
+		}
+
+		hamTotal *= factor;
+		spamTotal *= factor;
+		hamWordCount *= factor;
+		spamWordCount *= factor;
+		messageCount *= factor;
+		scale = 1.0;
+	}
+
+	/**
+	 * Writes the window out as a standard spam filter file, pruned with the
+	 * given parameters, as BuildFilter would. The decayed counts are rounded to
+	 * whole numbers, and the spamicity is calculated from the unrounded counts.
+	 *
+	 * @param filterFile The spam filter file to be written.
+	 * @param parameters The pruning parameters.
+	 * @return The number of words written.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public int save(File filterFile, FilterParameters parameters) throws IOException
+	{
+		int written = 0;
+		int messages = (int) round(messageCount/scale);
+
+		//Used to format the spamicity value for writing to file, as BuildFilter does
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(8);
+		nf.setMinimumFractionDigits(2);
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(filterFile));
+		try
+		{
+			out.write(round(hamTotal/scale)+"|"+round(spamTotal/scale)+"|"
+					+round(hamWordCount/scale)+"|"+round(spamWordCount/scale)+"\n");
+
+			Iterator<Map.Entry<String, Counts>> iterator = words.entrySet().iterator();
+			while(iterator.hasNext())
+			{
+				Map.Entry<String, Counts> entry = iterator.next();
+				int hamCount = (int) round(entry.getValue().ham/scale);
+				int spamCount = (int) round(entry.getValue().spam/scale);
+
+				if(parameters.includeWord(hamCount, spamCount, messages))
+				{
+					double spamicity = entry.getValue().spam/(entry.getValue().ham+entry.getValue().spam);
+					out.write(entry.getKey()+"|"+hamCount+"|"+spamCount+"|"+nf.format(spamicity)+"\n");
+					written++;
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		return written;
+	}
+
+	/**
+	 * Rounds a decayed count to a whole number, half up, allowing for the 
+	 * floating-point error accumulated by adding and subtracting the epochs.
+	 */
+	private static long round(double count)
+	{
+		return (long) Math.floor(count+0.5+1e-9*Math.max(1.0, Math.abs(count)));
+	}
+
+	/**
+	 * @return The number of distinct words in the window.
+	 */
+	public int size()
+	{
+		return words.size();
+	}
+
+	/**
+	 * @return The number of epochs currently in the window.
+	 */
+	public int getEpochCount()
+	{
+		return epochs.size();
+	}
+
+	/**
+	 * @return The weighted number of messages in the window.
+	 */
+	public double getMessageCount()
+	{
+		return messageCount/scale;
+	}
+}
@@ -0,0 +1,29 @@
+package classifier.main;
+
+import classifier.filter.ClassifierDaemon;
+import classifier.filter.SpamFilter;
+
+public class ClassifierServer
+{
+	public static void main(String[] args)
+	{
+		if(args.length != 2)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.ClassifierServer <filter-file> <port>");
+			System.err.println("Set -D"+SpamFilter.BLOOM_PROPERTY+"=<rate>, e.g., 0.01, to check each word against a Bloom filter before the lookup");
+			return;
+		}
+		
+		try
+		{
+			ClassifierDaemon daemon = new ClassifierDaemon(new SpamFilter(args[0]), Integer.parseInt(args[1]));
+			System.out.println("Listening on localhost:"+daemon.getPort());
+			daemon.run();
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
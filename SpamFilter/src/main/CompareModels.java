@@ -0,0 +1,72 @@
+package classifier.main;
+
+import java.io.File;
+
+import classifier.filter.BuildFilter;
+import classifier.filter.Evaluation;
+import classifier.filter.MessageClassifier;
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+
+/**
+ * Trains a vocabulary filter, and hashed models of each of the given sizes, on 
+ * the same training corpus, and compares their accuracy and retained memory on 
+ * an evaluation corpus. Generated corpora should be split from a single run of 
+ * GenerateCorpus, as the generated vocabulary depends on the seed.
+ */
+public class CompareModels
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 3)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.CompareModels <training-file> <evaluation-file> <hash-bits> [hash-bits ...]");
+			return;
+		}
+		
+		double threshold = 0.4;
+		
+		try
+		{
+			//The vocabulary filter, then each hashed model
+			int[] sizes = new int[args.length-1];
+			for(int i=2; i<args.length; i++)
+			{
+				sizes[i-1] = Integer.parseInt(args[i]);
+			}
+			
+			StringBuilder table = new StringBuilder();
+			table.append("Model\t\tMemory (kB)\tResults\n");
+			
+			for(int i=0; i<sizes.length; i++)
+			{
+				File filterFile = File.createTempFile("compare-"+sizes[i], ".dat");
+				filterFile.deleteOnExit();
+				new File(filterFile.getPath()+".counts").deleteOnExit();
+				
+				new BuildFilter(args[0], filterFile.getPath(), sizes[i]);
+				SpamFilter filter = new SpamFilter(filterFile.getPath());
+				
+				Evaluation evaluation = new Evaluation();
+				CorpusReader reader = new CorpusReader(new File(args[1]));
+				while(reader.next())
+				{
+					MessageClassifier classifier = filter.classifyMessage(reader.getText());
+					evaluation.add(classifier.getConfidenceLevel(), reader.getMessageType().equals("SPAM"));
+				}
+				reader.close();
+				
+				String name = (sizes[i] == 0) ? "Vocabulary" : "Hashed 2^"+sizes[i];
+				table.append(name+"\t"+(filter.getRetainedSize()/1024)+"\t\t"+evaluation.toString(threshold)+"\n");
+			}
+			
+			System.out.println("\n==============================");
+			System.out.print(table);
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
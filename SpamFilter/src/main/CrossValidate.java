@@ -0,0 +1,31 @@
+package classifier.main;
+
+import classifier.filter.CrossValidation;
+
+public class CrossValidate
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 1 || args.length > 4)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.CrossValidate <corpus-or-cache-file> [folds] [threshold] [threads]");
+			return;
+		}
+		
+		int folds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		double threshold = (args.length > 2) ? Double.parseDouble(args[2]) : 0.4;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		
+		try
+		{
+			CrossValidation validation = new CrossValidation(folds, threshold, threads);
+			validation.load(args[0]);
+			validation.run();
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package classifier.main;
+
+import java.io.File;
+
+import classifier.filter.MessageClassifier;
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+
+/**
+ * Reports the memory used by a spam filter's vocabulary as a hashmap, and as a 
+ * front-coded dictionary, both as estimated and as measured by the heap used 
+ * after a full GC. If a corpus is given, each message is also classified by 
+ * both, to check the dictionary gives the same results.
+ */
+public class DictionaryReport
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 1 || args.length > 2)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.DictionaryReport <filter-file> [corpus-file]");
+			return;
+		}
+		
+		try
+		{
+			long baseline = getUsedHeap();
+			SpamFilter hashMapFilter = new SpamFilter(args[0]);
+			long hashMapHeap = getUsedHeap()-baseline;
+			long hashMapSize = hashMapFilter.getRetainedSize();
+			
+			baseline = getUsedHeap();
+			SpamFilter dictionaryFilter = new SpamFilter(args[0]);
+			dictionaryFilter.useFrontCodedDictionary();
+			long dictionaryHeap = getUsedHeap()-baseline;
+			long dictionarySize = dictionaryFilter.getRetainedSize();
+			
+			System.out.println("\n==============================");
+			System.out.println("Vocabulary\tEstimated (kB)\tMeasured heap (kB)");
+			System.out.println("Hashmap\t\t"+(hashMapSize/1024)+"\t\t"+(hashMapHeap/1024));
+			System.out.println("Front-coded\t"+(dictionarySize/1024)+"\t\t"+(dictionaryHeap/1024));
+			
+			if(args.length > 1)
+			{
+				int messageCount = 0;
+				int differences = 0;
+				
+				CorpusReader reader = new CorpusReader(new File(args[1]));
+				while(reader.next())
+				{
+					MessageClassifier expected = hashMapFilter.classifyMessage(reader.getText());
+					MessageClassifier actual = dictionaryFilter.classifyMessage(reader.getText());
+					
+					if(expected.getConfidenceLevel() != actual.getConfidenceLevel())
+					{
+						differences++;
+					}
+					messageCount++;
+				}
+				reader.close();
+				
+				System.out.println("Classified "+messageCount+" messages, "+differences+" differences");
+			}
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return The heap used after a full GC, in bytes. 
+	 */
+	private static long getUsedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for(int i=0; i<3; i++)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+}
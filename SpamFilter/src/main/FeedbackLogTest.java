@@ -0,0 +1,166 @@
+package classifier.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import classifier.filter.FeedbackLog;
+import classifier.filter.LiveModel;
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+import classifier.utils.Message;
+import classifier.utils.Word;
+
+/**
+ * Measures the throughput of durable feedback, i.e., of adding the parsed 
+ * messages of a corpus to a live model with a feedback log, on several 
+ * threads, with the log compacted every few seconds. The filter is copied to 
+ * a temporary directory first, as compaction replaces it. 
+ * 
+ * The model is then abandoned without a final snapshot, as if the process 
+ * had stopped, and reloaded from the filter and log, which must give exactly 
+ * the same counts, else the test exits with status 1, as it does if any 
+ * feedback cannot be logged. 
+ */
+public class FeedbackLogTest
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 2 || args.length > 4)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.FeedbackLogTest <filter-file> <corpus-file> [threads] [seconds]");
+			return;
+		}
+		
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+		final long duration = ((args.length > 3) ? Long.parseLong(args[3]) : 10)*1000000000L;
+		
+		try
+		{
+			//Work on a copy of the filter and its counts
+			File directory = Files.createTempDirectory("feedback-log").toFile();
+			File filterFile = new File(directory, new File(args[0]).getName());
+			Files.copy(new File(args[0]).toPath(), filterFile.toPath());
+			if(new File(args[0]+".counts").exists())
+			{
+				Files.copy(new File(args[0]+".counts").toPath(), new File(filterFile.getPath()+".counts").toPath());
+			}
+			
+			//Parse the messages first, so only the feedback itself is measured
+			final List<HashSet<String>> wordSets = new ArrayList<HashSet<String>>();
+			final List<Integer> wordCounts = new ArrayList<Integer>();
+			final List<String> types = new ArrayList<String>();
+			CorpusReader reader = new CorpusReader(new File(args[1]));
+			while(reader.next())
+			{
+				Message message = new Message(reader.getText());
+				wordSets.add(message.getWordSet());
+				wordCounts.add(message.getWordCount());
+				types.add(reader.getMessageType());
+			}
+			reader.close();
+			
+			SpamFilter filter = new SpamFilter(filterFile.getPath());
+			filter.enableFeedback();
+			filter.openFeedbackLog();
+			final LiveModel model = filter.getLiveModel();
+			model.startSnapshots(filterFile, 2);
+			
+			final AtomicLong records = new AtomicLong();
+			final AtomicLong wordDeltas = new AtomicLong();
+			final AtomicLong failures = new AtomicLong();
+			final long start = System.nanoTime();
+			
+			List<Thread> workers = new ArrayList<Thread>();
+			for(int i=0; i<threads; i++)
+			{
+				final int offset = i*wordSets.size()/threads;
+				Thread thread = new Thread(new Runnable() {
+					public void run()
+					{
+						for(int j=offset; System.nanoTime()-start < duration; j++)
+						{
+							int index = j%wordSets.size();
+							try
+							{
+								model.addFeedback(wordSets.get(index), wordCounts.get(index), types.get(index));
+							}
+							catch(IOException io)
+							{
+								io.printStackTrace();
+								failures.incrementAndGet();
+								return;
+							}
+							records.incrementAndGet();
+							wordDeltas.addAndGet(wordSets.get(index).size());
+						}
+					}
+				}, "feedback-"+i);
+				thread.start();
+				workers.add(thread);
+			}
+			
+			for(int i=0; i<workers.size(); i++)
+			{
+				workers.get(i).join();
+			}
+			double seconds = (System.nanoTime()-start)/1e9;
+			
+			//Stop as if the process had died, leaving the tail of the log
+			model.stopSnapshots();
+			FeedbackLog log = model.getLog();
+			log.close();
+			
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(1);
+			
+			System.out.println("\n==============================");
+			System.out.println("Feedback: "+records.get()+" messages, "+nf.format(records.get()/seconds)+" msg/s on "+threads+" threads");
+			System.out.println("Word deltas: "+wordDeltas.get()+", "+nf.format(wordDeltas.get()/seconds)+" per second");
+			System.out.println("Group commits: "+log.getCommitCount()+", "
+					+nf.format(((double) log.getRecordCount())/Math.max(1, log.getCommitCount()))+" messages per commit");
+			
+			//Recover from the last compacted filter and the log
+			SpamFilter recovered = new SpamFilter(filterFile.getPath());
+			recovered.enableFeedback();
+			recovered.openFeedbackLog();
+			LiveModel recoveredModel = recovered.getLiveModel();
+			
+			int differences = 0;
+			List<Word> words = model.getWords();
+			for(int i=0; i<words.size(); i++)
+			{
+				Word expected = words.get(i);
+				Word actual = recoveredModel.getWord(expected.getWord());
+				if(actual == null || actual.getHamCount() != expected.getHamCount() || actual.getSpamCount() != expected.getSpamCount())
+				{
+					differences++;
+				}
+			}
+			if(recoveredModel.getWords().size() != words.size() || recoveredModel.getHamTotal() != model.getHamTotal()
+					|| recoveredModel.getSpamTotal() != model.getSpamTotal())
+			{
+				differences++;
+			}
+			System.out.println("Recovered: "+recoveredModel.getHamTotal()+" HAM, "+recoveredModel.getSpamTotal()
+					+" SPAM, "+differences+" differences from the live model");
+			recoveredModel.getLog().close();
+			
+			if(differences > 0 || failures.get() > 0)
+			{
+				System.exit(1);
+			}
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package classifier.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import classifier.filter.LiveModel;
+import classifier.filter.MessageClassifier;
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+
+/**
+ * Classifies a corpus on several threads while the same corpus is added as 
+ * user feedback on another, with the live model snapshotted every second. 
+ * The final snapshot is then loaded as a normal spam filter, and must give 
+ * the same verdict for every message as the live model.
+ */
+public class FeedbackTest
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 3 || args.length > 5)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.FeedbackTest <filter-file> <corpus-file> <snapshot-file> [threads] [seconds]");
+			return;
+		}
+		
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+		final long duration = ((args.length > 4) ? Long.parseLong(args[4]) : 10)*1000000000L;
+		
+		try
+		{
+			final SpamFilter filter = new SpamFilter(args[0]);
+			filter.enableFeedback();
+			LiveModel model = filter.getLiveModel();
+			File snapshotFile = new File(args[2]);
+			model.startSnapshots(snapshotFile, 1);
+			
+			final List<String> messages = new ArrayList<String>();
+			final List<String> types = new ArrayList<String>();
+			CorpusReader reader = new CorpusReader(new File(args[1]));
+			while(reader.next())
+			{
+				messages.add(reader.getText());
+				types.add(reader.getMessageType());
+			}
+			reader.close();
+			
+			final AtomicLong classified = new AtomicLong();
+			final AtomicLong added = new AtomicLong();
+			final long start = System.nanoTime();
+			
+			List<Thread> workers = new ArrayList<Thread>();
+			for(int i=0; i<=threads; i++)
+			{
+				final boolean feedback = (i == threads);
+				final int offset = i*messages.size()/(threads+1);
+				
+				Thread thread = new Thread(new Runnable() {
+					public void run()
+					{
+						for(int j=offset; System.nanoTime()-start < duration; j++)
+						{
+							int index = j%messages.size();
+							if(feedback)
+							{
+								try
+								{
+									filter.addFeedback(messages.get(index), types.get(index));
+									added.incrementAndGet();
+								}
+								catch(IOException io)
+								{
+									io.printStackTrace();
+									return;
+								}
+							}
+							else
+							{
+								filter.classifyMessage(messages.get(index));
+								classified.incrementAndGet();
+							}
+						}
+					}
+				}, feedback ? "feedback" : "classifier-"+i);
+				thread.start();
+				workers.add(thread);
+			}
+			
+			for(int i=0; i<workers.size(); i++)
+			{
+				workers.get(i).join();
+			}
+			double seconds = (System.nanoTime()-start)/1e9;
+			
+			model.stopSnapshots();
+			model.snapshot(snapshotFile);
+			
+			//The snapshot must classify every message as the live model does
+			SpamFilter reloaded = new SpamFilter(snapshotFile.getPath());
+			int differences = 0;
+			double maxDifference = 0.0;
+			for(int i=0; i<messages.size(); i++)
+			{
+				MessageClassifier live = filter.classifyMessage(messages.get(i));
+				MessageClassifier snapshot = reloaded.classifyMessage(messages.get(i));
+				
+				if(!live.getMessageType().equals(snapshot.getMessageType()))
+				{
+					differences++;
+				}
+				maxDifference = Math.max(maxDifference, Math.abs(live.getConfidenceLevel()-snapshot.getConfidenceLevel()));
+			}
+			
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(2);
+			
+			System.out.println("\n==============================");
+			System.out.println("Classified: "+classified.get()+" messages, "+nf.format(classified.get()/seconds)+" msg/s on "+threads+" threads");
+			System.out.println("Feedback: "+added.get()+" messages, "+nf.format(added.get()/seconds)+" msg/s");
+			System.out.println("Live model: "+model.size()+" words, "+model.getHamTotal()+" HAM, "+model.getSpamTotal()+" SPAM");
+			System.out.println("Snapshot: "+differences+" verdict differences, max confidence difference "+maxDifference);
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
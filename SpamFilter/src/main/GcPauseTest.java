@@ -0,0 +1,117 @@
+package classifier.main;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+
+/**
+ * Classifies a corpus in a loop for a fixed time, and reports the GC pauses 
+ * while doing so, with the vocabulary held in a hashmap, in a front-coded 
+ * dictionary, or off-heap. Each mode should be run in its own JVM, with the 
+ * same heap settings, e.g., 
+ * 
+ * java -Xmx512m classifier.main.GcPauseTest filter.dat corpus.txt heap 60
+ * java -Xmx512m classifier.main.GcPauseTest filter.dat corpus.txt off-heap 60
+ * 
+ * The time of an explicit full GC, which has to trace the whole heap, is 
+ * also measured after the run.
+ */
+public class GcPauseTest
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 3 || args.length > 4)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.GcPauseTest <filter-file> <corpus-file> <heap|front-coded|off-heap> [seconds]");
+			return;
+		}
+		
+		long duration = (args.length > 3) ? Long.parseLong(args[3])*1000000000L : 30000000000L;
+		
+		try
+		{
+			SpamFilter filter = new SpamFilter(args[0]);
+			if(args[2].equals("front-coded"))
+			{
+				filter.useFrontCodedDictionary();
+			}
+			else if(args[2].equals("off-heap"))
+			{
+				filter.useOffHeapModel();
+			}
+			else if(!args[2].equals("heap"))
+			{
+				System.err.println("Unknown mode "+args[2]+", exiting");
+				return;
+			}
+			
+			List<String> messages = new ArrayList<String>();
+			CorpusReader reader = new CorpusReader(new File(args[1]));
+			while(reader.next())
+			{
+				messages.add(reader.getText());
+			}
+			reader.close();
+			
+			//Warm up, then start counting from a clean heap
+			for(int i=0; i<messages.size(); i++)
+			{
+				filter.classifyMessage(messages.get(i));
+			}
+			System.gc();
+			
+			List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+			long[] startCount = new long[collectors.size()];
+			long[] startTime = new long[collectors.size()];
+			for(int i=0; i<collectors.size(); i++)
+			{
+				startCount[i] = collectors.get(i).getCollectionCount();
+				startTime[i] = collectors.get(i).getCollectionTime();
+			}
+			
+			long classified = 0;
+			long start = System.nanoTime();
+			while(System.nanoTime()-start < duration)
+			{
+				filter.classifyMessage(messages.get((int) (classified%messages.size())));
+				classified++;
+			}
+			double seconds = (System.nanoTime()-start)/1e9;
+			
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(2);
+			
+			System.out.println("\n==============================");
+			System.out.println("Mode: "+args[2]+", retained vocabulary: "+(filter.getRetainedSize()/1024)+"kB on-heap");
+			System.out.println("Classified "+classified+" messages, "+nf.format(classified/seconds)+" msg/s");
+			System.out.println("Collector\t\tCollections\tTotal (ms)\tMean pause (ms)");
+			
+			for(int i=0; i<collectors.size(); i++)
+			{
+				long count = collectors.get(i).getCollectionCount()-startCount[i];
+				long time = collectors.get(i).getCollectionTime()-startTime[i];
+				System.out.println(collectors.get(i).getName()+"\t\t"+count+"\t\t"+time+"\t\t"
+						+nf.format((count == 0) ? 0.0 : ((double) time)/count));
+			}
+			
+			//Time full collections, which trace all the live objects
+			long fullStart = System.nanoTime();
+			for(int i=0; i<5; i++)
+			{
+				System.gc();
+			}
+			System.out.println("Mean full GC: "+nf.format((System.nanoTime()-fullStart)/5e6)+"ms");
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
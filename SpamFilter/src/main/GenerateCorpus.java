@@ -0,0 +1,46 @@
+package classifier.main;
+
+import java.io.File;
+
+import classifier.utils.CorpusGenerator;
+
+public class GenerateCorpus
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 2 || args.length > 5)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.GenerateCorpus <output-file> <message-count> [seed] [spam-ratio] [vocabulary-size]");
+			return;
+		}
+		
+		long messageCount = Long.parseLong(args[1]);
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+		
+		try
+		{
+			CorpusGenerator generator = new CorpusGenerator(seed);
+			
+			if(args.length > 3)
+			{
+				generator.setSpamRatio(Double.parseDouble(args[3]));
+			}
+			if(args.length > 4)
+			{
+				generator.setVocabularySize(Integer.parseInt(args[4]), 2000);
+			}
+			
+			long start = System.nanoTime();
+			long bytes = generator.generate(new File(args[0]), messageCount);
+			double seconds = (System.nanoTime()-start)/1e9;
+			
+			System.out.println("Generated "+messageCount+" messages, "+(bytes/(1024*1024))+"MB in "
+					+String.format("%.1f", seconds)+"s ("+String.format("%.1f", bytes/(1024*1024)/seconds)+"MB/s)");
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package classifier.main;
+
+import java.io.File;
+
+import classifier.filter.ClassifierDaemon;
+import classifier.filter.LoadDriver;
+import classifier.filter.SpamFilter;
+
+public class LoadTest
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 3 || args.length > 7)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.LoadTest <filter-file> <corpus-file> <in-process|daemon|host:port> "
+					+"[start-rate] [workers] [step-seconds] [p99-limit-ms]");
+			System.err.println("  in-process  calls SpamFilter.classifyMessage directly");
+			System.err.println("  daemon      starts a ClassifierDaemon in this JVM, and sends messages over loopback");
+			System.err.println("  host:port   sends messages to a ClassifierServer already running");
+			System.err.println("Set -D"+SpamFilter.BLOOM_PROPERTY+"=<rate>, e.g., 0.01, to check each word against a Bloom filter before the lookup");
+			return;
+		}
+		
+		double startRate = (args.length > 3) ? Double.parseDouble(args[3]) : 100;
+		int workers = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		long stepNanos = (long) (((args.length > 5) ? Double.parseDouble(args[5]) : 10)*1e9);
+		long p99Limit = (long) (((args.length > 6) ? Double.parseDouble(args[6]) : 0)*1e6);
+		
+		ClassifierDaemon daemon = null;
+		LoadDriver.Target target;
+		
+		try
+		{
+			String mode = args[2];
+			if(mode.equals("in-process"))
+			{
+				target = LoadDriver.inProcess(new SpamFilter(args[0]));
+			}
+			else if(mode.equals("daemon"))
+			{
+				daemon = new ClassifierDaemon(new SpamFilter(args[0]), 0);
+				Thread thread = new Thread(daemon, "classifier-daemon");
+				thread.setDaemon(true);
+				thread.start();
+				target = LoadDriver.daemon("localhost", daemon.getPort());
+			}
+			else
+			{
+				int index = mode.lastIndexOf(':');
+				target = LoadDriver.daemon(mode.substring(0, index), Integer.parseInt(mode.substring(index+1)));
+			}
+			
+			LoadDriver driver = new LoadDriver(target, workers);
+			driver.load(new File(args[1]), 100000);
+			driver.run(startRate, 1.5, 1e7, stepNanos, p99Limit);
+			
+			target.close();
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+		finally
+		{
+			if(daemon != null)
+			{
+				daemon.close();
+			}
+		}
+	}
+}
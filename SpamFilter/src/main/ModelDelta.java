@@ -0,0 +1,122 @@
+package classifier.main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.text.NumberFormat;
+
+import classifier.filter.FilterDelta;
+import classifier.filter.SpamFilter;
+
+/**
+ * Writes the delta between two spam filters, or applies a delta to a loaded
+ * filter. Applying prints the time taken against that of loading the new
+ * filter in full, and checks the result against the new filter if it's given.
+ * The check mode loads and applies a delta between two small filters trained 
+ * on HAM only, i.e., with no SPAM messages, exiting with status 1 if this fails.
+ */
+public class ModelDelta
+{
+	public static void main(String[] args)
+	{
+		if(args.length == 1 && args[0].equals("check"))
+		{
+			System.exit(checkZeroTotals() ? 0 : 1);
+		}
+		
+		if(args.length < 3 || !(args[0].equals("diff") && args.length > 3 || args[0].equals("apply")))
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.ModelDelta diff <old-filter-file> <new-filter-file> <delta-file>");
+			System.err.println("java classifier.main.ModelDelta apply <old-filter-file> <delta-file> [new-filter-file]");
+			System.err.println("java classifier.main.ModelDelta check");
+			return;
+		}
+
+		try
+		{
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(2);
+
+			if(args[0].equals("diff"))
+			{
+				long start = System.nanoTime();
+				FilterDelta delta = FilterDelta.diff(new File(args[1]), new File(args[2]));
+				delta.save(new File(args[3]));
+				long elapsed = System.nanoTime()-start;
+
+				long filterSize = new File(args[2]).length();
+				long deltaSize = new File(args[3]).length();
+				System.out.println("Removed: "+delta.getRemoved().size()+", added: "+delta.getAdded().size()
+						+", changed: "+delta.getChanged().size()+" words");
+				System.out.println("Delta: "+deltaSize+" bytes, "+nf.format(100.0*deltaSize/filterSize)
+						+"% of the "+filterSize+" byte filter, written in "+nf.format(elapsed/1e6)+"ms");
+			}
+			else
+			{
+				SpamFilter filter = new SpamFilter(args[1]);
+
+				long start = System.nanoTime();
+				filter.applyDelta(new File(args[2]));
+				long applied = System.nanoTime()-start;
+				System.out.println("Applied delta in "+nf.format(applied/1e6)+"ms");
+
+				if(args.length > 3)
+				{
+					start = System.nanoTime();
+					SpamFilter reloaded = new SpamFilter(args[3]);
+					long loaded = System.nanoTime()-start;
+
+					System.out.println("Loaded new filter in "+nf.format(loaded/1e6)+"ms, "
+							+nf.format((double) loaded/applied)+"x the delta");
+					System.out.println("Checksums "+(filter.getChecksum() == reloaded.getChecksum() ? "match" : "DIFFER")
+							+": "+Long.toHexString(filter.getChecksum())+", "+Long.toHexString(reloaded.getChecksum()));
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Loads a filter with no SPAM messages, applies a delta to it, and checks 
+	 * the result against the new filter loaded in full.
+	 * 
+	 * @return True if the filters load, and the delta gives the new filter.
+	 */
+	private static boolean checkZeroTotals()
+	{
+		try
+		{
+			File oldFile = File.createTempFile("ham-only", ".dat");
+			File newFile = File.createTempFile("ham-only", ".dat");
+			File deltaFile = File.createTempFile("ham-only", ".delta");
+			oldFile.deleteOnExit();
+			newFile.deleteOnExit();
+			deltaFile.deleteOnExit();
+			
+			FileWriter out = new FileWriter(oldFile);
+			out.write("10|0|100|0\nmeeting|6|0|0.0\nagenda|4|0|0.0\n");
+			out.close();
+			out = new FileWriter(newFile);
+			out.write("12|0|130|0\nmeeting|8|0|0.0\nminutes|3|0|0.0\n");
+			out.close();
+			
+			FilterDelta.diff(oldFile, newFile).save(deltaFile);
+			
+			SpamFilter filter = new SpamFilter(oldFile.getPath());
+			filter.applyDelta(deltaFile);
+			SpamFilter reloaded = new SpamFilter(newFile.getPath());
+			
+			boolean match = (filter.getChecksum() == reloaded.getChecksum());
+			System.out.println("HAM-only filter loaded, delta applied, checksums "+(match ? "match" : "DIFFER"));
+			return match;
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+			return false;
+		}
+	}
+}
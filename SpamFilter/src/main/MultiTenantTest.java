@@ -0,0 +1,128 @@
+package classifier.main;
+
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import classifier.filter.MessageClassifier;
+import classifier.filter.ModelRegistry;
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+
+/**
+ * Classifies a corpus for several tenants, each with its own spam filter,
+ * through a ModelRegistry, and checks every verdict and confidence against a
+ * separate SpamFilter for each tenant, exiting with status 1 on any
+ * difference. The time to classify each message for every
+ * tenant, parsing it once, is compared with parsing it once per SpamFilter,
+ * and a final pass in rotating tenant order shows the loads and unloads
+ * needed to stay within the memory budget.
+ */
+public class MultiTenantTest
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 3)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.MultiTenantTest <corpus-file> <budget-kB> <filter-file> [filter-file ...]");
+			return;
+		}
+
+		try
+		{
+			List<String> messages = new ArrayList<String>();
+			CorpusReader reader = new CorpusReader(new File(args[0]));
+			while(reader.next())
+			{
+				messages.add(reader.getText());
+			}
+			reader.close();
+
+			int tenants = args.length-2;
+			ModelRegistry registry = new ModelRegistry(Long.parseLong(args[1])*1024);
+			SpamFilter[] filters = new SpamFilter[tenants];
+			String[] names = new String[tenants];
+			long filterSize = 0;
+			for(int i=0; i<tenants; i++)
+			{
+				names[i] = "tenant-"+i;
+				registry.register(names[i], new File(args[i+2]));
+				filters[i] = new SpamFilter(args[i+2]);
+				filterSize += filters[i].getRetainedSize();
+			}
+
+			//Every tenant's verdict must match its own spam filter
+			int differences = 0;
+			double maxDifference = 0.0;
+			for(int i=0; i<messages.size(); i++)
+			{
+				MessageClassifier[] classifiers = registry.classifyMessage(names, messages.get(i));
+				for(int j=0; j<tenants; j++)
+				{
+					MessageClassifier shared = classifiers[j];
+					MessageClassifier separate = filters[j].classifyMessage(messages.get(i));
+					if(!shared.getMessageType().equals(separate.getMessageType()))
+					{
+						differences++;
+					}
+					maxDifference = Math.max(maxDifference, Math.abs(shared.getConfidenceLevel()-separate.getConfidenceLevel()));
+				}
+			}
+
+			//Time every tenant with one parse, then with one parse per filter
+			long start = System.nanoTime();
+			for(int i=0; i<messages.size(); i++)
+			{
+				registry.classifyMessage(names, messages.get(i));
+			}
+			long sharedTime = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			for(int i=0; i<messages.size(); i++)
+			{
+				for(int j=0; j<tenants; j++)
+				{
+					filters[j].classifyMessage(messages.get(i));
+				}
+			}
+			long separateTime = System.nanoTime()-start;
+
+			//Rotate through the tenants, one message each, under the budget
+			long loads = registry.getLoadCount();
+			long evictions = registry.getEvictionCount();
+			start = System.nanoTime();
+			for(int i=0; i<messages.size(); i++)
+			{
+				registry.classifyMessage(names[i%tenants], messages.get(i));
+			}
+			long rotateTime = System.nanoTime()-start;
+
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(2);
+
+			System.out.println("\n==============================");
+			System.out.println("Tenants: "+tenants+", shared vocabulary: "+registry.getVocabularySize()+" words");
+			System.out.println("Verdicts: "+differences+" differences, max confidence difference "+maxDifference);
+			System.out.println("Loaded filters: "+registry.getLoadedCount()+", "+(registry.getLoadedSize()/1024)
+					+"kB of arrays and "+(registry.getDictionarySize()/1024)+"kB of shared dictionary, against "
+					+(filterSize/1024)+"kB for all the separate spam filters");
+			System.out.println("All tenants, one parse: "+nf.format(sharedTime/1e6/messages.size())+"ms/msg, one parse per filter: "
+					+nf.format(separateTime/1e6/messages.size())+"ms/msg");
+			System.out.println("Rotating tenants: "+nf.format(rotateTime/1e6/messages.size())+"ms/msg, "
+					+(registry.getLoadCount()-loads)+" loads, "+(registry.getEvictionCount()-evictions)+" unloads");
+			
+			//The shared arrays hold the same counts, so the confidences must match exactly
+			if(differences > 0 || maxDifference > 0.0)
+			{
+				System.exit(1);
+			}
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package classifier.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.text.NumberFormat;
+
+import classifier.filter.BuildFilter;
+import classifier.filter.FilterDelta;
+import classifier.filter.SpamFilter;
+import classifier.utils.PipelineConfig;
+
+/**
+ * Trains a spam filter, and evaluates it, once reading, parsing and counting
+ * each message in turn, and once through the pipeline, and compares the time
+ * taken. The two filters must have the same words and counts, and the two
+ * evaluations the same verdicts, in the same order, else the test exits with
+ * status 1. The output of each run is captured, and only the pipeline's stage
+ * metrics are printed.
+ */
+public class PipelineTest
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 2 || args.length > 4)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.PipelineTest <training-file> <evaluation-file> [parse-threads] [queue-capacity]");
+			return;
+		}
+
+		PrintStream console = System.out;
+
+		try
+		{
+			PipelineConfig pipelined = new PipelineConfig();
+			if(args.length > 2)
+			{
+				pipelined = new PipelineConfig(Integer.parseInt(args[2]), 1, 1,
+						(args.length > 3) ? Integer.parseInt(args[3]) : PipelineConfig.DEFAULT_QUEUE_CAPACITY);
+			}
+
+			File sequentialFilter = File.createTempFile("sequential", ".dat");
+			File pipelinedFilter = File.createTempFile("pipelined", ".dat");
+			File evalOutput = File.createTempFile("evaluation", ".dat");
+
+			String[] output = new String[4];
+			long[] elapsed = new long[4];
+			PipelineConfig[] configs = {PipelineConfig.getSequential(), pipelined};
+			File[] filters = {sequentialFilter, pipelinedFilter};
+
+			for(int i=0; i<configs.length; i++)
+			{
+				PipelineConfig.setDefault(configs[i]);
+
+				ByteArrayOutputStream captured = new ByteArrayOutputStream();
+				System.setOut(new PrintStream(captured, true));
+				long start = System.nanoTime();
+				new BuildFilter(args[0], filters[i].getPath());
+				elapsed[i] = System.nanoTime()-start;
+				System.setOut(console);
+				output[i] = captured.toString();
+			}
+
+			for(int i=0; i<configs.length; i++)
+			{
+				PipelineConfig.setDefault(configs[i]);
+				SpamFilter filter = new SpamFilter(sequentialFilter.getPath());
+
+				ByteArrayOutputStream captured = new ByteArrayOutputStream();
+				System.setOut(new PrintStream(captured, true));
+				long start = System.nanoTime();
+				filter.evaluateFilter(args[1], evalOutput.getPath(), 0.4);
+				elapsed[i+2] = System.nanoTime()-start;
+				System.setOut(console);
+				output[i+2] = captured.toString();
+			}
+
+			//The filters must match, and so must the verdicts
+			FilterDelta delta = FilterDelta.diff(sequentialFilter, pipelinedFilter);
+			boolean filtersMatch = delta.getFromChecksum() == delta.getToChecksum();
+			boolean verdictsMatch = getVerdicts(output[2]).equals(getVerdicts(output[3]));
+
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(2);
+
+			System.out.println("\n==============================");
+			System.out.println(pipelined);
+			System.out.println("Training: "+nf.format(elapsed[0]/1e6)+"ms in turn, "+nf.format(elapsed[1]/1e6)
+					+"ms pipelined, filters "+(filtersMatch ? "match" : "DIFFER ("+delta.getChanged().size()+" changed)"));
+			System.out.print(getStageMetrics(output[1]));
+			System.out.println("Evaluation: "+nf.format(elapsed[2]/1e6)+"ms in turn, "+nf.format(elapsed[3]/1e6)
+					+"ms pipelined, verdicts "+(verdictsMatch ? "match" : "DIFFER"));
+			System.out.print(getStageMetrics(output[3]));
+
+			sequentialFilter.delete();
+			new File(sequentialFilter.getPath()+".counts").delete();
+			pipelinedFilter.delete();
+			new File(pipelinedFilter.getPath()+".counts").delete();
+			evalOutput.delete();
+			
+			if(!filtersMatch || !verdictsMatch)
+			{
+				System.exit(1);
+			}
+		}
+		catch(Exception ex)
+		{
+			System.setOut(console);
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return The lines of the output giving the verdict of each message.
+	 */
+	private static String getVerdicts(String output)
+	{
+		StringBuilder verdicts = new StringBuilder();
+		String[] lines = output.split("\n");
+		for(int i=0; i<lines.length; i++)
+		{
+			if(lines[i].startsWith("Classifies Messages as"))
+			{
+				verdicts.append(lines[i]).append('\n');
+			}
+		}
+		return verdicts.toString();
+	}
+
+	/**
+	 * @return The lines of the output giving the metrics of each pipeline stage.
+	 */
+	private static String getStageMetrics(String output)
+	{
+		StringBuilder metrics = new StringBuilder();
+		String[] lines = output.split("\n");
+		for(int i=0; i<lines.length; i++)
+		{
+			if(lines[i].contains(": threads="))
+			{
+				metrics.append("  ").append(lines[i]).append('\n');
+			}
+		}
+		return metrics.toString();
+	}
+}
@@ -0,0 +1,91 @@
+package classifier.main;
+
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.HashSet;
+
+import classifier.filter.MessageClassifier;
+import classifier.filter.QuantizedModel;
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+import classifier.utils.Message;
+
+/**
+ * Measures how far the quantized models' probabilities move from the spam 
+ * filter's double-precision result, over every message of a corpus, and 
+ * compares this with the bound given by QuantizedModel.getErrorBound().
+ */
+public class QuantizeModel
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 2 || args.length > 3)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.QuantizeModel <filter-file> <corpus-file> [threshold]");
+			return;
+		}
+		
+		double threshold = (args.length > 2) ? Double.parseDouble(args[2]) : 0.4;
+		
+		try
+		{
+			SpamFilter filter = new SpamFilter(args[0]);
+			QuantizedModel[] models = {filter.getQuantizedModel(8), filter.getQuantizedModel(16)};
+			
+			double[] maxError = new double[models.length];
+			double[] totalError = new double[models.length];
+			double[] maxBound = new double[models.length];
+			int[] flipped = new int[models.length];
+			int[] exceeded = new int[models.length];
+			int messageCount = 0;
+			
+			CorpusReader reader = new CorpusReader(new File(args[1]));
+			while(reader.next())
+			{
+				String text = reader.getText();
+				MessageClassifier classifier = filter.classifyMessage(text);
+				double expected = classifier.getConfidenceLevel();
+				HashSet<String> wordSet = new Message(text).getWordSet();
+				
+				for(int i=0; i<models.length; i++)
+				{
+					double error = Math.abs(models[i].getProbability(wordSet)-expected);
+					double bound = models[i].getErrorBound(classifier.size());
+					
+					maxError[i] = Math.max(maxError[i], error);
+					maxBound[i] = Math.max(maxBound[i], bound);
+					totalError[i] += error;
+					
+					if(error > bound)
+					{
+						exceeded[i]++;
+					}
+					if((models[i].getProbability(wordSet) > threshold) != (expected > threshold))
+					{
+						flipped[i]++;
+					}
+				}
+				messageCount++;
+			}
+			reader.close();
+			
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(8);
+			
+			System.out.println("\n==============================");
+			System.out.println("Messages: "+messageCount+", vocabulary retained size: "+(filter.getRetainedSize()/1024)+"kB");
+			System.out.println("Bits\tScale\t\tMemory (kB)\tMean error\tMax error\tMax bound\tOver bound\tFlipped at "+threshold);
+			for(int i=0; i<models.length; i++)
+			{
+				System.out.println(models[i].getBits()+"\t"+nf.format(models[i].getScale())+"\t"
+						+(models[i].getRetainedSize()/1024)+"\t\t"+nf.format(totalError[i]/Math.max(1, messageCount))+"\t"
+						+nf.format(maxError[i])+"\t"+nf.format(maxBound[i])+"\t"+exceeded[i]+"\t\t"+flipped[i]);
+			}
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package classifier.main;
+
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import classifier.filter.MessageClassifier;
+import classifier.filter.ShadowClassifier;
+import classifier.filter.SpamFilter;
+import classifier.utils.CorpusReader;
+
+/**
+ * Runs shadow filters alongside a primary spam filter over a corpus, and
+ * compares the time taken with classifying each message with the primary
+ * alone, and with classifying it in full with every filter. The verdicts of
+ * the shadow classifier must match those of the full classifications, else
+ * the test exits with status 1.
+ */
+public class ShadowTest
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 3)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.ShadowTest <corpus-file> <primary-filter-file> <shadow-filter-file> [shadow-filter-file ...]");
+			return;
+		}
+
+		try
+		{
+			List<String> messages = new ArrayList<String>();
+			CorpusReader reader = new CorpusReader(new File(args[0]));
+			while(reader.next())
+			{
+				messages.add(reader.getText());
+			}
+			reader.close();
+
+			SpamFilter[] filters = new SpamFilter[args.length-1];
+			filters[0] = new SpamFilter(args[1]);
+			ShadowClassifier shadow = new ShadowClassifier(new File(args[1]).getName(), filters[0]);
+			for(int i=1; i<filters.length; i++)
+			{
+				filters[i] = new SpamFilter(args[i+1]);
+				shadow.addShadow(new File(args[i+1]).getName(), filters[i]);
+			}
+
+			//Warm up, and check the verdicts against the full classifications
+			int differences = 0;
+			for(int i=0; i<messages.size(); i++)
+			{
+				MessageClassifier[] classifiers = shadow.classifyMessage(messages.get(i));
+				for(int j=0; j<filters.length; j++)
+				{
+					MessageClassifier full = filters[j].classifyMessage(messages.get(i));
+					if(!full.getMessageType().equals(classifiers[j].getMessageType())
+							|| full.getConfidenceLevel() != classifiers[j].getConfidenceLevel())
+					{
+						differences++;
+					}
+				}
+			}
+			shadow.reset();
+
+			long start = System.nanoTime();
+			for(int i=0; i<messages.size(); i++)
+			{
+				filters[0].classifyMessage(messages.get(i));
+			}
+			long primaryTime = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			for(int i=0; i<messages.size(); i++)
+			{
+				for(int j=0; j<filters.length; j++)
+				{
+					filters[j].classifyMessage(messages.get(i));
+				}
+			}
+			long fullTime = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			for(int i=0; i<messages.size(); i++)
+			{
+				shadow.classifyMessage(messages.get(i));
+			}
+			long shadowTime = System.nanoTime()-start;
+
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(3);
+
+			System.out.println("\n==============================");
+			System.out.println("Differences from the full classifications: "+differences);
+			System.out.println("Primary only: "+nf.format(primaryTime/1e6/messages.size())+"ms/msg");
+			System.out.println("Every filter in full: "+nf.format(fullTime/1e6/messages.size())+"ms/msg");
+			System.out.println("Shadow classifier: "+nf.format(shadowTime/1e6/messages.size())+"ms/msg");
+			System.out.print(shadow.getSummary());
+			
+			if(differences > 0)
+			{
+				System.exit(1);
+			}
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
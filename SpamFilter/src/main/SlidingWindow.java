@@ -0,0 +1,55 @@
+package classifier.main;
+
+import java.io.File;
+import java.text.NumberFormat;
+
+import classifier.filter.FilterParameters;
+import classifier.filter.WindowedModel;
+
+/**
+ * Slides a window over a sequence of epochs, given as the .counts files 
+ * written by Training for each epoch's corpus, oldest first. The time and 
+ * vocabulary of each advance is printed, and the final window is written as 
+ * a spam filter. 
+ */
+public class SlidingWindow
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 4)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.SlidingWindow <window> <decay> <output-filter-file> <epoch.counts> [epoch.counts ...]");
+			return;
+		}
+		
+		try
+		{
+			WindowedModel model = new WindowedModel(Integer.parseInt(args[0]), Double.parseDouble(args[1]));
+			
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(2);
+			
+			System.out.println("Epoch\t\tEpoch words\tWindow words\tMessages\tAdvance (ms)");
+			for(int i=3; i<args.length; i++)
+			{
+				WindowedModel.Epoch epoch = WindowedModel.Epoch.load(new File(args[i]));
+				
+				long start = System.nanoTime();
+				WindowedModel.Epoch expired = model.advance(epoch);
+				long elapsed = System.nanoTime()-start;
+				
+				System.out.println(epoch.getName()+"\t"+epoch.size()+"\t\t"+model.size()+"\t\t"
+						+nf.format(model.getMessageCount())+"\t\t"+nf.format(elapsed/1e6)
+						+((expired != null) ? "\t(expired "+expired.getName()+")" : ""));
+			}
+			
+			int written = model.save(new File(args[2]), new FilterParameters());
+			System.out.println("Wrote: "+written+" words to "+args[2]);
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
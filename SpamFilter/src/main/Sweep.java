@@ -0,0 +1,32 @@
+package classifier.main;
+
+import classifier.filter.ParameterSweep;
+
+public class Sweep
+{
+	public static void main(String[] args)
+	{
+		if(args.length < 2 || args.length > 5)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.Sweep <counts-file> <evaluation-corpus-or-cache> [fpr-target] [threshold] [threads]");
+			return;
+		}
+		
+		double fprTarget = (args.length > 2) ? Double.parseDouble(args[2]) : 0.01;
+		double threshold = (args.length > 3) ? Double.parseDouble(args[3]) : 0.4;
+		int threads = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		
+		try
+		{
+			ParameterSweep sweep = new ParameterSweep(threshold, threads);
+			sweep.loadCounts(args[0]);
+			sweep.loadEvaluation(args[1]);
+			sweep.run(fprTarget);
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package classifier.main;
+
+import java.io.File;
+import java.io.IOException;
+
+import classifier.utils.CorpusReader;
+import classifier.utils.Message;
+import classifier.utils.MonitorEvent;
+import classifier.utils.TokenCacheWriter;
+
+/**
+ * Parses a raw corpus once, and writes the tokenized messages to a cache file. 
+ * The cache can then be given to Training, Classifier or the parameter tools in 
+ * place of the raw corpus, skipping the MIME parsing of every message. 
+ */
+public class TokenizeCorpus
+{
+	public static void main(String[] args)
+	{
+		if(args.length != 2)
+		{
+			System.err.println("Usage: ");
+			System.err.println("java classifier.main.TokenizeCorpus <input-corpus-file> <output-cache-file>");
+			return;
+		}
+		
+		File input = new File(args[0]);
+		if(!input.exists())
+		{
+			System.err.println("The file "+input.getAbsolutePath()+" could not be found, exiting...");
+			return;
+		}
+		
+		MonitorEvent event = new MonitorEvent();
+		event.start();
+		
+		try
+		{
+			CorpusReader reader = new CorpusReader(input);
+			TokenCacheWriter writer = new TokenCacheWriter(new File(args[1]));
+			
+			while(reader.next())
+			{
+				writer.write(reader.getMessageType(), new Message(reader.getText()));
+				
+				if(writer.getMessageCount()%2500 == 0)
+				{
+					System.out.println("Parsed "+writer.getMessageCount()+" messages");
+				}
+			}
+			
+			reader.close();
+			writer.close();
+			
+			System.out.println("Wrote "+writer.getMessageCount()+" messages and "
+					+writer.getDictionary().size()+" words to "+args[1]);
+		}
+		catch(IOException ex)
+		{
+			ex.printStackTrace();
+		}
+		
+		event.stop();
+		System.out.println(event.toString());
+	}
+}
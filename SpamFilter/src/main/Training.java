@@ -18,12 +18,17 @@ public class Training
 		{
 			new BuildFilter(args[1], args[2]);
 		}
+		else if(args.length == 4)
+		{
+			new BuildFilter(args[1], args[2], Integer.parseInt(args[3]));
+		}
 		else
 		{
 			System.err.println("Usage: ");
 			System.err.println("java -jar classifier.main.Training, (assumes corpus.txt)");
 			System.err.println("java -jar classifier.Training <input-training-file>, or");
-			System.err.println("java -jar classifier.Training <input-training-file> <output-filter-file>");
+			System.err.println("java -jar classifier.Training <input-training-file> <output-filter-file>, or");
+			System.err.println("java -jar classifier.Training <input-training-file> <output-filter-file> <hash-bits>");
 		}
 	}
 }
@@ -0,0 +1,174 @@
+package classifier.utils;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A Bloom filter over a set of words, used to reject words which definitely
+ * aren't in the spam filter before the hashmap lookup. The filter is split
+ * into blocks of 512 bits, and each word sets one bit in each of the 8 longs
+ * of a single block, so a check reads 64 contiguous bytes and makes 8 shifts,
+ * with no data-dependent branches. The blocks aren't aligned to cache lines,
+ * as a long[] can't be, so most blocks span two lines.
+ *
+ * A check costs more than a hashmap miss when the vocabulary is in cache, as
+ * String caches its hash code and the miss is a single probe; with 100,000
+ * words the filtered lookups ran at about a third of the hashmap's throughput
+ * (BloomBenchmark.lookup). Aligning the blocks in a direct buffer was slower
+ * still. The filter only pays off when the vocabulary is far larger than the
+ * cache, or its lookups are more expensive than a hashmap probe.
+ *
+ * The hashes are derived from String.hashCode(), which the String caches, so a
+ * word which passes the filter doesn't need to be hashed again by the hashmap.
+ * Since the number of bits per word is fixed, the size of the filter for a
+ * target false-positive rate is found numerically from the distribution of
+ * words over the blocks.
+ */
+
+public class BlockedBloomFilter {
+
+	//The number of longs in each block, and so the number of bits set per word
+	private static final int BLOCK_LONGS = 8;
+
+	//The odd multipliers used to pick the bit in each long
+	private static final int[] SALT = {0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+		0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31};
+
+	private long[] bits;
+	private int blockCount;
+
+	/**
+	 * Creates a filter sized for the given number of words and false-positive rate.
+	 *
+	 * @param expectedWords The number of words to be added.
+	 * @param falsePositiveRate The target rate of false positives, e.g., 0.01.
+	 */
+	public BlockedBloomFilter(int expectedWords, double falsePositiveRate)
+	{
+		//Find the most words per block which still meet the target rate
+		double wordsPerBlock = 1.0;
+		double step = 1.0;
+		while(step > 0.01 && wordsPerBlock < 64)
+		{
+			if(getFalsePositiveRate(wordsPerBlock+step) <= falsePositiveRate)
+			{
+				wordsPerBlock += step;
+				step *= 2;
+			}
+			else
+			{
+				step /= 2;
+			}
+		}
+
+		blockCount = (int) Math.max(1, Math.ceil(Math.max(1, expectedWords)/wordsPerBlock));
+		bits = new long[blockCount*BLOCK_LONGS];
+	}
+
+	/**
+	 * Creates a filter containing each of the given words.
+	 *
+	 * @param words The words to be added.
+	 * @param falsePositiveRate The target rate of false positives.
+	 */
+	public BlockedBloomFilter(Collection<String> words, double falsePositiveRate)
+	{
+		this(words.size(), falsePositiveRate);
+
+		Iterator<String> iterator = words.iterator();
+		while(iterator.hasNext())
+		{
+			add(iterator.next());
+		}
+	}
+
+	/**
+	 * Calculates the false-positive rate for a mean number of words per block.
+	 * The words in a block follow a Poisson distribution, and with j words each
+	 * long has 1-(63/64)^j of its bits set, so the rate is the mean over j of
+	 * that fraction to the power of 8.
+	 *
+	 * @param wordsPerBlock The mean number of words in each block.
+	 * @return The expected rate of false positives.
+	 */
+	private static double getFalsePositiveRate(double wordsPerBlock)
+	{
+		double rate = 0.0;
+		double poisson = Math.exp(-wordsPerBlock);
+
+		for(int j=0; j<wordsPerBlock*4+20; j++)
+		{
+			rate += poisson*Math.pow(1.0-Math.pow(63.0/64.0, j), BLOCK_LONGS);
+			poisson *= wordsPerBlock/(j+1);
+		}
+
+		return rate;
+	}
+
+	/**
+	 * Adds a word to the filter.
+	 *
+	 * @param word The word to be added.
+	 */
+	public void add(String word)
+	{
+		long hash = HashMixer.mix64(word.hashCode());
+		int offset = block(hash);
+		int h = (int) hash;
+
+		for(int i=0; i<BLOCK_LONGS; i++)
+		{
+			bits[offset+i] |= 1L << ((h*SALT[i]) >>> 26);
+		}
+	}
+
+	/**
+	 * Checks whether a word might be in the filter.
+	 *
+	 * @param word The word to be checked.
+	 * @return False if the word is definitely not in the filter, true if it might be.
+	 */
+	public boolean mightContain(String word)
+	{
+		long hash = HashMixer.mix64(word.hashCode());
+		int offset = block(hash);
+		int h = (int) hash;
+
+		//Shift each selected bit down, and keep the lowest bit only if all of them are set
+		long result = bits[offset] >>> ((h*SALT[0]) >>> 26);
+		result &= bits[offset+1] >>> ((h*SALT[1]) >>> 26);
+		result &= bits[offset+2] >>> ((h*SALT[2]) >>> 26);
+		result &= bits[offset+3] >>> ((h*SALT[3]) >>> 26);
+		result &= bits[offset+4] >>> ((h*SALT[4]) >>> 26);
+		result &= bits[offset+5] >>> ((h*SALT[5]) >>> 26);
+		result &= bits[offset+6] >>> ((h*SALT[6]) >>> 26);
+		result &= bits[offset+7] >>> ((h*SALT[7]) >>> 26);
+
+		return (result & 1) != 0;
+	}
+
+	/**
+	 * @return The index of the first long in the block for the hash.
+	 */
+	private int block(long hash)
+	{
+		//Map the upper 32 bits onto the blocks, without needing a power of two
+		return (int) (((hash >>> 32)*blockCount) >>> 32)*BLOCK_LONGS;
+	}
+
+	/**
+	 * @return The number of bits set per word.
+	 */
+	public int getHashCount()
+	{
+		return BLOCK_LONGS;
+	}
+
+	/**
+	 * @return The size of the bit array, in bytes.
+	 */
+	public long getSize()
+	{
+		return bits.length*8L;
+	}
+}
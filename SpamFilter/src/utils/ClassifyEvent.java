@@ -0,0 +1,45 @@
+package classifier.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering the classification of a single message by 
+ * SpamFilter.classifyMessage, including parsing, lookup and scoring. 
+ */
+@Name("classifier.Classify")
+@Label("Classify Message")
+@Category("Spam Classifier")
+@Description("Classification of a single message")
+@StackTrace(false)
+public class ClassifyEvent extends Event
+{
+	@Label("Message Size")
+	@DataAmount
+	public int messageSize;
+	
+	@Label("Parse Path")
+	public String parsePath;
+	
+	@Label("Token Count")
+	@Description("The number of unique words in the message")
+	public int tokenCount;
+	
+	@Label("Matched Words")
+	@Description("The number of words found in the spam filter")
+	public int matchedWords;
+	
+	@Label("Verdict")
+	public String verdict;
+	
+	@Label("Confidence")
+	public double confidence;
+	
+	@Label("Truncated")
+	public boolean truncated;
+}
@@ -0,0 +1,532 @@
+package classifier.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+/**
+ * Generates a synthetic corpus of SPAM and HAM messages, in the %%%%%-delimited
+ * format read by the training and evaluation code, for scale and stress testing.
+ * The output depends only on the seed and the settings, so the same corpus can
+ * be re-created anywhere without sharing real mail.
+ *
+ * The words are drawn from a Zipfian (power-law) distribution over a common
+ * vocabulary, mixed with words from smaller SPAM-only and HAM-only vocabularies,
+ * so that the filter has something to learn. Each message is one of,
+ *
+ * plain		A text/plain message.
+ * multipart	A multipart/alternative message, with text and HTML parts.
+ * base64		A multipart/mixed message, with a text part and a base64 attachment.
+ * html			A text/html message, including style and script elements.
+ * malformed	A message with broken headers, an unterminated boundary and a very long line.
+ *
+ * The messages are encoded straight into a large buffer and written with a
+ * FileChannel, and the words are drawn in constant time, so the generator isn't
+ * the bottleneck when writing very large corpora.
+ */
+
+public class CorpusGenerator {
+
+	//The message formats
+	public static final int PLAIN = 0;
+	public static final int MULTIPART = 1;
+	public static final int BASE64 = 2;
+	public static final int HTML = 3;
+	public static final int MALFORMED = 4;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int BUFFER_SIZE = 4*1024*1024;
+
+	private long seed;
+	private double spamRatio;
+	private int vocabularySize, classVocabularySize;
+	private double zipfExponent;
+
+	//The chance of each word being drawn from the SPAM or HAM vocabulary
+	private double classWordRate;
+
+	//The relative weight of each message format
+	private double[] formatWeights;
+
+	//The vocabularies, as ASCII bytes, and the Zipf distributions over them
+	private byte[][] common, spamWords, hamWords;
+	private Distribution commonZipf, classZipf;
+
+	private SplittableRandom random;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	/**
+	 * Creates a generator with the default settings, i.e., 40% SPAM, a
+	 * vocabulary of 50,000 common words and 2,000 words for each type,
+	 * and a Zipf exponent of 1.0.
+	 *
+	 * @param seed The random seed, which fixes the generated corpus.
+	 */
+	public CorpusGenerator(long seed)
+	{
+		this.seed = seed;
+		spamRatio = 0.4;
+		vocabularySize = 50000;
+		classVocabularySize = 2000;
+		zipfExponent = 1.0;
+		classWordRate = 0.2;
+		formatWeights = new double[]{0.45, 0.25, 0.1, 0.15, 0.05};
+	}
+
+	/**
+	 * @param spamRatio The fraction of messages which are SPAM, between 0.0 and 1.0.
+	 */
+	public void setSpamRatio(double spamRatio)
+	{
+		this.spamRatio = spamRatio;
+	}
+
+	/**
+	 * @param vocabularySize The number of words in the common vocabulary.
+	 * @param classVocabularySize The number of words only found in SPAM, and only in HAM.
+	 */
+	public void setVocabularySize(int vocabularySize, int classVocabularySize)
+	{
+		this.vocabularySize = vocabularySize;
+		this.classVocabularySize = classVocabularySize;
+	}
+
+	/**
+	 * @param zipfExponent The exponent of the word distribution, where larger values are more skewed.
+	 */
+	public void setZipfExponent(double zipfExponent)
+	{
+		this.zipfExponent = zipfExponent;
+	}
+
+	/**
+	 * @param classWordRate The chance of each word being a SPAM-only or HAM-only word.
+	 */
+	public void setClassWordRate(double classWordRate)
+	{
+		this.classWordRate = classWordRate;
+	}
+
+	/**
+	 * Sets the relative weight of each message format.
+	 *
+	 * @param plain The weight of plain text messages.
+	 * @param multipart The weight of multipart text and HTML messages.
+	 * @param base64 The weight of messages with base64 attachments.
+	 * @param html The weight of HTML messages.
+	 * @param malformed The weight of malformed messages.
+	 */
+	public void setFormatWeights(double plain, double multipart, double base64, double html, double malformed)
+	{
+		formatWeights = new double[]{plain, multipart, base64, html, malformed};
+	}
+
+	/**
+	 * Writes the corpus to a file, overwriting any existing file.
+	 *
+	 * @param outputFile The corpus file to be written.
+	 * @param messageCount The number of messages to generate.
+	 * @return The number of bytes written.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public long generate(File outputFile, long messageCount) throws IOException
+	{
+		random = new SplittableRandom(seed);
+		createVocabularies();
+
+		RandomAccessFile file = new RandomAccessFile(outputFile, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		try
+		{
+			Distribution formats = new Distribution(formatWeights);
+
+			for(long i=0; i<messageCount; i++)
+			{
+				boolean spam = random.nextDouble() < spamRatio;
+				int format = formats.next(random);
+
+				put(CorpusReader.DELIMITER+"\n"+(spam ? "SPAM" : "HAM")+"\n");
+				writeMessage(i, spam, format);
+			}
+
+			flush();
+			return channel.position();
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/**
+	 * Creates the common, SPAM and HAM vocabularies, each of unique random words.
+	 */
+	private void createVocabularies()
+	{
+		HashSet<String> used = new HashSet<String>();
+		common = createWords(vocabularySize, used);
+		spamWords = createWords(classVocabularySize, used);
+		hamWords = createWords(classVocabularySize, used);
+
+		commonZipf = zipf(vocabularySize);
+		classZipf = zipf(classVocabularySize);
+	}
+
+	private byte[][] createWords(int count, HashSet<String> used)
+	{
+		byte[][] words = new byte[count][];
+		char[] chars = new char[12];
+
+		for(int i=0; i<count; i++)
+		{
+			String word;
+			do
+			{
+				//Shorter words are more likely, as with natural text
+				int length = 3+Math.min(random.nextInt(5), random.nextInt(10));
+				for(int j=0; j<length; j++)
+				{
+					chars[j] = (char) ('a'+random.nextInt(26));
+				}
+				word = new String(chars, 0, length);
+			}
+			while(!used.add(word));
+
+			words[i] = word.getBytes(ASCII);
+		}
+
+		return words;
+	}
+
+	/**
+	 * @return The Zipf distribution over the given number of ranks.
+	 */
+	private Distribution zipf(int size)
+	{
+		double[] weights = new double[size];
+		for(int i=0; i<size; i++)
+		{
+			weights[i] = 1.0/Math.pow(i+1, zipfExponent);
+		}
+		return new Distribution(weights);
+	}
+
+	/**
+	 * Draws a word from a vocabulary, by its Zipf rank.
+	 */
+	private byte[] nextWord(byte[][] words, Distribution zipf)
+	{
+		return words[zipf.next(random)];
+	}
+
+	private byte[] nextWord(boolean spam)
+	{
+		if(random.nextDouble() < classWordRate)
+		{
+			return spam ? nextWord(spamWords, classZipf) : nextWord(hamWords, classZipf);
+		}
+		return nextWord(common, commonZipf);
+	}
+
+	/**
+	 * Writes a single message in the given format.
+	 */
+	private void writeMessage(long index, boolean spam, int format) throws IOException
+	{
+		String boundary = "----=_Part_"+index+"_"+Integer.toHexString(random.nextInt());
+
+		switch(format)
+		{
+			case PLAIN:
+				writeHeaders(index, spam, "text/plain; charset=us-ascii");
+				writeText(spam, 20+random.nextInt(300), 72);
+				break;
+
+			case MULTIPART:
+				writeHeaders(index, spam, "multipart/alternative; boundary=\""+boundary+"\"");
+				put("This is a multi-part message in MIME format.\n\n--"+boundary+"\n");
+				put("Content-Type: text/plain; charset=us-ascii\n\n");
+				writeText(spam, 20+random.nextInt(200), 72);
+				put("\n--"+boundary+"\nContent-Type: text/html; charset=us-ascii\n\n");
+				writeHtml(spam, 20+random.nextInt(200));
+				put("\n--"+boundary+"--\n");
+				break;
+
+			case BASE64:
+				writeHeaders(index, spam, "multipart/mixed; boundary=\""+boundary+"\"");
+				put("--"+boundary+"\nContent-Type: text/plain; charset=us-ascii\n\n");
+				writeText(spam, 20+random.nextInt(100), 72);
+				put("\n--"+boundary+"\nContent-Type: application/octet-stream; name=\"attachment"+index+".bin\"\n");
+				put("Content-Transfer-Encoding: base64\nContent-Disposition: attachment\n\n");
+				byte[] attachment = new byte[1024+random.nextInt(32*1024)];
+				for(int i=0; i<attachment.length; i++)
+				{
+					attachment[i] = (byte) random.nextInt(256);
+				}
+				put(Base64.getMimeEncoder().encode(attachment));
+				put("\n--"+boundary+"--\n");
+				break;
+
+			case HTML:
+				writeHeaders(index, spam, "text/html; charset=us-ascii");
+				writeHtml(spam, 20+random.nextInt(300));
+				break;
+
+			default:
+				writeMalformed(index, spam, boundary);
+				break;
+		}
+	}
+
+	private void writeHeaders(long index, boolean spam, String contentType) throws IOException
+	{
+		put("From: ");
+		put(nextWord(spam));
+		put("@");
+		put(nextWord(common, commonZipf));
+		put(".example.com\nTo: user"+(index%1000)+"@example.org\nSubject: ");
+		for(int i=random.nextInt(6); i>=0; i--)
+		{
+			put(nextWord(spam));
+			put(i > 0 ? " " : "\n");
+		}
+		put("Date: Fri, 22 Jul 2011 10:00:00 +0100\nMessage-ID: <"+index+"."+seed+"@example.com>\n");
+		put("MIME-Version: 1.0\nContent-Type: "+contentType+"\n\n");
+	}
+
+	/**
+	 * Writes the given number of words, wrapped to the given line length.
+	 */
+	private void writeText(boolean spam, int wordCount, int lineLength) throws IOException
+	{
+		int column = 0;
+
+		for(int i=0; i<wordCount; i++)
+		{
+			byte[] word = nextWord(spam);
+
+			if(column > 0 && column+word.length >= lineLength)
+			{
+				put("\n");
+				column = 0;
+			}
+			else if(column > 0)
+			{
+				put(" ");
+				column++;
+			}
+
+			put(word);
+			column += word.length;
+
+			//Add some punctuation, so the tokenizer has something to split on
+			if(random.nextInt(12) == 0)
+			{
+				put(random.nextBoolean() ? "." : ",");
+				column++;
+			}
+		}
+		put("\n");
+	}
+
+	private void writeHtml(boolean spam, int wordCount) throws IOException
+	{
+		put("<html><head><style type=\"text/css\">p { margin: 0; }</style>");
+		put("<script type=\"text/javascript\">var id = "+random.nextInt(100000)+";</script></head>\n<body><p>");
+
+		for(int i=0; i<wordCount; i++)
+		{
+			switch(random.nextInt(10))
+			{
+				case 0:
+					put("<b>");
+					put(nextWord(spam));
+					put("</b> ");
+					break;
+				case 1:
+					put("<a href=\"http://");
+					put(nextWord(common, commonZipf));
+					put(".example.net/\">");
+					put(nextWord(spam));
+					put("</a>\n");
+					break;
+				case 2:
+					put("&nbsp;");
+					put(nextWord(spam));
+					put("</p><p>");
+					break;
+				default:
+					put(nextWord(spam));
+					put(" ");
+					break;
+			}
+		}
+		put("</p></body></html>\n");
+	}
+
+	/**
+	 * Writes a message with no blank line after the headers, an unterminated
+	 * boundary, unclosed tags and a single very long line.
+	 */
+	private void writeMalformed(long index, boolean spam, String boundary) throws IOException
+	{
+		put("From ");
+		put(nextWord(spam));
+		put(" Fri Jul 22 10:00:00 2011\nReceived: from unknown (HELO "+random.nextInt(256)+"."+random.nextInt(256)+")\n");
+		put("Subject: =?ISO-8859-1?Q?");
+		put(nextWord(spam));
+		put("?=\nContent-Type: multipart/mixed; boundary=\""+boundary+"\nX-Mailer:\n--"+boundary+"\n");
+		put("Content-Type: text/html\n<html><body><p>unclosed <table><tr><td>\n");
+
+		for(int i=100+random.nextInt(2000); i>0; i--)
+		{
+			put("<font color=\"#"+Integer.toHexString(random.nextInt(0x1000000))+"\">");
+			put(nextWord(spam));
+			put("</font> ");
+		}
+		put("\n&nbsp;&#169;&amp <<<>>> <!-- unterminated comment\n");
+	}
+
+	/**
+	 * Adds a string to the output, which must only contain ASCII characters.
+	 */
+	private void put(String text) throws IOException
+	{
+		if(buffer.remaining() < text.length())
+		{
+			flush();
+		}
+
+		if(buffer.remaining() < text.length())
+		{
+			put(text.getBytes(ASCII));
+		}
+		else
+		{
+			for(int i=0; i<text.length(); i++)
+			{
+				buffer.put((byte) text.charAt(i));
+			}
+		}
+	}
+
+	/**
+	 * Adds bytes to the output, writing the buffer to the file when it is full.
+	 */
+	private void put(byte[] bytes) throws IOException
+	{
+		int offset = 0;
+
+		while(offset < bytes.length)
+		{
+			if(!buffer.hasRemaining())
+			{
+				flush();
+			}
+
+			int length = Math.min(buffer.remaining(), bytes.length-offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * A discrete distribution sampled in constant time with Walker's alias method,
+	 * rather than a binary search of the cumulative weights, which is slow for a
+	 * large vocabulary. Each index is split between itself and one alias, so a
+	 * sample takes one random index and one random threshold.
+	 */
+	private static class Distribution
+	{
+		private double[] threshold;
+		private int[] alias;
+
+		Distribution(double[] weights)
+		{
+			int size = weights.length;
+			threshold = new double[size];
+			alias = new int[size];
+
+			double total = 0.0;
+			for(int i=0; i<size; i++)
+			{
+				total += weights[i];
+			}
+
+			//Split the scaled weights into those below and above the mean
+			double[] scaled = new double[size];
+			int[] small = new int[size];
+			int[] large = new int[size];
+			int smallCount = 0, largeCount = 0;
+
+			for(int i=0; i<size; i++)
+			{
+				scaled[i] = weights[i]*size/total;
+				if(scaled[i] < 1.0)
+				{
+					small[smallCount++] = i;
+				}
+				else
+				{
+					large[largeCount++] = i;
+				}
+			}
+
+			//Top up each small weight from a large one
+			while(smallCount > 0 && largeCount > 0)
+			{
+				int less = small[--smallCount];
+				int more = large[--largeCount];
+
+				threshold[less] = scaled[less];
+				alias[less] = more;
+
+				scaled[more] = (scaled[more]+scaled[less])-1.0;
+				if(scaled[more] < 1.0)
+				{
+					small[smallCount++] = more;
+				}
+				else
+				{
+					large[largeCount++] = more;
+				}
+			}
+
+			//Anything left over is (to rounding error) exactly the mean
+			while(largeCount > 0)
+			{
+				threshold[large[--largeCount]] = 1.0;
+			}
+			while(smallCount > 0)
+			{
+				threshold[small[--smallCount]] = 1.0;
+			}
+		}
+
+		int next(SplittableRandom random)
+		{
+			int index = random.nextInt(threshold.length);
+			return (random.nextDouble() < threshold[index]) ? index : alias[index];
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package classifier.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads the messages in a training or evaluation corpus (e.g., corpus.txt) one at 
+ * a time. Each message is preceded by the delimiter line "%%%%%", followed by a line 
+ * giving the message type (SPAM or HAM), and then the raw text of the message. 
+ * Messages without any text are skipped.
+ */
+
+public class CorpusReader {
+
+	//The line separating each message in the corpus
+	public static final String DELIMITER = "%%%%%";
+
+	private BufferedReader reader;
+	
+	//The string builder is used to compile messages line-by-line
+	private StringBuilder builder;
+	
+	//Whether the next line read is the message type
+	private boolean newMessage;
+	
+	//The type of the message being read, and the current message
+	private String pendingType, messageType, text;
+	
+	/**
+	 * Opens the corpus file for reading.
+	 * 
+	 * @param file The corpus file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public CorpusReader(File file) throws IOException
+	{
+		reader = new BufferedReader(new FileReader(file));
+		builder = new StringBuilder();
+		newMessage = false;
+	}
+	
+	/**
+	 * Reads the next message from the corpus. 
+	 * 
+	 * @return True if a message was read, false at the end of the corpus.
+	 * @throws IOException If there is an error reading the file.
+	 */
+	public boolean next() throws IOException
+	{
+		String line;
+		
+		while ((line = reader.readLine()) != null)
+		{
+			//If the new-message delimiter has been read, the previous message is complete
+			if(line.equals(DELIMITER))
+			{
+				newMessage = true;
+				
+				if(builder.length() > 0)
+				{
+					setMessage();
+					return true;
+				}
+			}
+			else if(newMessage)
+			{
+				pendingType = line;
+				builder.setLength(0);
+				newMessage = false;
+			}
+			else
+			{
+				builder.append(line).append('\n');
+			}
+		}
+		
+		//Return the final message
+		if(builder.length() > 0)
+		{
+			setMessage();
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Makes the message in the string builder the current message.
+	 */
+	private void setMessage()
+	{
+		messageType = pendingType;
+		text = builder.toString();
+		builder.setLength(0);
+	}
+	
+	/**
+	 * @return The type of the current message, either "SPAM" or "HAM".
+	 */
+	public String getMessageType()
+	{
+		return messageType;
+	}
+	
+	/**
+	 * @return The raw text of the current message, including the MIME headers.
+	 */
+	public String getText()
+	{
+		return text;
+	}
+	
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+}
@@ -0,0 +1,138 @@
+package classifier.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+/**
+ * Reads a spam filter file, or the counts file written alongside it, one word
+ * at a time. The header line gives the pipe-delimited totals
+ * hamTotal|spamTotal|hamWordCount|spamWordCount, which a counts file follows
+ * with the message count, and a snapshot of a live model then with the feedback
+ * log segment. Each line after that gives word|ham|spam|spamicity. Lines that
+ * cannot be parsed are reported and skipped.
+ */
+
+public class FilterFileReader {
+
+	private BufferedReader reader;
+
+	//The header fields, the first four being the totals
+	private int[] header;
+
+	/**
+	 * Opens the filter file, and reads its header.
+	 *
+	 * @param file The spam filter or counts file.
+	 * @throws IOException If the file cannot be opened, or has no header.
+	 */
+	public FilterFileReader(File file) throws IOException
+	{
+		reader = new BufferedReader(new FileReader(file));
+
+		String line = reader.readLine();
+		StringTokenizer strtok = new StringTokenizer((line == null) ? "" : line, "|");
+		header = new int[strtok.countTokens()];
+		try
+		{
+			for(int i=0; i<header.length; i++)
+			{
+				header[i] = Integer.parseInt(strtok.nextToken());
+			}
+		}
+		catch(NumberFormatException ex)
+		{
+			header = new int[0];
+		}
+
+		if(header.length < 4)
+		{
+			reader.close();
+			throw new IOException(file+" has no hamTotal|spamTotal|hamWordCount|spamWordCount header: "+line);
+		}
+	}
+
+	/**
+	 * Reads the next word of the file.
+	 *
+	 * @return The word, with its counts and spamicity, or null at the end of the file.
+	 * @throws IOException If there is an error reading the file.
+	 */
+	public Word next() throws IOException
+	{
+		String line;
+
+		while((line = reader.readLine()) != null)
+		{
+			String[] tokens = line.split("\\|");
+			if(tokens.length != 4)
+			{
+				System.err.println("Line "+line+" cannot be parsed into word|ham|spam");
+				continue;
+			}
+
+			try
+			{
+				return new Word(tokens[0], Integer.parseInt(tokens[1]),
+						Integer.parseInt(tokens[2]), Double.parseDouble(tokens[3]));
+			}
+			catch(NumberFormatException ex)
+			{
+				System.err.println("Error parsing value in line: "+line);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Closes the file.
+	 */
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+
+	public int getHamTotal()
+	{
+		return header[0];
+	}
+
+	public int getSpamTotal()
+	{
+		return header[1];
+	}
+
+	public int getHamWordCount()
+	{
+		return header[2];
+	}
+
+	public int getSpamWordCount()
+	{
+		return header[3];
+	}
+
+	/**
+	 * @return The header totals, hamTotal|spamTotal|hamWordCount|spamWordCount.
+	 */
+	public int[] getTotals()
+	{
+		return new int[]{header[0], header[1], header[2], header[3]};
+	}
+
+	/**
+	 * Gives a field after the totals, i.e., the message count (4) and log
+	 * segment (5) of a counts file, or the log segment (4) of a snapshot.
+	 *
+	 * @param index The index of the field in the header.
+	 * @param missing The value given if the header has no such field.
+	 * @return The value of the field.
+	 */
+	public int getHeaderField(int index, int missing)
+	{
+		return (index < header.length) ? header[index] : missing;
+	}
+}
@@ -0,0 +1,26 @@
+package classifier.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event covering the loading of a spam filter file. 
+ */
+@Name("classifier.FilterLoad")
+@Label("Filter Load")
+@Category("Spam Classifier")
+public class FilterLoadEvent extends Event
+{
+	@Label("Filename")
+	public String filename;
+	
+	@Label("Vocabulary Size")
+	public int vocabularySize;
+	
+	@Label("Retained Size")
+	@DataAmount
+	public long retainedSize;
+}
@@ -0,0 +1,350 @@
+package classifier.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * A read-only dictionary of words, mapping each word to its position in sorted
+ * order, i.e., its id. Rather than a String per word, the words are stored as
+ * UTF-8 bytes in one array, front-coded in blocks of 16, where the first word
+ * of each block is stored in full, and each following word as the length of
+ * the prefix it shares with the word before, and the rest of its bytes.
+ *
+ * head		length (varint)|bytes
+ * word		shared (varint)|suffix length (varint)|suffix bytes
+ *
+ * A sparse index holds the offset of each block. A lookup is a binary search
+ * over the block heads, followed by a scan of one block, which is compared in
+ * place against the word without decoding any of the block's words.
+ */
+
+public class FrontCodedDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	//The number of words in each block
+	public static final int BLOCK_SIZE = 16;
+
+	private byte[] data;
+	private int[] blockOffsets;
+	private int size;
+
+	/**
+	 * Builds the dictionary from a set of distinct words.
+	 *
+	 * @param words The words, in any order.
+	 */
+	public FrontCodedDictionary(Collection<String> words)
+	{
+		//Sort the words by their unsigned UTF-8 bytes, the order used in the lookup
+		byte[][] sorted = new byte[words.size()][];
+		Iterator<String> iterator = words.iterator();
+		for(int i=0; i<sorted.length; i++)
+		{
+			sorted[i] = iterator.next().getBytes(UTF8);
+		}
+		Arrays.sort(sorted, new Comparator<byte[]>() {
+			public int compare(byte[] a, byte[] b)
+			{
+				int shared = sharedPrefix(a, b);
+				if(shared == a.length || shared == b.length)
+				{
+					return a.length-b.length;
+				}
+				return (a[shared] & 0xff)-(b[shared] & 0xff);
+			}
+		});
+
+		size = sorted.length;
+		blockOffsets = new int[(size+BLOCK_SIZE-1)/BLOCK_SIZE];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for(int i=0; i<size; i++)
+		{
+			if(i%BLOCK_SIZE == 0)
+			{
+				blockOffsets[i/BLOCK_SIZE] = out.size();
+				writeVarint(out, sorted[i].length);
+				out.write(sorted[i], 0, sorted[i].length);
+			}
+			else
+			{
+				int shared = sharedPrefix(sorted[i-1], sorted[i]);
+				if(shared == sorted[i].length)
+				{
+					throw new IllegalArgumentException("Duplicate word in dictionary: "+new String(sorted[i], UTF8));
+				}
+				writeVarint(out, shared);
+				writeVarint(out, sorted[i].length-shared);
+				out.write(sorted[i], shared, sorted[i].length-shared);
+			}
+		}
+
+		data = out.toByteArray();
+	}
+
+	/**
+	 * @return The length of the common prefix of two byte arrays.
+	 */
+	private static int sharedPrefix(byte[] a, byte[] b)
+	{
+		int length = Math.min(a.length, b.length);
+		int i = 0;
+		while(i < length && a[i] == b[i])
+		{
+			i++;
+		}
+		return i;
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value)
+	{
+		while((value & ~0x7f) != 0)
+		{
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Finds the id of a word.
+	 *
+	 * @param word The word.
+	 * @return The id of the word, or -1 if it isn't in the dictionary.
+	 */
+	public int getId(String word)
+	{
+		byte[] key = encode(word);
+
+		//Find the last block whose head is no greater than the word
+		int low = 0;
+		int high = blockOffsets.length-1;
+		int block = -1;
+
+		while(low <= high)
+		{
+			int mid = (low+high) >>> 1;
+			int compare = compareHead(key, blockOffsets[mid]);
+
+			if(compare == 0)
+			{
+				return mid*BLOCK_SIZE;
+			}
+			else if(compare > 0)
+			{
+				block = mid;
+				low = mid+1;
+			}
+			else
+			{
+				high = mid-1;
+			}
+		}
+
+		if(block == -1)
+		{
+			return -1;
+		}
+
+		//Match the head against the word, then scan the rest of the block
+		int position = blockOffsets[block];
+		int headLength = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = data[position++];
+			headLength |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		while(b < 0);
+
+		int matched = matchLength(key, 0, position, headLength);
+		position += headLength;
+
+		int end = Math.min(size, (block+1)*BLOCK_SIZE);
+		for(int id=block*BLOCK_SIZE+1; id<end; id++)
+		{
+			int shared = 0;
+			shift = 0;
+			do
+			{
+				b = data[position++];
+				shared |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while(b < 0);
+
+			int suffixLength = 0;
+			shift = 0;
+			do
+			{
+				b = data[position++];
+				suffixLength |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while(b < 0);
+
+			//The previous word was less than the key, and differed from it at byte 'matched'
+			if(shared < matched)
+			{
+				//This word differs from the previous one earlier, so it's greater than the key
+				return -1;
+			}
+			else if(shared == matched)
+			{
+				int length = matchLength(key, matched, position, suffixLength);
+				if(length == suffixLength)
+				{
+					if(matched+length == key.length)
+					{
+						return id;
+					}
+				}
+				else if(matched+length == key.length || (data[position+length] & 0xff) > (key[matched+length] & 0xff))
+				{
+					return -1;
+				}
+				matched += length;
+			}
+			//Otherwise this word shares the previous word's smaller byte, so it's also less than the key
+
+			position += suffixLength;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compares a word with the head of a block.
+	 *
+	 * @return Negative if the word is less than the head, zero if equal and positive if greater.
+	 */
+	private int compareHead(byte[] key, int position)
+	{
+		int length = 0;
+		int shift = 0;
+		int b;
+		do
+		{
+			b = data[position++];
+			length |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		while(b < 0);
+
+		int matched = matchLength(key, 0, position, length);
+		if(matched == length || matched == key.length)
+		{
+			return key.length-length;
+		}
+		return (key[matched] & 0xff)-(data[position+matched] & 0xff);
+	}
+
+	/**
+	 * @return The number of bytes of the key, from the offset, equal to those in the data.
+	 */
+	private int matchLength(byte[] key, int offset, int position, int length)
+	{
+		int limit = Math.min(length, key.length-offset);
+		int i = 0;
+		while(i < limit && key[offset+i] == data[position+i])
+		{
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Encodes a word as UTF-8, copying the characters directly if they're all ASCII.
+	 */
+	private static byte[] encode(String word)
+	{
+		int length = word.length();
+		byte[] bytes = new byte[length];
+
+		for(int i=0; i<length; i++)
+		{
+			char c = word.charAt(i);
+			if(c >= 0x80)
+			{
+				return word.getBytes(UTF8);
+			}
+			bytes[i] = (byte) c;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Decodes the word with the given id, from the head of its block.
+	 *
+	 * @param id The id of the word.
+	 * @return The word.
+	 */
+	public String getWord(int id)
+	{
+		if(id < 0 || id >= size)
+		{
+			throw new IndexOutOfBoundsException("Word id "+id+" is not in the dictionary of "+size);
+		}
+
+		int position = blockOffsets[id/BLOCK_SIZE];
+		byte[] word = new byte[0];
+
+		for(int i=(id/BLOCK_SIZE)*BLOCK_SIZE; i<=id; i++)
+		{
+			int shared = 0;
+			if(i%BLOCK_SIZE != 0)
+			{
+				int shift = 0;
+				int b;
+				do
+				{
+					b = data[position++];
+					shared |= (b & 0x7f) << shift;
+					shift += 7;
+				}
+				while(b < 0);
+			}
+
+			int suffixLength = 0;
+			int shift = 0;
+			int b;
+			do
+			{
+				b = data[position++];
+				suffixLength |= (b & 0x7f) << shift;
+				shift += 7;
+			}
+			while(b < 0);
+
+			word = Arrays.copyOf(word, shared+suffixLength);
+			System.arraycopy(data, position, word, shared, suffixLength);
+			position += suffixLength;
+		}
+
+		return new String(word, UTF8);
+	}
+
+	/**
+	 * @return The number of words in the dictionary.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The size of the front-coded bytes and the block index, in bytes.
+	 */
+	public long getRetainedSize()
+	{
+		return ((16+data.length+7) & ~7L)+16+4L*blockOffsets.length;
+	}
+}
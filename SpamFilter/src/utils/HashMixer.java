@@ -0,0 +1,47 @@
+package classifier.utils;
+
+/**
+ * Spreads the bits of a hash code (the MurmurHash3 finalisers), so that the
+ * low bits used to pick a slot, or the high bits used to pick a block, depend
+ * on every bit of the input. String.hashCode() alone leaves similar words in
+ * neighbouring slots.
+ */
+
+public class HashMixer {
+
+	private HashMixer()
+	{
+	}
+
+	/**
+	 * Mixes a 32-bit hash (the fmix32 finaliser).
+	 *
+	 * @param hash The hash code, e.g., of a word.
+	 * @return The mixed hash.
+	 */
+	public static int mix32(int hash)
+	{
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+	/**
+	 * Mixes a 64-bit hash (the fmix64 finaliser), spreading its bits over all 64 bits.
+	 *
+	 * @param hash The hash.
+	 * @return The mixed hash.
+	 */
+	public static long mix64(long hash)
+	{
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,303 @@
+package classifier.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A log-bucketed histogram of long values, e.g., latencies in nanoseconds. Each 
+ * power of two is split into 32 linear sub-buckets, so any recorded value is 
+ * reported to within about 3% of its true value, over the full range of a long. 
+ * 
+ * The values are recorded into stripes, each with its own buckets, count, sum 
+ * and maximum, and each thread records into the stripe picked by its id, so 
+ * threads recording into the same histogram rarely touch the same counters, and 
+ * histograms can be left enabled in production. Recording a value is a few 
+ * atomic updates of the thread's stripe, and no locks. The stripes are only 
+ * allocated when first used, and are summed when the histogram is read. 
+ * Histograms with the same layout can be merged, e.g., to combine the results 
+ * of several threads. 
+ */
+
+public class Histogram {
+
+	//The number of sub-buckets in each power of two is 2^SUB_BITS
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+	
+	//The number of stripes, a power of two of at least twice the number of cores
+	private static final int STRIPE_COUNT = Integer.highestOneBit(
+			Math.max(1, Runtime.getRuntime().availableProcessors()*2-1)) << 1;
+	
+	/**
+	 * The values recorded by the threads mapped to a single stripe.
+	 */
+	private static class Stripe
+	{
+		private AtomicLongArray counts;
+		private AtomicLong count, sum, max;
+		
+		Stripe()
+		{
+			counts = new AtomicLongArray(BUCKET_COUNT);
+			count = new AtomicLong();
+			sum = new AtomicLong();
+			max = new AtomicLong();
+		}
+		
+		void record(int index, long value)
+		{
+			counts.incrementAndGet(index);
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			
+			long current = max.get();
+			while(value > current && !max.compareAndSet(current, value))
+			{
+				current = max.get();
+			}
+		}
+		
+		void reset()
+		{
+			for(int i=0; i<BUCKET_COUNT; i++)
+			{
+				counts.set(i, 0);
+			}
+			
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+		}
+	}
+	
+	private AtomicReferenceArray<Stripe> stripes;
+	
+	public Histogram()
+	{
+		stripes = new AtomicReferenceArray<Stripe>(STRIPE_COUNT);
+	}
+	
+	/**
+	 * Records a single value. Negative values are recorded as zero.
+	 * 
+	 * @param value The value to record.
+	 */
+	public void record(long value)
+	{
+		if(value < 0)
+		{
+			value = 0;
+		}
+		
+		getStripe(Thread.currentThread().getId()).record(getIndex(value), value);
+	}
+	
+	/**
+	 * Gets the stripe for a thread, allocating it if needed.
+	 */
+	private Stripe getStripe(long threadId)
+	{
+		//Spread consecutive thread ids over the stripes
+		int index = (int) ((threadId * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPE_COUNT - 1);
+		
+		Stripe stripe = stripes.get(index);
+		if(stripe == null)
+		{
+			stripes.compareAndSet(index, null, new Stripe());
+			stripe = stripes.get(index);
+		}
+		return stripe;
+	}
+	
+	/**
+	 * Gets the bucket a value falls into. Values below 2^SUB_BITS each have 
+	 * their own bucket, above that the top SUB_BITS bits after the leading 
+	 * one bit select the sub-bucket within the power of two.
+	 */
+	private static int getIndex(long value)
+	{
+		if(value < SUB_COUNT)
+		{
+			return (int) value;
+		}
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+	
+	/**
+	 * Gets the value in the middle of a bucket.
+	 */
+	private static long getValue(int index)
+	{
+		if(index < SUB_COUNT)
+		{
+			return index;
+		}
+		
+		int exponent = index / SUB_COUNT + SUB_BITS - 1;
+		long sub = index % SUB_COUNT;
+		long width = 1L << (exponent - SUB_BITS);
+		
+		return ((SUB_COUNT + sub) << (exponent - SUB_BITS)) + width/2;
+	}
+	
+	/**
+	 * Adds all the values recorded in another histogram to this one.
+	 * 
+	 * @param other The other histogram.
+	 */
+	public void merge(Histogram other)
+	{
+		long[] counts = other.getCounts();
+		Stripe stripe = getStripe(Thread.currentThread().getId());
+		
+		for(int i=0; i<BUCKET_COUNT; i++)
+		{
+			if(counts[i] != 0)
+			{
+				stripe.counts.addAndGet(i, counts[i]);
+			}
+		}
+		
+		stripe.count.addAndGet(other.getCount());
+		stripe.sum.addAndGet(other.getSum());
+		
+		long otherMax = other.getMax();
+		long current = stripe.max.get();
+		while(otherMax > current && !stripe.max.compareAndSet(current, otherMax))
+		{
+			current = stripe.max.get();
+		}
+	}
+	
+	/**
+	 * @return The count of each bucket, summed over the stripes.
+	 */
+	private long[] getCounts()
+	{
+		long[] counts = new long[BUCKET_COUNT];
+		
+		for(int s=0; s<STRIPE_COUNT; s++)
+		{
+			Stripe stripe = stripes.get(s);
+			if(stripe != null)
+			{
+				for(int i=0; i<BUCKET_COUNT; i++)
+				{
+					counts[i] += stripe.counts.get(i);
+				}
+			}
+		}
+		
+		return counts;
+	}
+	
+	/**
+	 * Gets the value at the given percentile, e.g., 99.9 for the p999.
+	 * 
+	 * @param percentile The percentile, between 0.0 and 100.0.
+	 * @return The approximate value, or 0 if no values have been recorded.
+	 */
+	public long getPercentile(double percentile)
+	{
+		//Count the buckets read, rather than the stripe counts, as values may be recorded meanwhile
+		long[] counts = getCounts();
+		long total = 0;
+		for(int i=0; i<BUCKET_COUNT; i++)
+		{
+			total += counts[i];
+		}
+		
+		if(total == 0)
+		{
+			return 0;
+		}
+		
+		long target = (long) Math.ceil((percentile / 100.0) * total);
+		if(target < 1)
+		{
+			target = 1;
+		}
+		
+		long max = getMax();
+		long seen = 0;
+		for(int i=0; i<BUCKET_COUNT; i++)
+		{
+			seen += counts[i];
+			if(seen >= target)
+			{
+				return Math.min(getValue(i), max);
+			}
+		}
+		
+		return max;
+	}
+	
+	public long getCount()
+	{
+		long count = 0;
+		for(int s=0; s<STRIPE_COUNT; s++)
+		{
+			Stripe stripe = stripes.get(s);
+			if(stripe != null)
+			{
+				count += stripe.count.get();
+			}
+		}
+		return count;
+	}
+	
+	private long getSum()
+	{
+		long sum = 0;
+		for(int s=0; s<STRIPE_COUNT; s++)
+		{
+			Stripe stripe = stripes.get(s);
+			if(stripe != null)
+			{
+				sum += stripe.sum.get();
+			}
+		}
+		return sum;
+	}
+	
+	public long getMax()
+	{
+		long max = 0;
+		for(int s=0; s<STRIPE_COUNT; s++)
+		{
+			Stripe stripe = stripes.get(s);
+			if(stripe != null)
+			{
+				max = Math.max(max, stripe.max.get());
+			}
+		}
+		return max;
+	}
+	
+	public double getMean()
+	{
+		long total = getCount();
+		return (total == 0) ? 0.0 : ((double) getSum()) / total;
+	}
+	
+	/**
+	 * Clears all the recorded values. 
+	 */
+	public void reset()
+	{
+		for(int s=0; s<STRIPE_COUNT; s++)
+		{
+			Stripe stripe = stripes.get(s);
+			if(stripe != null)
+			{
+				stripe.reset();
+			}
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package classifier.utils;
+
+/**
+ * Single-pass state machine that strips HTML markup from a stream of characters
+ * and passes the remaining text straight to a Tokenizer. Tags, comments, entities,
+ * and the contents of script and style elements are all dropped, and are treated
+ * as word boundaries. As the state is kept between calls, tags and comments that
+ * span several lines are handled correctly, and no DOM or intermediate Strings
+ * are created.
+ */
+
+public class HtmlStripper {
+
+	//The states of the parser
+	private static final int TEXT = 0;
+	private static final int TAG_OPEN = 1;
+	private static final int TAG_NAME = 2;
+	private static final int TAG = 3;
+	private static final int QUOTED = 4;
+	private static final int BANG = 5;
+	private static final int COMMENT = 6;
+	private static final int DECLARATION = 7;
+	private static final int RAW_TEXT = 8;
+	private static final int ENTITY = 9;
+
+	//The longest entity (e.g., &thetasym;) which is dropped
+	private static final int MAX_ENTITY_LENGTH = 10;
+
+	//The tokenizer receiving the text content
+	private Tokenizer tokenizer;
+
+	//The parsing limits applied to this message
+	private ParserConfig config;
+
+	private int state;
+
+	//The name of the current tag, in lower-case, and if it is a closing tag
+	private StringBuilder tagName;
+	private boolean closingTag;
+
+	//The current quote character within a tag, and the length of the current entity
+	private char quote;
+	private int entityLength;
+
+	//The number of dashes matched at the start or end of a comment
+	private int dashes;
+
+	//The element (script or style) whose contents are being skipped, and the match position
+	private String rawElement;
+	private int rawMatch;
+
+	//The number of HTML nodes seen so far
+	private int nodeCount;
+	private boolean truncated;
+
+	/**
+	 * Creates a stripper that sends the text content to the given tokenizer.
+	 *
+	 * @param tokenizer The tokenizer receiving the text.
+	 * @param config The parsing limits, used to cap the number of HTML nodes.
+	 */
+	public HtmlStripper(Tokenizer tokenizer, ParserConfig config)
+	{
+		this.tokenizer = tokenizer;
+		this.config = config;
+
+		state = TEXT;
+		tagName = new StringBuilder();
+		nodeCount = 0;
+		truncated = false;
+	}
+
+	/**
+	 * Adds a range of characters to the stripper.
+	 *
+	 * @param text The text containing HTML.
+	 * @param start The index of the first character.
+	 * @param end The index after the last character.
+	 */
+	public void add(CharSequence text, int start, int end)
+	{
+		for(int i=start; i<end && !truncated; i++)
+		{
+			add(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Adds all the characters in the text to the stripper.
+	 *
+	 * @param text The text containing HTML.
+	 */
+	public void add(CharSequence text)
+	{
+		add(text, 0, text.length());
+	}
+
+	/**
+	 * Adds a single character to the stripper, updating the state and
+	 * passing any text content on to the tokenizer.
+	 *
+	 * @param c The next character.
+	 */
+	public void add(char c)
+	{
+		if(truncated)
+		{
+			return;
+		}
+
+		switch(state)
+		{
+			case TEXT:
+				if(c == '<')
+				{
+					state = TAG_OPEN;
+				}
+				else if(c == '&')
+				{
+					tokenizer.endToken();
+					entityLength = 0;
+					state = ENTITY;
+				}
+				else
+				{
+					tokenizer.add(c);
+				}
+				break;
+
+			case TAG_OPEN:
+				if(c == '!')
+				{
+					startNode();
+					dashes = 0;
+					state = BANG;
+				}
+				else if(c == '/' || isAsciiLetter(c))
+				{
+					startNode();
+					tagName.setLength(0);
+					closingTag = (c == '/');
+					if(!closingTag)
+					{
+						tagName.append(Character.toLowerCase(c));
+					}
+					state = TAG_NAME;
+				}
+				else
+				{
+					//Not a tag, e.g., "a < b", so treat the bracket as text
+					tokenizer.endToken();
+					state = TEXT;
+					add(c);
+				}
+				break;
+
+			case TAG_NAME:
+				if(c == '>')
+				{
+					endTag();
+				}
+				else if(Character.isWhitespace(c) || c == '/')
+				{
+					state = TAG;
+				}
+				else if(tagName.length() < 8)
+				{
+					tagName.append(Character.toLowerCase(c));
+				}
+				break;
+
+			case TAG:
+				if(c == '>')
+				{
+					endTag();
+				}
+				else if(c == '"' || c == '\'')
+				{
+					quote = c;
+					state = QUOTED;
+				}
+				break;
+
+			case QUOTED:
+				if(c == quote)
+				{
+					state = TAG;
+				}
+				break;
+
+			case BANG:
+				//Comments start with <!--, anything else is a declaration
+				if(c == '-' && dashes < 2)
+				{
+					dashes++;
+					if(dashes == 2)
+					{
+						dashes = 0;
+						state = COMMENT;
+					}
+				}
+				else if(c == '>')
+				{
+					state = TEXT;
+				}
+				else
+				{
+					state = DECLARATION;
+				}
+				break;
+
+			case COMMENT:
+				if(c == '-')
+				{
+					dashes++;
+				}
+				else if(c == '>' && dashes >= 2)
+				{
+					state = TEXT;
+				}
+				else
+				{
+					dashes = 0;
+				}
+				break;
+
+			case DECLARATION:
+				if(c == '>')
+				{
+					state = TEXT;
+				}
+				break;
+
+			case RAW_TEXT:
+				//Skip everything until the closing tag, e.g., </script
+				if(Character.toLowerCase(c) == rawElement.charAt(rawMatch))
+				{
+					rawMatch++;
+					if(rawMatch == rawElement.length())
+					{
+						startNode();
+						closingTag = true;
+						tagName.setLength(0);
+						state = TAG;
+					}
+				}
+				else
+				{
+					rawMatch = (c == '<') ? 1 : 0;
+				}
+				break;
+
+			case ENTITY:
+				if(c == ';')
+				{
+					state = TEXT;
+				}
+				else if(!(isAsciiLetter(c) || (c >= '0' && c <= '9') || c == '#')
+						|| ++entityLength > MAX_ENTITY_LENGTH)
+				{
+					//Not an entity, e.g., "fish & chips", so go back to the text
+					state = TEXT;
+					add(c);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Called at the start of each tag, comment or declaration, ending the
+	 * current token and checking the node limit.
+	 */
+	private void startNode()
+	{
+		tokenizer.endToken();
+		nodeCount++;
+
+		if(config.exceedsHtmlNodes(nodeCount))
+		{
+			truncated = true;
+			config.recordHtmlLimit();
+		}
+	}
+
+	/**
+	 * Called at the end of each tag. The contents of script and style
+	 * elements are skipped entirely.
+	 */
+	private void endTag()
+	{
+		state = TEXT;
+
+		if(!closingTag)
+		{
+			String name = tagName.toString();
+			if(name.equals("script") || name.equals("style"))
+			{
+				rawElement = "</"+name;
+				rawMatch = 0;
+				state = RAW_TEXT;
+			}
+		}
+	}
+
+	private boolean isAsciiLetter(char c)
+	{
+		return ((c >= 'a')&&(c <= 'z'))||((c >= 'A')&&(c <= 'Z'));
+	}
+
+	/**
+	 * @return The number of tags, comments and declarations seen.
+	 */
+	public int getNodeCount()
+	{
+		return nodeCount;
+	}
+
+	/**
+	 * @return True if the HTML node limit was reached, false otherwise.
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+}
@@ -26,6 +26,11 @@ import org.jsoup.safety.Whitelist;
 
 public class Message {
 
+	//The ways in which the message text can be parsed
+	public static final String PATH_TEXT = "text";
+	public static final String PATH_MULTIPART = "multipart";
+	public static final String PATH_OTHER = "other";
+	
 	//The header details in the MIME message
 	private String sender; 
 	private String subject;
@@ -37,6 +42,20 @@ public class Message {
 	//Stores the words as objects in a Hash set (no duplicates)
 	private HashSet<String> wordSet;
 	
+	//The tags kept when cleaning HTML with Jsoup
+	private static Whitelist whitelist;
+	
+	//The parsing limits, and whether any of them were hit for this message
+	private ParserConfig config;
+	private boolean truncated;
+	
+	//The time spent in MIME parsing and in tokenizing this message, in nanoseconds
+	private long tokenizeStart, mimeNanos, tokenizeNanos;
+	
+	//The size of the raw text, and the path used to parse it
+	private int size;
+	private String parsePath;
+	
 	/**
 	 * The constructor takes a raw text file including the MIME headers and 
 	 * the message type, i.e., "SPAM" or "HAM". The message class is simply a 
@@ -46,6 +65,19 @@ public class Message {
 	 * @param rawText The raw text of the email, with the MIME headers, attachements, etc. included. 
 	 */
 	public Message(String rawText)
+	{
+		this(rawText, ParserConfig.getDefault());
+	}
+	
+	/**
+	 * Alternate constructor that bounds the parsing cost of the message using 
+	 * the provided limits. If any limit is reached, parsing stops and the words 
+	 * seen so far are kept, with the message flagged as truncated. 
+	 * 
+	 * @param rawText The raw text of the email, with the MIME headers, attachements, etc. included. 
+	 * @param config The parsing limits applied to this message.
+	 */
+	public Message(String rawText, ParserConfig config)
 	{		
 		//Initialize the email fields as blank strings
 		sender = "";
@@ -55,6 +87,25 @@ public class Message {
 		
 		//Initialize the set containing all the words
 		wordSet = new HashSet<String>();
+		
+		this.config = config;
+		truncated = false;
+		
+		MessageParseEvent event = new MessageParseEvent();
+		event.begin();
+		
+		long start = System.nanoTime();
+		tokenizeStart = -1;
+		size = rawText.length();
+		parsePath = PATH_OTHER;
+		
+		//Only scan up to the maximum number of bytes of the raw text
+		if(config.exceedsBytes(rawText.length()))
+		{
+			rawText = rawText.substring(0, config.getMaxBytes());
+			setTruncated();
+			config.recordBytesLimit();
+		}
 
 		MimeMessage message = null;
 		
@@ -92,6 +143,34 @@ public class Message {
 		{
 			parseOther(message, rawText);
 		}
+		
+		//Split the parsing time between the MIME parsing and the tokenizing
+		long end = System.nanoTime();
+		if(tokenizeStart == -1)
+		{
+			tokenizeStart = end;
+		}
+		
+		mimeNanos = tokenizeStart - start;
+		tokenizeNanos = end - tokenizeStart;
+		
+		if(event.shouldCommit())
+		{
+			event.messageSize = size;
+			event.parsePath = parsePath;
+			event.contentType = contentType;
+			event.tokenCount = wordSet.size();
+			event.truncated = truncated;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Marks the end of the MIME parsing, and the start of the tokenizing.
+	 */
+	private void startTokenizing()
+	{
+		tokenizeStart = System.nanoTime();
 	}
 	
 	/**
@@ -105,34 +184,48 @@ public class Message {
 	 */
 	private void parseMultiPart(MimeMessage message, String rawText)
 	{
+		parsePath = PATH_MULTIPART;
+		
 		try
 		{
 			Multipart multipart = (Multipart) message.getContent();
-			String bodyText = sender.replaceAll("([^\\w])", " ");
 			
-			if(subject.length() > 0)
-			{
-				bodyText = bodyText.concat(" "+subject+" ");
-			}
+			//Read all the parts before tokenizing, in case any of them fail
+			int partCount = multipart.getCount();
+			String[] partTypes = new String[partCount];
+			String[] partText = new String[partCount];
 			
-			for (int i=0; i < multipart.getCount(); i++)
+			for (int i=0; i < partCount; i++)
 			{
 				  BodyPart bodyPart = multipart.getBodyPart(i);
+				  partTypes[i] = bodyPart.getContentType();
 	
-				  if(bodyPart.getContentType().contains("text/"))
+				  if(partTypes[i].contains("text/"))
 				  {
-					  bodyText = bodyText.concat(bodyPart.getContent().toString());
+					  partText[i] = bodyPart.getContent().toString();
 				  }
 				  else
 				  {
-					  bodyText = bodyText.concat(bodyPart.getContentType());
+					  partText[i] = partTypes[i];
 				  }
 			}
 			
-			bodyText = cleanText(bodyText);
+			startTokenizing();
+			Tokenizer tokenizer = new Tokenizer(wordSet, config);
+			addHeaderText(tokenizer);
+			
+			for (int i=0; i < partCount; i++)
+			{
+				addBodyText(tokenizer, partTypes[i], partText[i]);
+			}
+			
+			tokenizer.endToken();
 			setWordCount(rawText);
-			bodyText = bodyText.toLowerCase();
-			wordSet = getUniqueWords(bodyText);
+			
+			if(tokenizer.isTruncated())
+			{
+				setTruncated();
+			}
 		}
 		catch(Exception ex)
 		{
@@ -142,26 +235,73 @@ public class Message {
 	
 	private void parseText(MimeMessage message, String rawText)
 	{
+		parsePath = PATH_TEXT;
+		
 		try
 		{
-			String bodyText = sender.replaceAll("([^\\w])", " ");
+			String bodyText = message.getContent().toString();
 			
-			if(subject.length() > 0)
-			{
-				bodyText = bodyText.concat(" "+subject+" ");
-			}
+			startTokenizing();
+			Tokenizer tokenizer = new Tokenizer(wordSet, config);
+			addHeaderText(tokenizer);
+			addBodyText(tokenizer, contentType, bodyText);
 			
-			bodyText = bodyText.concat(message.getContent().toString());
-			bodyText = cleanText(bodyText);
+			tokenizer.endToken();
 			setWordCount(rawText);
-			bodyText = bodyText.toLowerCase();
-			wordSet = getUniqueWords(bodyText);
+			
+			if(tokenizer.isTruncated())
+			{
+				setTruncated();
+			}
 		}
 		catch(Exception ex)
 		{
 			parseOther(message, rawText);
 		}
 	}
+	
+	/**
+	 * Adds the sender and subject of the message to the tokenizer.
+	 * 
+	 * @param tokenizer The tokenizer for this message.
+	 */
+	private void addHeaderText(Tokenizer tokenizer)
+	{
+		tokenizer.add(sender);
+		
+		if(subject.length() > 0)
+		{
+			tokenizer.add(' ');
+			tokenizer.add(subject);
+			tokenizer.add(' ');
+		}
+	}
+	
+	/**
+	 * Adds body text to the tokenizer, stripping out the markup if the
+	 * content type is HTML (unless the Jsoup fallback is in use). 
+	 * 
+	 * @param tokenizer The tokenizer for this message.
+	 * @param type The content type of the text.
+	 * @param text The body text.
+	 */
+	private void addBodyText(Tokenizer tokenizer, String type, String text)
+	{
+		if(type.contains("text/html") && !config.isJsoupFallback())
+		{
+			HtmlStripper stripper = new HtmlStripper(tokenizer, config);
+			stripper.add(text);
+			
+			if(stripper.isTruncated())
+			{
+				setTruncated();
+			}
+		}
+		else
+		{
+			tokenizer.add(text);
+		}
+	}
 
 	/**
 	 * The parseOther function is called when an error occurs parsing the raw text 
@@ -174,15 +314,132 @@ public class Message {
 	 */
 	private void parseOther(MimeMessage message, String rawText)
 	{
-		String bodyText = parseRawText(rawText);
-		bodyText = cleanText(bodyText);
+		parsePath = PATH_OTHER;
+		startTokenizing();
 		setWordCount(rawText);
-		bodyText = bodyText.toLowerCase();
-		wordSet = getUniqueWords(bodyText);
+		
+		if(config.isJsoupFallback())
+		{
+			String bodyText = parseRawText(rawText);
+			bodyText = cleanText(bodyText);
+			bodyText = bodyText.toLowerCase();
+			wordSet = getUniqueWords(bodyText);
+		}
+		else
+		{
+			streamRawText(rawText);
+		}
 	}
 	
 	/**
-	 * This function cleans the raw email message for parsing and analysis. 
+	 * Streams the raw email message through the HTML stripper and tokenizer, in 
+	 * a single pass over the text. Lines which look like MIME headers, Hex strings, 
+	 * multipart-splits or CSS headers are skipped, as in parseRawText, but the 
+	 * HTML markup is removed across the whole body rather than line-by-line.
+	 * 
+	 * @param rawText The raw email message including all the headers and unformatted text.
+	 */
+	private void streamRawText(String rawText)
+	{
+		Tokenizer tokenizer = new Tokenizer(wordSet, config);
+		HtmlStripper stripper = new HtmlStripper(tokenizer, config);
+		
+		//Add the email sender to the text
+		tokenizer.add(sender);
+		tokenizer.endToken();
+		
+		int start = 0;
+		int length = rawText.length();
+		
+		while(start < length && !stripper.isTruncated() && !tokenizer.isTruncated())
+		{
+			int end = rawText.indexOf('\n', start);
+			int next = end+1;
+			
+			if(end == -1)
+			{
+				end = length;
+				next = length;
+			}
+			
+			//Exclude the carriage return from the line
+			if(end > start && rawText.charAt(end-1) == '\r')
+			{
+				end--;
+			}
+			
+			//Cut overly long lines short, and stop at this line
+			if(config.exceedsLineLength(end-start))
+			{
+				end = start + config.getMaxLineLength();
+				next = length;
+				setTruncated();
+				config.recordLineLimit();
+			}
+			
+			if(isBodyLine(rawText, start, end))
+			{
+				stripper.add(rawText, start, end);
+				stripper.add('\n');
+			}
+			
+			start = next;
+		}
+		
+		tokenizer.endToken();
+		
+		if(stripper.isTruncated() || tokenizer.isTruncated())
+		{
+			setTruncated();
+		}
+	}
+	
+	/**
+	 * Checks whether a line of the raw message should be included in the body 
+	 * text. Lines that look like MIME headers (i.e., a word followed by a colon), 
+	 * without any spaces, multipart-splits, or CSS are excluded. 
+	 * 
+	 * @param text The raw message text.
+	 * @param start The index of the start of the line.
+	 * @param end The index of the end of the line. 
+	 * @return True if the line is part of the body, false otherwise.
+	 */
+	private boolean isBodyLine(String text, int start, int end)
+	{
+		if(start == end)
+		{
+			return false;
+		}
+		
+		char first = text.charAt(start);
+		if((first == '.')||(first == '#')||(text.startsWith("-----", start)))
+		{
+			return false;
+		}
+		
+		boolean header = ((first >= 'a')&&(first <= 'z'))||((first >= 'A')&&(first <= 'Z'));
+		boolean space = false;
+		boolean colon = false;
+		
+		for(int i=start; i<end; i++)
+		{
+			char c = text.charAt(i);
+			if(c == ' ')
+			{
+				space = true;
+			}
+			else if(c == ':' && i > start)
+			{
+				colon = true;
+			}
+		}
+		
+		return space && !(header && colon);
+	}
+	
+	/**
+	 * This function cleans the raw email message for parsing and analysis. This 
+	 * is used when the Jsoup fallback is enabled in the parser configuration. 
 	 * 
 	 * @param rawText The raw email message including all the headers and unformatted text.
 	 * @return A string with MIME headers, CSS fields, HEX, and HTML formatting removed.
@@ -196,46 +453,98 @@ public class Message {
 		
 		//Add the email sender to the text
 		builder.append(sender.replaceAll("([^\\w])", " ")+"\n");
-
 		
-		boolean skipLines = true;
-		
-		Whitelist list = new Whitelist();
-		list.addTags("img");
-		list.addTags("a");
-		list.addTags("b");
-		list.addTags("p");
-		list.addTags("ul");
-		list.addTags("em");
-		list.addTags("strong");
-		list.addTags("li");
-		list.addTags("h1");
-		list.addTags("h2");
-		list.addTags("h3");
+		Whitelist list = getWhitelist();
+		
+		int htmlNodes = 0;
 		
 		for(int i=0; i<lines.length; i++)
 		{
+			String line = lines[i];
+			boolean lastLine = false;
+			
+			//Cut overly long lines short, as the regular expressions below backtrack on these
+			if(config.exceedsLineLength(line.length()))
+			{
+				line = line.substring(0, config.getMaxLineLength());
+				setTruncated();
+				config.recordLineLimit();
+				lastLine = true;
+			}
+			
 			//Discards all lines of text that look like MIME headers, Hex strings, multipart-splits or CSS headers. 
-			if( (!lines[i].matches("^([a-zA-Z]+)(-*)(.*):(.*)")) && (lines[i].indexOf(" ") != -1) && 
-					(!lines[i].startsWith("-----")) && (!lines[i].startsWith(".")) && (!lines[i].startsWith("#"))) {
+			if( (!line.matches("^([a-zA-Z]+)(-*)(.*):(.*)")) && (line.indexOf(" ") != -1) && 
+					(!line.startsWith("-----")) && (!line.startsWith(".")) && (!line.startsWith("#"))) {
 					
 				//Check if the remaining line text looks like HTML, if so, clean it.
-				if(lines[i].matches("(.*)<([a-zA-Z]+)>(.*)"))
+				if(line.matches("(.*)<([a-zA-Z]+)>(.*)"))
 				{
-					builder.append(Jsoup.clean(lines[i], list));
+					//Stop once the message has more HTML than the limit allows
+					htmlNodes += countTags(line);
+					if(config.exceedsHtmlNodes(htmlNodes))
+					{
+						setTruncated();
+						config.recordHtmlLimit();
+						break;
+					}
+					
+					builder.append(Jsoup.clean(line, list));
 				}
 				//Otherwise concatenate the text to the string builder
 				else
 				{
-					builder.append(lines[i]+"\n");
+					builder.append(line+"\n");
 				}
 			}
+			
+			if(lastLine)
+			{
+				break;
+			}
 		}
 		
 		//Return the cleaned text.
 		return builder.toString();
 	}
 	
+	/**
+	 * Gets the list of tags kept by Jsoup when cleaning HTML lines. This is
+	 * built once, rather than for every message.
+	 * 
+	 * @return The Jsoup whitelist.
+	 */
+	private static synchronized Whitelist getWhitelist()
+	{
+		if(whitelist == null)
+		{
+			whitelist = new Whitelist();
+			whitelist.addTags("img", "a", "b", "p", "ul", "em", "strong", "li", "h1", "h2", "h3");
+		}
+		
+		return whitelist;
+	}
+	
+	/**
+	 * Counts the number of opening angle brackets in a line, used as a 
+	 * cheap estimate of the number of HTML nodes it contains.
+	 * 
+	 * @param line The line of text.
+	 * @return The number of tags in the line.
+	 */
+	private int countTags(String line)
+	{
+		int count = 0;
+		int index = line.indexOf('<');
+		
+		while(index != -1)
+		{
+			count++;
+			index = line.indexOf('<', index+1);
+		}
+		
+		return count;
+	}
+	
 	/**
 	 * Cleans up the text of some additional html tags, as well as 
 	 * removes punctuation marks, numbers and any other symbols existing
@@ -262,20 +571,90 @@ public class Message {
 	 */
 	public HashSet<String> getUniqueWords(String text)
 	{	
-		String delims = " ";		
-		String[] tokens = text.split(delims);
+		int tokenCount = 0;
+		int start = 0;
+		int end;
 		
-		for(int i=0; i<tokens.length; i++)
+		//Step through the space-delimited tokens, stopping at the token limit
+		while(start <= text.length())
 		{
-			if((tokens[i].length()>2)&&(tokens[i].length()<16))
+			end = text.indexOf(' ', start);
+			if(end == -1)
 			{
-				wordSet.add(tokens[i]);
+				end = text.length();
 			}
+			
+			if(((end-start)>2)&&((end-start)<16))
+			{
+				if(config.exceedsTokens(tokenCount))
+				{
+					setTruncated();
+					config.recordTokenLimit();
+					break;
+				}
+				
+				wordSet.add(text.substring(start, end));
+				tokenCount++;
+			}
+			
+			start = end+1;
 		}
 		
 		return wordSet;
 	}
 	
+	/**
+	 * Marks this message as truncated, i.e., one of the parsing limits 
+	 * was reached and only part of the message has been read.
+	 */
+	private void setTruncated()
+	{
+		truncated = true;
+	}
+	
+	/**
+	 * @return The length of the raw message text, before any truncation.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+	
+	/**
+	 * Gets the path used to parse the message, i.e., PATH_TEXT or PATH_MULTIPART 
+	 * for MIME messages, or PATH_OTHER if the message was parsed using parseOther.
+	 * This includes any MIME message which failed to parse. 
+	 * 
+	 * @return The parse path of the message.
+	 */
+	public String getParsePath()
+	{
+		return parsePath;
+	}
+	
+	/**
+	 * @return The time spent parsing the MIME structure of the message, in nanoseconds.
+	 */
+	public long getMimeNanos()
+	{
+		return mimeNanos;
+	}
+	
+	/**
+	 * @return The time spent cleaning and tokenizing the message text, in nanoseconds.
+	 */
+	public long getTokenizeNanos()
+	{
+		return tokenizeNanos;
+	}
+	
+	/**
+	 * @return True if parsing stopped early because a limit was reached, false otherwise.
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
 	
 	public String getSender()
 	{
@@ -0,0 +1,39 @@
+package classifier.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering the construction of a Message, i.e., the 
+ * MIME parsing and tokenizing of a single raw email. 
+ */
+@Name("classifier.MessageParse")
+@Label("Message Parse")
+@Category("Spam Classifier")
+@Description("Parsing and tokenizing of a single raw message")
+@StackTrace(false)
+public class MessageParseEvent extends Event
+{
+	@Label("Message Size")
+	@DataAmount
+	public int messageSize;
+	
+	@Label("Parse Path")
+	@Description("text, multipart or other (the parseOther fallback)")
+	public String parsePath;
+	
+	@Label("Content Type")
+	public String contentType;
+	
+	@Label("Token Count")
+	@Description("The number of unique words in the message")
+	public int tokenCount;
+	
+	@Label("Truncated")
+	public boolean truncated;
+}
@@ -0,0 +1,431 @@
+package classifier.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A registry of metrics aggregated over every classification made in the JVM, 
+ * from any number of threads and SpamFilter instances. The counters are striped 
+ * (LongAdder), so updating them does not contend between threads. The stage 
+ * latencies are not recorded again here: each spam filter adds the monitor event 
+ * it already records its stages into (see addStages()), and the striped 
+ * histograms of these are merged when the metrics are read. The stages of a 
+ * spam filter which has been garbage collected are kept. 
+ * 
+ * Once registered, the totals are exposed as the JMX MBean classifier:type=Metrics, 
+ * and the latency of each stage as classifier:type=Stage,name=<stage>. The metrics 
+ * can also be dumped to a local file periodically. Both can be enabled with system 
+ * properties, e.g.,
+ * 
+ * -Dclassifier.metrics.jmx=true
+ * -Dclassifier.metrics.file=metrics.log -Dclassifier.metrics.period=60
+ */
+public class MetricsRegistry implements MetricsRegistryMBean
+{
+	public static final String OBJECT_NAME = "classifier:type=Metrics";
+	
+	private static final MetricsRegistry instance = new MetricsRegistry();
+	
+	//Register and start dumping the metrics, if enabled
+	static
+	{
+		if(Boolean.getBoolean("classifier.metrics.jmx"))
+		{
+			instance.register();
+		}
+		
+		String dumpFile = System.getProperty("classifier.metrics.file");
+		if(dumpFile != null)
+		{
+			instance.startDump(new File(dumpFile), Long.getLong("classifier.metrics.period", 60));
+		}
+	}
+	
+	private LongAdder messagesClassified, spamVerdicts, hamVerdicts, truncatedMessages;
+	private LongAdder wordLookups, wordHits;
+	
+	//The stage monitors of the live owners, e.g., spam filters, merged when read
+	private Map<Reference<Object>, MonitorEvent> sources;
+	private ReferenceQueue<Object> collected;
+	
+	//The stages recorded directly, and those of the owners since collected
+	private MonitorEvent stages;
+	
+	//The JMX server, once registered, and the stages registered with it
+	private MBeanServer server;
+	private Set<String> registeredStages;
+	
+	private ScheduledExecutorService dumpExecutor;
+	
+	private MetricsRegistry()
+	{
+		messagesClassified = new LongAdder();
+		spamVerdicts = new LongAdder();
+		hamVerdicts = new LongAdder();
+		truncatedMessages = new LongAdder();
+		wordLookups = new LongAdder();
+		wordHits = new LongAdder();
+		
+		sources = new HashMap<Reference<Object>, MonitorEvent>();
+		collected = new ReferenceQueue<Object>();
+		stages = new MonitorEvent();
+		registeredStages = Collections.synchronizedSet(new HashSet<String>());
+	}
+	
+	/**
+	 * @return The registry shared by the whole JVM.
+	 */
+	public static MetricsRegistry getInstance()
+	{
+		return instance;
+	}
+	
+	/**
+	 * Records the result of classifying a single message.
+	 * 
+	 * @param spam True if the message was classified as SPAM.
+	 * @param lookups The number of unique words looked up in the vocabulary.
+	 * @param hits The number of words found in the vocabulary.
+	 * @param truncated True if the message was truncated when parsing.
+	 */
+	public void recordClassification(boolean spam, int lookups, int hits, boolean truncated)
+	{
+		messagesClassified.increment();
+		
+		if(spam)
+		{
+			spamVerdicts.increment();
+		}
+		else
+		{
+			hamVerdicts.increment();
+		}
+		
+		if(truncated)
+		{
+			truncatedMessages.increment();
+		}
+		
+		wordLookups.add(lookups);
+		wordHits.add(hits);
+	}
+	
+	/**
+	 * Adds the stage latencies recorded by an owner, e.g., a spam filter, to 
+	 * those of the registry, without recording them twice. Once the owner is 
+	 * garbage collected, its stages are merged into those of the registry. 
+	 * 
+	 * @param owner The owner of the monitor event, which is not kept reachable.
+	 * @param monitor The monitor event the owner records its stages into.
+	 */
+	public void addStages(Object owner, MonitorEvent monitor)
+	{
+		synchronized(sources)
+		{
+			expungeCollected();
+			sources.put(new WeakReference<Object>(owner, collected), monitor);
+		}
+	}
+	
+	/**
+	 * Merges the stages of the owners garbage collected since the last call 
+	 * into those of the registry. Must hold the sources lock.
+	 */
+	private void expungeCollected()
+	{
+		Reference<? extends Object> reference;
+		while((reference = collected.poll()) != null)
+		{
+			MonitorEvent monitor = sources.remove(reference);
+			if(monitor != null)
+			{
+				stages.merge(monitor);
+			}
+		}
+	}
+	
+	/**
+	 * Records the time spent in a single pass through a named stage, for 
+	 * callers without a monitor event of their own.
+	 * 
+	 * @param stage The name of the stage, e.g., MonitorEvent.STAGE_MIME.
+	 * @param nanos The time spent in the stage, in nanoseconds.
+	 */
+	public void recordStage(String stage, long nanos)
+	{
+		stages.recordStage(stage, nanos);
+		
+		if(server != null && !registeredStages.contains(stage))
+		{
+			registerStage(stage);
+		}
+	}
+	
+	/**
+	 * Registers the registry, and the stages recorded so far, as JMX MBeans 
+	 * with the platform MBean server. 
+	 */
+	public synchronized void register()
+	{
+		if(server != null)
+		{
+			return;
+		}
+		
+		try
+		{
+			MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			
+			if(!platform.isRegistered(name))
+			{
+				platform.registerMBean(this, name);
+			}
+			server = platform;
+			
+			//The classification stages, which may not have been recorded yet
+			String[] classifyStages = {MonitorEvent.STAGE_MIME, MonitorEvent.STAGE_TOKENIZE, 
+					MonitorEvent.STAGE_LOOKUP, MonitorEvent.STAGE_SCORE, MonitorEvent.STAGE_CLASSIFY};
+			for(int i=0; i<classifyStages.length; i++)
+			{
+				registerStage(classifyStages[i]);
+			}
+			
+			for(String stage : getStages().getStageNames())
+			{
+				registerStage(stage);
+			}
+		}
+		catch(JMException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Registers the MBean for a single stage.
+	 */
+	private synchronized void registerStage(String stage)
+	{
+		if(registeredStages.contains(stage))
+		{
+			return;
+		}
+		
+		try
+		{
+			ObjectName name = new ObjectName("classifier:type=Stage,name="+ObjectName.quote(stage));
+			if(!server.isRegistered(name))
+			{
+				server.registerMBean(new StageMetrics(this, stage), name);
+			}
+			registeredStages.add(stage);
+		}
+		catch(JMException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Starts appending the metrics to a file at a fixed interval, using a 
+	 * background daemon thread. 
+	 * 
+	 * @param file The file the metrics are appended to.
+	 * @param periodSeconds The time between each dump, in seconds.
+	 */
+	public synchronized void startDump(final File file, long periodSeconds)
+	{
+		stopDump();
+		
+		dumpExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "metrics-dump");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		dumpExecutor.scheduleAtFixedRate(new Runnable() {
+			public void run()
+			{
+				dump(file);
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stops the periodic dump, if running.
+	 */
+	public synchronized void stopDump()
+	{
+		if(dumpExecutor != null)
+		{
+			dumpExecutor.shutdown();
+			dumpExecutor = null;
+		}
+	}
+	
+	/**
+	 * Appends the current metrics to a file. Each dump starts with the line 
+	 * time|classified|spam|ham|truncated|hit rate, followed by the stage summary.
+	 * 
+	 * @param file The file the metrics are appended to.
+	 */
+	public void dump(File file)
+	{
+		try
+		{
+			FileWriter out = new FileWriter(file, true);
+			out.write(System.currentTimeMillis()+"|"+getMessagesClassified()+"|"+getSpamVerdicts()+"|"
+					+getHamVerdicts()+"|"+getTruncatedMessages()+"|"+getVocabularyHitRate()+"\n");
+			out.write(getStageSummary());
+			out.close();
+		}
+		catch(IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
+	public long getMessagesClassified()
+	{
+		return messagesClassified.sum();
+	}
+	
+	public long getSpamVerdicts()
+	{
+		return spamVerdicts.sum();
+	}
+	
+	public long getHamVerdicts()
+	{
+		return hamVerdicts.sum();
+	}
+	
+	public long getTruncatedMessages()
+	{
+		return truncatedMessages.sum();
+	}
+	
+	public long getWordLookups()
+	{
+		return wordLookups.sum();
+	}
+	
+	public long getWordHits()
+	{
+		return wordHits.sum();
+	}
+	
+	/**
+	 * @return The fraction of the words looked up that were found in the vocabulary.
+	 */
+	public double getVocabularyHitRate()
+	{
+		long lookups = wordLookups.sum();
+		return (lookups == 0) ? 0.0 : ((double) wordHits.sum()) / lookups;
+	}
+	
+	/**
+	 * @return A monitor event holding the latency histogram of each stage, merged from every source.
+	 */
+	public MonitorEvent getStages()
+	{
+		MonitorEvent merged = new MonitorEvent();
+		
+		synchronized(sources)
+		{
+			expungeCollected();
+			merged.merge(stages);
+			
+			Iterator<MonitorEvent> iterator = sources.values().iterator();
+			while(iterator.hasNext())
+			{
+				merged.merge(iterator.next());
+			}
+		}
+		
+		return merged;
+	}
+	
+	/**
+	 * @param stage The name of the stage, e.g., MonitorEvent.STAGE_MIME.
+	 * @return The latency histogram of a single stage, merged from every source.
+	 */
+	public Histogram getStage(String stage)
+	{
+		Histogram merged = new Histogram();
+		
+		synchronized(sources)
+		{
+			expungeCollected();
+			merged.merge(stages.getStage(stage));
+			
+			Iterator<MonitorEvent> iterator = sources.values().iterator();
+			while(iterator.hasNext())
+			{
+				//Don't add the stage to sources which have not recorded it
+				MonitorEvent source = iterator.next();
+				if(source.getStageNames().contains(stage))
+				{
+					merged.merge(source.getStage(stage));
+				}
+			}
+		}
+		
+		return merged;
+	}
+	
+	public String getStageSummary()
+	{
+		return getStages().getStageSummary();
+	}
+	
+	/**
+	 * Resets all the counters and histograms to zero, including the stages 
+	 * recorded by the monitor event of each spam filter.
+	 */
+	public void reset()
+	{
+		messagesClassified.reset();
+		spamVerdicts.reset();
+		hamVerdicts.reset();
+		truncatedMessages.reset();
+		wordLookups.reset();
+		wordHits.reset();
+		
+		synchronized(sources)
+		{
+			expungeCollected();
+			stages.reset();
+			
+			Iterator<MonitorEvent> iterator = sources.values().iterator();
+			while(iterator.hasNext())
+			{
+				iterator.next().reset();
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package classifier.utils;
+
+/**
+ * The JMX management interface of the MetricsRegistry, giving the totals 
+ * aggregated over every classification in the JVM.
+ */
+public interface MetricsRegistryMBean
+{
+		public long getMessagesClassified();
+		public long getSpamVerdicts();
+		public long getHamVerdicts();
+		public long getTruncatedMessages();
+		public long getWordLookups();
+		public long getWordHits();
+		public double getVocabularyHitRate();
+		public String getStageSummary();
+		public void reset();
+}
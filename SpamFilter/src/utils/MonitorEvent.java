@@ -2,21 +2,132 @@ package classifier.utils;
 
 /**
  * Bespoke event object used to monitor execution time and 
- * memory consumption within the Spam Classifier. 
+ * memory consumption within the Spam Classifier. As well as the
+ * overall start/stop times, the event can record the time spent 
+ * in each named stage (e.g., MIME parsing, scoring) into a latency 
+ * histogram, giving the percentiles for each stage. 
+ * 
+ * Memory is measured as the bytes allocated by the monitoring thread, 
+ * along with the number of garbage collections and the time spent 
+ * in them, between the start and stop of the event.
  */
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.text.NumberFormat;
-import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MonitorEvent {
 
-    private Date startTime, stopTime;
+	//The names of the stages recorded when classifying and training
+	public static final String STAGE_MIME = "mime";
+	public static final String STAGE_TOKENIZE = "tokenize";
+	public static final String STAGE_LOOKUP = "lookup";
+	public static final String STAGE_SCORE = "score";
+	public static final String STAGE_COUNT = "count";
+	public static final String STAGE_CLASSIFY = "classify";
+	
+	//Used to read the bytes allocated by each thread, if the JVM supports it
+	private static com.sun.management.ThreadMXBean threadBean = getThreadBean();
+	
+    private long startTime, stopTime;
     private long startMem, stopMem;
+	private long startAllocated, stopAllocated;
+	private long otherAllocated;			//Allocated by other threads working for the event
+	private long startGcCount, stopGcCount, startGcTime, stopGcTime;
 	private boolean valid;
 	
+	//The latency histogram for each named stage, in nanoseconds
+	private ConcurrentHashMap<String, Histogram> stages;
+	
+	//The bytes allocated by each monitored operation, e.g., each classified message
+	private Histogram allocations;
+	
 	public MonitorEvent()
 	{
 		valid = false;
+		stages = new ConcurrentHashMap<String, Histogram>();
+		allocations = new Histogram();
+	}
+	
+	/**
+	 * Gets the thread bean used to measure per-thread allocation, enabling 
+	 * allocation measurement if needed.
+	 * 
+	 * @return The thread bean, or null if allocation measurement is not supported.
+	 */
+	private static com.sun.management.ThreadMXBean getThreadBean()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		
+		if(bean instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if(sunBean.isThreadAllocatedMemorySupported())
+			{
+				if(!sunBean.isThreadAllocatedMemoryEnabled())
+				{
+					sunBean.setThreadAllocatedMemoryEnabled(true);
+				}
+				return sunBean;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gets the total number of bytes allocated by the current thread. This 
+	 * is cheap enough to be called for each classified message.
+	 * 
+	 * @return The bytes allocated by the current thread, or -1 if not supported.
+	 */
+	public static long getThreadAllocatedBytes()
+	{
+		if(threadBean == null)
+		{
+			return -1;
+		}
+		
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * @return The total number of garbage collections, over all collectors.
+	 */
+	private static long readGcCount()
+	{
+		long count = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+		
+		for(int i=0; i<beans.size(); i++)
+		{
+			count += Math.max(0, beans.get(i).getCollectionCount());
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @return The total time spent in garbage collection, over all collectors, in ms.
+	 */
+	private static long readGcTime()
+	{
+		long time = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+		
+		for(int i=0; i<beans.size(); i++)
+		{
+			time += Math.max(0, beans.get(i).getCollectionTime());
+		}
+		
+		return time;
 	}
 
 	/**
@@ -30,7 +141,11 @@ public class MonitorEvent {
 		startMem = (Runtime.getRuntime().totalMemory() 
 				- Runtime.getRuntime().freeMemory());
 		
-		startTime = new Date();
+		startGcCount = readGcCount();
+		startGcTime = readGcTime();
+		startAllocated = getThreadAllocatedBytes();
+		otherAllocated = 0;
+		startTime = System.nanoTime();
 	}
 	
 	/**
@@ -38,7 +153,10 @@ public class MonitorEvent {
 	 */
 	public void stop()
 	{
-		stopTime = new Date();		
+		stopTime = System.nanoTime();		
+		stopAllocated = getThreadAllocatedBytes();
+		stopGcCount = readGcCount();
+		stopGcTime = readGcTime();
 
 		stopMem = (Runtime.getRuntime().totalMemory() 
 				- Runtime.getRuntime().freeMemory());
@@ -57,7 +175,9 @@ public class MonitorEvent {
 	}
 	
 	/**
-	 * Gets the memory usage for the monitor event object. 
+	 * Gets the memory usage for the monitor event object, i.e., the change 
+	 * in the used heap. This is not meaningful if the garbage collector ran 
+	 * during the event, see getAllocatedBytes() instead.
 	 * 
 	 * @return The memory usage in kB, as a long value.
 	 */
@@ -67,6 +187,71 @@ public class MonitorEvent {
 	}
 	
 	
+	/**
+	 * Gets the number of bytes allocated by the thread that started and 
+	 * stopped the event, and by the other threads added with addAllocatedBytes(). 
+	 * 
+	 * @return The allocated bytes, or -1 if this is not supported by the JVM.
+	 */
+	public long getAllocatedBytes()
+	{
+		if(startAllocated == -1 || stopAllocated == -1)
+		{
+			return -1;
+		}
+		
+		return (stopAllocated-startAllocated)+otherAllocated;
+	}
+	
+	/**
+	 * Adds the bytes allocated by other threads during the event, e.g., the 
+	 * threads of a pipeline, which the thread that started the event only waits on. 
+	 * 
+	 * @param bytes The bytes allocated, or -1 if this is not supported by the JVM.
+	 */
+	public void addAllocatedBytes(long bytes)
+	{
+		if(bytes != -1)
+		{
+			otherAllocated += bytes;
+		}
+	}
+	
+	/**
+	 * @return The number of garbage collections during the event.
+	 */
+	public long getGcCount()
+	{
+		return (stopGcCount-startGcCount);
+	}
+	
+	/**
+	 * @return The time spent in garbage collection during the event, in milliseconds.
+	 */
+	public long getGcTime()
+	{
+		return (stopGcTime-startGcTime);
+	}
+	
+	/**
+	 * Records the bytes allocated by a single operation, e.g., classifying 
+	 * one message, as measured with getThreadAllocatedBytes().
+	 * 
+	 * @param bytes The bytes allocated.
+	 */
+	public void recordAllocation(long bytes)
+	{
+		allocations.record(bytes);
+	}
+	
+	/**
+	 * @return The histogram of the bytes allocated by each operation.
+	 */
+	public Histogram getAllocations()
+	{
+		return allocations;
+	}
+	
 	/**
 	 * Gets the elapsed time for the monitor event object. 
 	 * 
@@ -74,7 +259,124 @@ public class MonitorEvent {
 	 */
 	public long getElapsedTime()
 	{
-		return (stopTime.getTime() - startTime.getTime());
+		return (stopTime - startTime)/1000000;
+	}
+	
+	/**
+	 * Gets the elapsed time for the monitor event object. 
+	 * 
+	 * @return The elapsed time in nanoseconds. 
+	 */
+	public long getElapsedNanos()
+	{
+		return (stopTime - startTime);
+	}
+	
+	/**
+	 * Records the time spent in a single pass through a named stage. This 
+	 * may be called from several threads at once.
+	 * 
+	 * @param stage The name of the stage, e.g., STAGE_MIME.
+	 * @param nanos The time spent in the stage, from System.nanoTime().
+	 */
+	public void recordStage(String stage, long nanos)
+	{
+		getStage(stage).record(nanos);
+	}
+	
+	/**
+	 * Gets the latency histogram for a named stage, creating it if needed.
+	 * 
+	 * @param stage The name of the stage.
+	 * @return The histogram of the stage latencies, in nanoseconds.
+	 */
+	public Histogram getStage(String stage)
+	{
+		Histogram histogram = stages.get(stage);
+		
+		if(histogram == null)
+		{
+			stages.putIfAbsent(stage, new Histogram());
+			histogram = stages.get(stage);
+		}
+		
+		return histogram;
+	}
+	
+	/**
+	 * @return The names of the stages recorded so far.
+	 */
+	public Set<String> getStageNames()
+	{
+		return stages.keySet();
+	}
+	
+	/**
+	 * Clears the stage latencies and allocations recorded so far.
+	 */
+	public void reset()
+	{
+		Iterator<Histogram> iterator = stages.values().iterator();
+		while(iterator.hasNext())
+		{
+			iterator.next().reset();
+		}
+		
+		allocations.reset();
+	}
+	
+	/**
+	 * Adds the stage latencies recorded by another event to this one.
+	 * 
+	 * @param other The other monitor event.
+	 */
+	public void merge(MonitorEvent other)
+	{
+		allocations.merge(other.allocations);
+		
+		Iterator<Map.Entry<String, Histogram>> iterator = other.stages.entrySet().iterator();
+		
+		while(iterator.hasNext())
+		{
+			Map.Entry<String, Histogram> entry = iterator.next();
+			getStage(entry.getKey()).merge(entry.getValue());
+		}
+	}
+	
+	/**
+	 * @return A string giving the latency percentiles of each stage, in microseconds.
+	 */
+	public String getStageSummary()
+	{
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(1);
+		
+		String result = "";
+		Iterator<Map.Entry<String, Histogram>> iterator = new TreeMap<String, Histogram>(stages).entrySet().iterator();
+		
+		while(iterator.hasNext())
+		{
+			Map.Entry<String, Histogram> entry = iterator.next();
+			Histogram histogram = entry.getValue();
+			
+			result = result.concat(entry.getKey()+": n="+histogram.getCount()
+					+" p50="+nf.format(histogram.getPercentile(50.0)/1000.0)
+					+" p90="+nf.format(histogram.getPercentile(90.0)/1000.0)
+					+" p99="+nf.format(histogram.getPercentile(99.0)/1000.0)
+					+" p999="+nf.format(histogram.getPercentile(99.9)/1000.0)
+					+" max="+nf.format(histogram.getMax()/1000.0)+"us\n");
+		}
+		
+		if(allocations.getCount() > 0)
+		{
+			result = result.concat("allocated: n="+allocations.getCount()
+					+" p50="+nf.format(allocations.getPercentile(50.0)/1024.0)
+					+" p99="+nf.format(allocations.getPercentile(99.0)/1024.0)
+					+" mean="+nf.format(allocations.getMean()/1024.0)
+					+" max="+nf.format(allocations.getMax()/1024.0)+"kB\n");
+		}
+		
+		return result;
 	}
 	
 	/**
@@ -87,7 +389,16 @@ public class MonitorEvent {
 		if(this.valid)
 		{
 			result = result.concat("Elapsed Time: "+nf.format(getElapsedTime())+"ms\n");
-			result = result.concat("Memory Usage: "+nf.format(getMemoryUsage())+"kB\n");
+			if(getAllocatedBytes() != -1)
+			{
+				result = result.concat("Allocated: "+nf.format(getAllocatedBytes()/1024)+"kB\n");
+			}
+			else
+			{
+				result = result.concat("Memory Usage: "+nf.format(getMemoryUsage())+"kB\n");
+			}
+			result = result.concat("GC: "+getGcCount()+" collections, "+nf.format(getGcTime())+"ms\n");
+			result = result.concat(getStageSummary());
 			return result;
 		}		
 		
@@ -0,0 +1,209 @@
+package classifier.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configuration object used to bound the amount of work the Message class
+ * does when parsing a single raw email. Pathological messages (e.g., a
+ * multi-megabyte single-line HTML spam) are truncated once one of the limits
+ * is reached, and classification proceeds using the text seen up to that point.
+ *
+ * The counters record how often each limit has been hit, and are safe to
+ * update from multiple classification threads.
+ */
+
+public class ParserConfig {
+
+	//The default limits, generous enough to leave normal mail untouched
+	public static final int DEFAULT_MAX_BYTES = 1024*1024;
+	public static final int DEFAULT_MAX_LINE_LENGTH = 16*1024;
+	public static final int DEFAULT_MAX_TOKENS = 50000;
+	public static final int DEFAULT_MAX_HTML_NODES = 20000;
+
+	//The shared instance used by the single-argument Message constructor
+	private static ParserConfig defaultConfig = new ParserConfig();
+
+	//The per-message limits
+	private int maxBytes, maxLineLength, maxTokens, maxHtmlNodes;
+
+	//Use Jsoup to clean HTML line-by-line, rather than the streaming HtmlStripper
+	private boolean jsoupFallback;
+
+	//Count the number of times each limit has been hit
+	private AtomicLong bytesLimitCount, lineLimitCount, tokenLimitCount, htmlLimitCount;
+
+	/**
+	 * Creates a configuration object with the default parsing limits.
+	 */
+	public ParserConfig()
+	{
+		this(DEFAULT_MAX_BYTES, DEFAULT_MAX_LINE_LENGTH, DEFAULT_MAX_TOKENS, DEFAULT_MAX_HTML_NODES);
+	}
+
+	/**
+	 * Creates a configuration object with the specified parsing limits. A
+	 * limit of zero or less disables that particular check.
+	 *
+	 * @param maxBytes The maximum number of characters of raw text scanned per message.
+	 * @param maxLineLength The maximum length of any single line parsed.
+	 * @param maxTokens The maximum number of tokens read from the message body.
+	 * @param maxHtmlNodes The maximum number of HTML tags processed per message.
+	 */
+	public ParserConfig(int maxBytes, int maxLineLength, int maxTokens, int maxHtmlNodes)
+	{
+		this.maxBytes = maxBytes;
+		this.maxLineLength = maxLineLength;
+		this.maxTokens = maxTokens;
+		this.maxHtmlNodes = maxHtmlNodes;
+		jsoupFallback = false;
+
+		bytesLimitCount = new AtomicLong();
+		lineLimitCount = new AtomicLong();
+		tokenLimitCount = new AtomicLong();
+		htmlLimitCount = new AtomicLong();
+	}
+
+	/**
+	 * @return The configuration used when no configuration is given to a Message.
+	 */
+	public static ParserConfig getDefault()
+	{
+		return defaultConfig;
+	}
+
+	/**
+	 * Replaces the configuration used when no configuration is given to a Message.
+	 *
+	 * @param config The new default configuration.
+	 */
+	public static void setDefault(ParserConfig config)
+	{
+		defaultConfig = config;
+	}
+
+	/**
+	 * Checks whether a raw message exceeds the byte limit. Since the
+	 * raw text is held as a String, this is measured in characters.
+	 *
+	 * @param length The length of the raw message text.
+	 * @return True if the message should be truncated, false otherwise.
+	 */
+	public boolean exceedsBytes(int length)
+	{
+		return (maxBytes > 0)&&(length > maxBytes);
+	}
+
+	public boolean exceedsLineLength(int length)
+	{
+		return (maxLineLength > 0)&&(length > maxLineLength);
+	}
+
+	public boolean exceedsTokens(int count)
+	{
+		return (maxTokens > 0)&&(count >= maxTokens);
+	}
+
+	public boolean exceedsHtmlNodes(int count)
+	{
+		return (maxHtmlNodes > 0)&&(count > maxHtmlNodes);
+	}
+
+	public int getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public int getMaxLineLength()
+	{
+		return maxLineLength;
+	}
+
+	public int getMaxTokens()
+	{
+		return maxTokens;
+	}
+
+	public int getMaxHtmlNodes()
+	{
+		return maxHtmlNodes;
+	}
+
+	/**
+	 * Selects the original HTML cleaning, which uses Jsoup on each line that 
+	 * looks like HTML, instead of the streaming HtmlStripper. 
+	 *
+	 * @param jsoupFallback True to use Jsoup, false to use the HtmlStripper.
+	 */
+	public void setJsoupFallback(boolean jsoupFallback)
+	{
+		this.jsoupFallback = jsoupFallback;
+	}
+
+	public boolean isJsoupFallback()
+	{
+		return jsoupFallback;
+	}
+
+	/**
+	 * Records that the byte limit was hit while parsing a message.
+	 */
+	public void recordBytesLimit()
+	{
+		bytesLimitCount.incrementAndGet();
+	}
+
+	public void recordLineLimit()
+	{
+		lineLimitCount.incrementAndGet();
+	}
+
+	public void recordTokenLimit()
+	{
+		tokenLimitCount.incrementAndGet();
+	}
+
+	public void recordHtmlLimit()
+	{
+		htmlLimitCount.incrementAndGet();
+	}
+
+	public long getBytesLimitCount()
+	{
+		return bytesLimitCount.get();
+	}
+
+	public long getLineLimitCount()
+	{
+		return lineLimitCount.get();
+	}
+
+	public long getTokenLimitCount()
+	{
+		return tokenLimitCount.get();
+	}
+
+	public long getHtmlLimitCount()
+	{
+		return htmlLimitCount.get();
+	}
+
+	/**
+	 * Resets each of the limit counters to zero.
+	 */
+	public void resetCounters()
+	{
+		bytesLimitCount.set(0);
+		lineLimitCount.set(0);
+		tokenLimitCount.set(0);
+		htmlLimitCount.set(0);
+	}
+
+	/**
+	 * @return A string giving the number of times each limit has been hit.
+	 */
+	public String toString()
+	{
+		return "Parse limits hit - bytes: "+getBytesLimitCount()+", line length: "+getLineLimitCount()
+				+", tokens: "+getTokenLimitCount()+", html nodes: "+getHtmlLimitCount();
+	}
+}
@@ -0,0 +1,480 @@
+package classifier.utils;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of processing stages connected by bounded queues, e.g., reading a
+ * corpus, parsing its messages, counting their words and writing the results,
+ * so that the disk and every core are kept busy at once. A single thread reads
+ * the items from the source, and each stage then has its own number of
+ * threads taking items from its input queue, and putting the results on the
+ * next stage's queue. A full queue blocks the stage before it, so a slow stage
+ * holds back the rest of the pipeline rather than letting its queue grow.
+ *
+ * Each stage records the items it processed, the time spent processing them,
+ * the time blocked on a full output queue (stalled, i.e., a later stage is the
+ * bottleneck), the time blocked on an empty input queue (starved, i.e., an
+ * earlier stage is), the depth of its input queue at each take, and the bytes
+ * allocated by its threads.
+ */
+
+public class Pipeline {
+
+	//Passed along the pipeline after the last item
+	private static final Object END = new Object();
+
+	/**
+	 * The source of the items, read by a single thread.
+	 */
+	public interface Source<O>
+	{
+		/**
+		 * @return The next item, or null at the end of the items.
+		 */
+		O next() throws Exception;
+	}
+
+	/**
+	 * A processing stage, which may be called from several threads at once.
+	 */
+	public interface Stage<I, O>
+	{
+		/**
+		 * @param item The item from the previous stage.
+		 * @return The item for the next stage, or null if there is nothing to pass on.
+		 */
+		O process(I item) throws Exception;
+	}
+
+	/**
+	 * The metrics of a stage, or of the source.
+	 */
+	public static class StageCounters
+	{
+		private String name;
+		private int threads;
+		private AtomicLong items, busyNanos, stallNanos, starveNanos, allocatedBytes;
+		private Histogram depths;
+
+		StageCounters(String name, int threads)
+		{
+			this.name = name;
+			this.threads = threads;
+			items = new AtomicLong();
+			busyNanos = new AtomicLong();
+			stallNanos = new AtomicLong();
+			starveNanos = new AtomicLong();
+			allocatedBytes = new AtomicLong();
+			depths = new Histogram();
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public int getThreads()
+		{
+			return threads;
+		}
+
+		public long getItems()
+		{
+			return items.get();
+		}
+
+		/**
+		 * @return The total time spent processing items, over all the stage's threads.
+		 */
+		public long getBusyNanos()
+		{
+			return busyNanos.get();
+		}
+
+		/**
+		 * @return The total time blocked on a full output queue.
+		 */
+		public long getStallNanos()
+		{
+			return stallNanos.get();
+		}
+
+		/**
+		 * @return The total time blocked on an empty input queue.
+		 */
+		public long getStarveNanos()
+		{
+			return starveNanos.get();
+		}
+
+		/**
+		 * @return The total bytes allocated by the stage's threads, or -1 if this is not supported by the JVM.
+		 */
+		public long getAllocatedBytes()
+		{
+			return (MonitorEvent.getThreadAllocatedBytes() == -1) ? -1 : allocatedBytes.get();
+		}
+
+		/**
+		 * @return The depth of the input queue at each take.
+		 */
+		public Histogram getQueueDepths()
+		{
+			return depths;
+		}
+	}
+
+	private int queueCapacity;
+
+	private Source<?> source;
+	private StageCounters sourceCounters;
+
+	private List<Stage<?, ?>> stages;
+	private List<StageCounters> counters;
+	private List<BlockingQueue<Object>> queues;
+
+	private List<Thread> threads;
+	private volatile Throwable failure;
+	private long elapsedNanos;
+
+	/**
+	 * @param queueCapacity The number of items each stage's input queue holds.
+	 */
+	public Pipeline(int queueCapacity)
+	{
+		this.queueCapacity = queueCapacity;
+		stages = new ArrayList<Stage<?, ?>>();
+		counters = new ArrayList<StageCounters>();
+		queues = new ArrayList<BlockingQueue<Object>>();
+		threads = new ArrayList<Thread>();
+	}
+
+	/**
+	 * @param name The name of the source, e.g., "read".
+	 * @param source The source of the items.
+	 */
+	public void setSource(String name, Source<?> source)
+	{
+		this.source = source;
+		sourceCounters = new StageCounters(name, 1);
+	}
+
+	/**
+	 * Adds a stage after the stages already added.
+	 *
+	 * @param name The name of the stage, e.g., "parse".
+	 * @param threadCount The number of threads processing the stage's items.
+	 * @param stage The stage, taking the items of the stage before.
+	 */
+	public void addStage(String name, int threadCount, Stage<?, ?> stage)
+	{
+		if(threadCount < 1)
+		{
+			throw new IllegalArgumentException("The "+name+" stage needs at least one thread, not "+threadCount);
+		}
+
+		stages.add(stage);
+		counters.add(new StageCounters(name, threadCount));
+		queues.add(new ArrayBlockingQueue<Object>(queueCapacity));
+	}
+
+	/**
+	 * Runs the pipeline until every item has passed through each stage.
+	 *
+	 * @throws Exception The first exception thrown by the source or any stage, which stops the pipeline.
+	 */
+	public void run() throws Exception
+	{
+		if(source == null || stages.isEmpty())
+		{
+			throw new IllegalStateException("The pipeline needs a source and at least one stage");
+		}
+		if(!threads.isEmpty())
+		{
+			throw new IllegalStateException("The pipeline has already been run");
+		}
+
+		long start = System.nanoTime();
+
+		threads.add(new Thread(new Runnable() {
+			public void run()
+			{
+				runSource();
+			}
+		}, "pipeline-"+sourceCounters.getName()));
+
+		for(int i=0; i<stages.size(); i++)
+		{
+			final int index = i;
+			final AtomicInteger remaining = new AtomicInteger(counters.get(i).getThreads());
+
+			for(int j=0; j<counters.get(i).getThreads(); j++)
+			{
+				threads.add(new Thread(new Runnable() {
+					public void run()
+					{
+						runStage(index, remaining);
+					}
+				}, "pipeline-"+counters.get(i).getName()+"-"+j));
+			}
+		}
+
+		for(int i=0; i<threads.size(); i++)
+		{
+			threads.get(i).start();
+		}
+		for(int i=0; i<threads.size(); i++)
+		{
+			threads.get(i).join();
+		}
+
+		elapsedNanos = System.nanoTime()-start;
+
+		if(failure instanceof Exception)
+		{
+			throw (Exception) failure;
+		}
+		else if(failure != null)
+		{
+			throw new RuntimeException(failure);
+		}
+	}
+
+	/**
+	 * Reads the items from the source onto the first stage's queue.
+	 */
+	private void runSource()
+	{
+		long allocated = MonitorEvent.getThreadAllocatedBytes();
+		try
+		{
+			BlockingQueue<Object> output = queues.get(0);
+			while(true)
+			{
+				long start = System.nanoTime();
+				Object item = source.next();
+				sourceCounters.busyNanos.addAndGet(System.nanoTime()-start);
+
+				if(item == null)
+				{
+					put(output, END, sourceCounters);
+					return;
+				}
+
+				sourceCounters.items.incrementAndGet();
+				put(output, item, sourceCounters);
+			}
+		}
+		catch(InterruptedException ie)
+		{
+			//Stopped by a failure elsewhere in the pipeline
+		}
+		catch(Throwable ex)
+		{
+			fail(ex);
+		}
+		finally
+		{
+			recordAllocation(sourceCounters, allocated);
+		}
+	}
+
+	/**
+	 * Processes the items of one stage, until the end of the items.
+	 *
+	 * @param index The index of the stage.
+	 * @param remaining The number of the stage's threads still running.
+	 */
+	@SuppressWarnings("unchecked")
+	private void runStage(int index, AtomicInteger remaining)
+	{
+		Stage<Object, Object> stage = (Stage<Object, Object>) stages.get(index);
+		StageCounters stageCounters = counters.get(index);
+		BlockingQueue<Object> input = queues.get(index);
+		BlockingQueue<Object> output = (index+1 < queues.size()) ? queues.get(index+1) : null;
+
+		long allocated = MonitorEvent.getThreadAllocatedBytes();
+		try
+		{
+			while(true)
+			{
+				Object item = take(input, stageCounters);
+
+				if(item == END)
+				{
+					//Leave the end for the stage's other threads, and the last one passes it on
+					input.put(END);
+					if(remaining.decrementAndGet() == 0 && output != null)
+					{
+						put(output, END, stageCounters);
+					}
+					return;
+				}
+
+				long start = System.nanoTime();
+				Object result = stage.process(item);
+				stageCounters.busyNanos.addAndGet(System.nanoTime()-start);
+				stageCounters.items.incrementAndGet();
+
+				if(result != null && output != null)
+				{
+					put(output, result, stageCounters);
+				}
+			}
+		}
+		catch(InterruptedException ie)
+		{
+			//Stopped by a failure elsewhere in the pipeline
+		}
+		catch(Throwable ex)
+		{
+			fail(ex);
+		}
+		finally
+		{
+			recordAllocation(stageCounters, allocated);
+		}
+	}
+
+	/**
+	 * Adds the bytes the current thread allocated since it started to its stage.
+	 *
+	 * @param stageCounters The metrics of the thread's stage.
+	 * @param start The bytes the thread had allocated when it started, or -1 if not supported.
+	 */
+	private static void recordAllocation(StageCounters stageCounters, long start)
+	{
+		if(start != -1)
+		{
+			stageCounters.allocatedBytes.addAndGet(MonitorEvent.getThreadAllocatedBytes()-start);
+		}
+	}
+
+	/**
+	 * Puts an item on a queue, recording any time blocked as a stall.
+	 */
+	private static void put(BlockingQueue<Object> queue, Object item, StageCounters stageCounters) throws InterruptedException
+	{
+		if(!queue.offer(item))
+		{
+			long start = System.nanoTime();
+			queue.put(item);
+			stageCounters.stallNanos.addAndGet(System.nanoTime()-start);
+		}
+	}
+
+	/**
+	 * Takes an item from a queue, recording the queue depth, and any time blocked as starved.
+	 */
+	private static Object take(BlockingQueue<Object> queue, StageCounters stageCounters) throws InterruptedException
+	{
+		stageCounters.depths.record(queue.size());
+
+		Object item = queue.poll();
+		if(item == null)
+		{
+			long start = System.nanoTime();
+			item = queue.take();
+			stageCounters.starveNanos.addAndGet(System.nanoTime()-start);
+		}
+		return item;
+	}
+
+	/**
+	 * Records the first failure, and stops every thread of the pipeline.
+	 */
+	private synchronized void fail(Throwable ex)
+	{
+		if(failure == null)
+		{
+			failure = ex;
+			for(int i=0; i<threads.size(); i++)
+			{
+				threads.get(i).interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return The metrics of the source, followed by those of each stage.
+	 */
+	public List<StageCounters> getCounters()
+	{
+		List<StageCounters> all = new ArrayList<StageCounters>();
+		all.add(sourceCounters);
+		all.addAll(counters);
+		return all;
+	}
+
+	/**
+	 * Gives the bytes allocated by every thread of the pipeline, which the
+	 * thread that ran the pipeline doesn't see in its own allocation.
+	 *
+	 * @return The total bytes allocated, or -1 if this is not supported by the JVM.
+	 */
+	public long getAllocatedBytes()
+	{
+		if(MonitorEvent.getThreadAllocatedBytes() == -1)
+		{
+			return -1;
+		}
+
+		long total = 0;
+		List<StageCounters> all = getCounters();
+		for(int i=0; i<all.size(); i++)
+		{
+			total += all.get(i).getAllocatedBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * @return The time the pipeline took to run.
+	 */
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return A string giving each stage's threads, items, the share of its threads' time busy, stalled and starved, and its allocation.
+	 */
+	public String getSummary()
+	{
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(1);
+
+		String result = "";
+		List<StageCounters> all = getCounters();
+
+		for(int i=0; i<all.size(); i++)
+		{
+			StageCounters stage = all.get(i);
+			double threadNanos = (double) elapsedNanos*stage.getThreads();
+
+			result = result.concat(stage.getName()+": threads="+stage.getThreads()+" items="+stage.getItems()
+					+" busy="+nf.format(100.0*stage.getBusyNanos()/threadNanos)+"%"
+					+" stalled="+nf.format(100.0*stage.getStallNanos()/threadNanos)+"%");
+
+			if(i > 0)
+			{
+				result = result.concat(" starved="+nf.format(100.0*stage.getStarveNanos()/threadNanos)+"%"
+						+" queue p50="+stage.getQueueDepths().getPercentile(50.0)
+						+" max="+stage.getQueueDepths().getMax()+"/"+queueCapacity);
+			}
+			if(stage.getAllocatedBytes() != -1)
+			{
+				result = result.concat(" allocated="+nf.format(stage.getAllocatedBytes()/1024)+"kB");
+			}
+			result = result.concat("\n");
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,123 @@
+package classifier.utils;
+
+/**
+ * Configuration object giving the number of threads in each stage of the
+ * training and evaluation pipelines (see Pipeline), i.e., the corpus is read
+ * by one thread, then its messages are parsed by the configured number of 
+ * threads, and their results aggregated, e.g., counted, and then written, with 
+ * a bounded queue in front of each stage. The aggregation and writing update 
+ * the shared totals and keep the message order under a single lock, so each 
+ * runs on one thread, as more would only wait on each other. Training has no 
+ * writing stage, as the spam filter is only written once every message is counted.
+ */
+
+public class PipelineConfig {
+
+	//The default queue size, enough to smooth the variation in message size
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	//The shared instance used by BuildFilter and SpamFilter.evaluateFilter()
+	private static PipelineConfig defaultConfig = new PipelineConfig();
+
+	private int parseThreads, aggregateThreads, writeThreads;
+	private int queueCapacity;
+
+	/**
+	 * Creates a configuration object with a parsing thread for each core,
+	 * other than the one reading the corpus, and one thread in each other stage.
+	 */
+	public PipelineConfig()
+	{
+		this(Math.max(1, Runtime.getRuntime().availableProcessors()-1), 1, 1, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Creates a configuration object with the specified number of threads in
+	 * each stage. Zero parsing threads disables the pipeline, so the corpus is
+	 * read, parsed and counted in turn on the calling thread.
+	 *
+	 * @param parseThreads The number of threads parsing messages, or 0 to disable the pipeline.
+	 * @param aggregateThreads The number of threads aggregating the results, e.g., counting words, which must be 1.
+	 * @param writeThreads The number of threads writing the results, which must be 1.
+	 * @param queueCapacity The number of items held by the queue in front of each stage.
+	 * @throws IllegalArgumentException If the aggregating or writing stage is given other than one thread.
+	 */
+	public PipelineConfig(int parseThreads, int aggregateThreads, int writeThreads, int queueCapacity)
+	{
+		//Both stages are serialized by their lock, so extra threads add nothing
+		if(aggregateThreads != 1 || writeThreads != 1)
+		{
+			throw new IllegalArgumentException("The aggregate and write stages run on one thread, not "
+					+aggregateThreads+" and "+writeThreads);
+		}
+		
+		this.parseThreads = parseThreads;
+		this.aggregateThreads = aggregateThreads;
+		this.writeThreads = writeThreads;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @return A configuration which reads, parses and counts each message in turn, without a pipeline.
+	 */
+	public static PipelineConfig getSequential()
+	{
+		return new PipelineConfig(0, 1, 1, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @return The configuration used by BuildFilter and SpamFilter.evaluateFilter().
+	 */
+	public static PipelineConfig getDefault()
+	{
+		return defaultConfig;
+	}
+
+	/**
+	 * Replaces the configuration used by BuildFilter and SpamFilter.evaluateFilter().
+	 *
+	 * @param config The new default configuration.
+	 */
+	public static void setDefault(PipelineConfig config)
+	{
+		defaultConfig = config;
+	}
+
+	/**
+	 * @return True if the corpus is processed by a pipeline, false if in turn on the calling thread.
+	 */
+	public boolean isEnabled()
+	{
+		return parseThreads > 0;
+	}
+
+	public int getParseThreads()
+	{
+		return parseThreads;
+	}
+
+	public int getAggregateThreads()
+	{
+		return aggregateThreads;
+	}
+
+	public int getWriteThreads()
+	{
+		return writeThreads;
+	}
+
+	public int getQueueCapacity()
+	{
+		return queueCapacity;
+	}
+
+	public String toString()
+	{
+		if(!isEnabled())
+		{
+			return "Pipeline: disabled";
+		}
+		return "Pipeline: parse="+parseThreads+" aggregate="+aggregateThreads+" write="+writeThreads
+				+" queue="+queueCapacity;
+	}
+}
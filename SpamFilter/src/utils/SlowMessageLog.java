@@ -0,0 +1,313 @@
+package classifier.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures the messages whose classification exceeds a latency budget, so that 
+ * they can be replayed later as regression inputs. Slow messages are handed to a 
+ * bounded queue, and written to disk by a background thread, so the classifying 
+ * thread never blocks; if the queue is full the message is dropped and counted. 
+ * The queue is bounded by the size of the messages waiting as well as their 
+ * number, as the slowest messages are often the largest, so a burst of them 
+ * does not hold more than the byte limit on the heap (or a single message, if 
+ * it is larger than the limit on its own). 
+ * 
+ * The messages are written to a ring of segment files in the capture directory. 
+ * Each segment is a pair of files,
+ * 
+ * slow-N.txt		The raw messages, in the corpus format (%%%%%, verdict, text).
+ * slow-N.meta		One line per message, giving
+ * 					time|total|mime|tokenize|lookup|score (ns)|parse path|size|truncated|verdict
+ * 
+ * When a segment reaches its maximum size the next segment is started, and once 
+ * all the segments are used the oldest is overwritten. 
+ */
+
+public class SlowMessageLog {
+
+	private File directory;
+	private long budgetNanos;
+	private int segmentCount;
+	private long segmentBytes;
+	
+	//The messages waiting to be written, and their total size
+	private ArrayBlockingQueue<Entry> queue;
+	private long queueBytes;
+	private AtomicLong queuedBytes;
+	
+	//The current segment files, their index and size
+	private BufferedWriter textOut, metaOut;
+	private int segment;
+	private long segmentSize;
+	
+	private Thread writer;
+	private volatile boolean running;
+	
+	private AtomicLong captured, dropped;
+	
+	/**
+	 * Creates the log, and starts the background writer thread, with at most 
+	 * one segment's worth of messages waiting to be written.
+	 * 
+	 * @param directory The directory the segment files are written to.
+	 * @param budgetNanos The latency budget; slower messages are captured.
+	 * @param segmentCount The number of segments in the ring.
+	 * @param segmentBytes The maximum size of the messages in each segment.
+	 * @param queueCapacity The number of messages that can be waiting to be written.
+	 */
+	public SlowMessageLog(File directory, long budgetNanos, int segmentCount, long segmentBytes, int queueCapacity)
+	{
+		this(directory, budgetNanos, segmentCount, segmentBytes, queueCapacity, segmentBytes);
+	}
+	
+	/**
+	 * Creates the log, and starts the background writer thread. 
+	 * 
+	 * @param directory The directory the segment files are written to.
+	 * @param budgetNanos The latency budget; slower messages are captured.
+	 * @param segmentCount The number of segments in the ring.
+	 * @param segmentBytes The maximum size of the messages in each segment.
+	 * @param queueCapacity The number of messages that can be waiting to be written.
+	 * @param queueBytes The maximum size of the messages waiting to be written.
+	 */
+	public SlowMessageLog(File directory, long budgetNanos, int segmentCount, long segmentBytes, int queueCapacity, long queueBytes)
+	{
+		this.directory = directory;
+		this.budgetNanos = budgetNanos;
+		this.segmentCount = segmentCount;
+		this.segmentBytes = segmentBytes;
+		this.queueBytes = queueBytes;
+		
+		queue = new ArrayBlockingQueue<Entry>(queueCapacity);
+		queuedBytes = new AtomicLong();
+		captured = new AtomicLong();
+		dropped = new AtomicLong();
+		
+		directory.mkdirs();
+		segment = -1;
+		running = true;
+		
+		writer = new Thread(new Runnable() {
+			public void run()
+			{
+				writeEntries();
+			}
+		}, "slow-message-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * @param nanos The time taken to classify a message.
+	 * @return True if the time is over the latency budget.
+	 */
+	public boolean isSlow(long nanos)
+	{
+		return nanos > budgetNanos;
+	}
+	
+	/**
+	 * Queues a slow message for writing. This never blocks; if the queue is 
+	 * full, or the message would take the waiting messages over the byte 
+	 * limit, the message is dropped. 
+	 * 
+	 * @param rawText The raw message text.
+	 * @param message The parsed message.
+	 * @param verdict The classification of the message, "SPAM" or "HAM".
+	 * @param stageNanos The total, mime, tokenize, lookup and score times, in nanoseconds.
+	 * @return True if the message was queued, false if it was dropped.
+	 */
+	public boolean offer(String rawText, Message message, String verdict, long[] stageNanos)
+	{
+		//Reserve the message's size, allowing a single message over the limit into an empty queue
+		long size = rawText.length();
+		long current = queuedBytes.get();
+		while(current == 0 || current+size <= queueBytes)
+		{
+			if(queuedBytes.compareAndSet(current, current+size))
+			{
+				Entry entry = new Entry(System.currentTimeMillis(), rawText, verdict, stageNanos, 
+						message.getParsePath(), message.getSize(), message.isTruncated());
+				
+				if(queue.offer(entry))
+				{
+					return true;
+				}
+				
+				queuedBytes.addAndGet(-size);
+				break;
+			}
+			current = queuedBytes.get();
+		}
+		
+		dropped.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * The writer thread loop, writing each queued message to the current segment.
+	 */
+	private void writeEntries()
+	{
+		while(running || !queue.isEmpty())
+		{
+			try
+			{
+				Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+				
+				if(entry != null)
+				{
+					try
+					{
+						write(entry);
+					}
+					finally
+					{
+						queuedBytes.addAndGet(-entry.rawText.length());
+					}
+					
+					//Flush once the queue has been drained
+					if(queue.isEmpty())
+					{
+						textOut.flush();
+						metaOut.flush();
+					}
+				}
+			}
+			catch(InterruptedException ex)
+			{
+				running = false;
+			}
+			catch(IOException io)
+			{
+				io.printStackTrace();
+			}
+		}
+		
+		closeSegment();
+	}
+	
+	/**
+	 * Writes a single message, starting a new segment if needed.
+	 */
+	private void write(Entry entry) throws IOException
+	{
+		if(textOut == null || segmentSize >= segmentBytes)
+		{
+			nextSegment();
+		}
+		
+		textOut.write(CorpusReader.DELIMITER+"\n"+entry.verdict+"\n");
+		textOut.write(entry.rawText);
+		if(!entry.rawText.endsWith("\n"))
+		{
+			textOut.write("\n");
+		}
+		
+		StringBuilder meta = new StringBuilder();
+		meta.append(entry.time);
+		for(int i=0; i<entry.stageNanos.length; i++)
+		{
+			meta.append('|').append(entry.stageNanos[i]);
+		}
+		meta.append('|').append(entry.parsePath).append('|').append(entry.size);
+		meta.append('|').append(entry.truncated).append('|').append(entry.verdict).append('\n');
+		metaOut.write(meta.toString());
+		
+		segmentSize += entry.rawText.length();
+		captured.incrementAndGet();
+	}
+	
+	/**
+	 * Closes the current segment and opens the next one in the ring, 
+	 * overwriting any existing files.
+	 */
+	private void nextSegment() throws IOException
+	{
+		closeSegment();
+		
+		segment = (segment+1) % segmentCount;
+		segmentSize = 0;
+		
+		textOut = new BufferedWriter(new FileWriter(new File(directory, "slow-"+segment+".txt")));
+		metaOut = new BufferedWriter(new FileWriter(new File(directory, "slow-"+segment+".meta")));
+	}
+	
+	private void closeSegment()
+	{
+		try
+		{
+			if(textOut != null)
+			{
+				textOut.close();
+				metaOut.close();
+			}
+		}
+		catch(IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Stops the writer thread, once all the queued messages have been written.
+	 */
+	public void close()
+	{
+		running = false;
+		
+		try
+		{
+			writer.join();
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return The number of slow messages written to disk.
+	 */
+	public long getCapturedCount()
+	{
+		return captured.get();
+	}
+	
+	/**
+	 * @return The number of slow messages dropped because the queue was full, or over its byte limit.
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+	
+	/**
+	 * A slow message waiting to be written. 
+	 */
+	private static class Entry
+	{
+		private long time;
+		private String rawText, verdict, parsePath;
+		private long[] stageNanos;
+		private int size;
+		private boolean truncated;
+		
+		Entry(long time, String rawText, String verdict, long[] stageNanos, String parsePath, int size, boolean truncated)
+		{
+			this.time = time;
+			this.rawText = rawText;
+			this.verdict = verdict;
+			this.stageNanos = stageNanos;
+			this.parsePath = parsePath;
+			this.size = size;
+			this.truncated = truncated;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package classifier.utils;
+
+/**
+ * Exposes the latency histogram of a single stage over JMX. Only this stage is 
+ * merged from the sources of the registry, and the merged histogram is kept for 
+ * a second, so that reading every attribute at once, e.g., from JConsole, merges 
+ * the stage once rather than once per attribute. 
+ */
+public class StageMetrics implements StageMetricsMBean
+{
+	//The time a merged histogram is used for, in nanoseconds
+	private static final long SNAPSHOT_NANOS = 1000000000L;
+	
+	private MetricsRegistry registry;
+	private String stage;
+	
+	//The last merged histogram, and the time it was merged
+	private Histogram snapshot;
+	private long snapshotTime;
+	
+	public StageMetrics(MetricsRegistry registry, String stage)
+	{
+		this.registry = registry;
+		this.stage = stage;
+	}
+	
+	private synchronized Histogram getHistogram()
+	{
+		long now = System.nanoTime();
+		if((snapshot == null)||(now-snapshotTime > SNAPSHOT_NANOS))
+		{
+			snapshot = registry.getStage(stage);
+			snapshotTime = now;
+		}
+		return snapshot;
+	}
+	
+	public long getCount()
+	{
+		return getHistogram().getCount();
+	}
+	
+	public double getMean()
+	{
+		return getHistogram().getMean()/1000.0;
+	}
+	
+	public double getP50()
+	{
+		return getHistogram().getPercentile(50.0)/1000.0;
+	}
+	
+	public double getP90()
+	{
+		return getHistogram().getPercentile(90.0)/1000.0;
+	}
+	
+	public double getP99()
+	{
+		return getHistogram().getPercentile(99.0)/1000.0;
+	}
+	
+	public double getP999()
+	{
+		return getHistogram().getPercentile(99.9)/1000.0;
+	}
+	
+	public double getMax()
+	{
+		return getHistogram().getMax()/1000.0;
+	}
+}
@@ -0,0 +1,16 @@
+package classifier.utils;
+
+/**
+ * The JMX management interface for the latency of a single stage, e.g., 
+ * MIME parsing, in microseconds.
+ */
+public interface StageMetricsMBean
+{
+		public long getCount();
+		public double getMean();
+		public double getP50();
+		public double getP90();
+		public double getP99();
+		public double getP999();
+		public double getMax();
+}
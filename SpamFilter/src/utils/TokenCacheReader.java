@@ -0,0 +1,221 @@
+package classifier.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Sequential reader for the token cache files written by TokenCacheWriter. The 
+ * file is memory-mapped in large windows, so that very large corpora can be read 
+ * without copying the data through the Java heap. The dictionary is loaded when 
+ * the file is opened, and the messages are then read one at a time using next().
+ */
+
+public class TokenCacheReader {
+
+	//The size of each mapped region of the file
+	private static final int WINDOW_SIZE = 64*1024*1024;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private RandomAccessFile file;
+	private FileChannel channel;
+	
+	//The currently mapped region, and its offset in the file
+	private MappedByteBuffer window;
+	private long windowStart;
+	
+	private long dictionaryOffset, messageCount, messagesRead;
+	private TokenDictionary dictionary;
+	
+	/**
+	 * Opens the cache file and reads its dictionary.
+	 * 
+	 * @param cacheFile The cache file.
+	 * @throws IOException If the file cannot be read, or is not a token cache.
+	 */
+	public TokenCacheReader(File cacheFile) throws IOException
+	{
+		file = new RandomAccessFile(cacheFile, "r");
+		channel = file.getChannel();
+		
+		ByteBuffer header = ByteBuffer.allocate(TokenCacheWriter.HEADER_SIZE);
+		channel.read(header, 0);
+		header.flip();
+		
+		if(header.remaining() < TokenCacheWriter.HEADER_SIZE || header.getInt() != TokenCacheWriter.MAGIC)
+		{
+			file.close();
+			throw new IOException(cacheFile.getAbsolutePath()+" is not a token cache file");
+		}
+		
+		int version = header.getInt();
+		if(version != TokenCacheWriter.VERSION)
+		{
+			file.close();
+			throw new IOException("Unsupported token cache version "+version);
+		}
+		
+		dictionaryOffset = header.getLong();
+		messageCount = header.getLong();
+
+		//The writer only sets the dictionary offset when it is closed
+		if(dictionaryOffset < TokenCacheWriter.HEADER_SIZE || dictionaryOffset > channel.size())
+		{
+			file.close();
+			throw new IOException(cacheFile.getAbsolutePath()+" is an incomplete token cache, its writer was not closed");
+		}
+
+		readDictionary();
+		
+		//Position the reader at the first message
+		map(TokenCacheWriter.HEADER_SIZE);
+		messagesRead = 0;
+	}
+	
+	/**
+	 * Checks whether a file is a token cache, rather than a raw text corpus.
+	 * 
+	 * @param file The file to check.
+	 * @return True if the file starts with the token cache identifier.
+	 */
+	public static boolean isCacheFile(File file)
+	{
+		try
+		{
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try
+			{
+				return (in.length() >= TokenCacheWriter.HEADER_SIZE)&&(in.readInt() == TokenCacheWriter.MAGIC);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException ex)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Reads the next message from the cache. 
+	 * 
+	 * @return The next message, or null once all the messages have been read.
+	 * @throws IOException If there is an error reading the file.
+	 */
+	public TokenizedMessage next() throws IOException
+	{
+		if(messagesRead == messageCount)
+		{
+			return null;
+		}
+		
+		byte type = readByte();
+		int wordCount = readVarint();
+		int[] ids = new int[readVarint()];
+		
+		int previous = 0;
+		for(int i=0; i<ids.length; i++)
+		{
+			previous += readVarint();
+			ids[i] = previous;
+		}
+		
+		messagesRead++;
+		return new TokenizedMessage(type, wordCount, ids);
+	}
+	
+	/**
+	 * Reads the dictionary stored at the end of the file. 
+	 */
+	private void readDictionary() throws IOException
+	{
+		map(dictionaryOffset);
+		dictionary = new TokenDictionary();
+		
+		int size = readVarint();
+		byte[] bytes = new byte[64];
+		
+		for(int i=0; i<size; i++)
+		{
+			int length = readVarint();
+			if(bytes.length < length)
+			{
+				bytes = new byte[length];
+			}
+			
+			for(int j=0; j<length; j++)
+			{
+				bytes[j] = readByte();
+			}
+			
+			dictionary.getId(new String(bytes, 0, length, UTF8));
+		}
+	}
+	
+	/**
+	 * Maps the window of the file starting at the given offset.
+	 */
+	private void map(long offset) throws IOException
+	{
+		long length = Math.min(WINDOW_SIZE, channel.size()-offset);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		windowStart = offset;
+	}
+	
+	private byte readByte() throws IOException
+	{
+		if(!window.hasRemaining())
+		{
+			map(windowStart+window.position());
+		}
+		return window.get();
+	}
+	
+	/**
+	 * Reads an unsigned variable-length integer, seven bits at a time.
+	 */
+	private int readVarint() throws IOException
+	{
+		int value = 0;
+		int shift = 0;
+		byte b;
+		
+		do
+		{
+			b = readByte();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while((b & 0x80) != 0);
+		
+		return value;
+	}
+	
+	/**
+	 * @return The dictionary giving the word string for each id.
+	 */
+	public TokenDictionary getDictionary()
+	{
+		return dictionary;
+	}
+	
+	/**
+	 * @return The total number of messages in the cache.
+	 */
+	public long getMessageCount()
+	{
+		return messageCount;
+	}
+	
+	public void close() throws IOException
+	{
+		file.close();
+	}
+}
@@ -0,0 +1,186 @@
+package classifier.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a tokenized corpus to a cache file, so that training and evaluation can 
+ * skip the MIME parsing and cleaning of each message. The file has the format, 
+ * 
+ * header		magic|version|dictionary offset|message count
+ * messages		type|word count|# ids|delta-coded sorted ids
+ * dictionary	# words|(length|UTF-8 bytes) for each word, in id order
+ * 
+ * All counts and ids are written as variable-length integers. The dictionary is 
+ * written last, once all the messages have been added, and the header is then 
+ * updated with its offset. 
+ */
+
+public class TokenCacheWriter {
+
+	//Identifies the file as a token cache
+	public static final int MAGIC = 0x53465443;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 24;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	
+	//The dictionary shared by all the messages
+	private TokenDictionary dictionary;
+	private long messageCount;
+	
+	/**
+	 * Creates the cache file, overwriting any existing file. 
+	 * 
+	 * @param outputFile The cache file to be written.
+	 * @throws IOException If the file cannot be created.
+	 */
+	public TokenCacheWriter(File outputFile) throws IOException
+	{
+		file = new RandomAccessFile(outputFile, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		
+		buffer = ByteBuffer.allocate(1024*1024);
+		dictionary = new TokenDictionary();
+		messageCount = 0;
+		
+		//Write a placeholder header, updated when the file is closed
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(0);
+		buffer.putLong(0);
+	}
+	
+	/**
+	 * Adds a parsed message to the cache. 
+	 * 
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 * @param message The parsed message.
+	 * @throws IOException If there is an error writing to the file.
+	 */
+	public void write(String messageType, Message message) throws IOException
+	{
+		write(new TokenizedMessage(messageType, message, dictionary));
+	}
+	
+	/**
+	 * Adds a tokenized message to the cache. The ids must have come from 
+	 * this writer's dictionary. 
+	 * 
+	 * @param message The tokenized message.
+	 * @throws IOException If there is an error writing to the file.
+	 */
+	public void write(TokenizedMessage message) throws IOException
+	{
+		int[] ids = message.getIds();
+		
+		ensure(1 + 5*(ids.length+2));
+		buffer.put(message.getType());
+		putVarint(message.getWordCount());
+		putVarint(ids.length);
+		
+		int previous = 0;
+		for(int i=0; i<ids.length; i++)
+		{
+			putVarint(ids[i]-previous);
+			previous = ids[i];
+		}
+		
+		messageCount++;
+	}
+	
+	/**
+	 * Writes the dictionary, updates the header and closes the file. 
+	 * 
+	 * @throws IOException If there is an error writing to the file.
+	 */
+	public void close() throws IOException
+	{
+		flush();
+		long dictionaryOffset = channel.position();
+		
+		ensure(5);
+		putVarint(dictionary.size());
+		
+		for(int i=0; i<dictionary.size(); i++)
+		{
+			byte[] bytes = dictionary.getWord(i).getBytes(UTF8);
+			ensure(5+bytes.length);
+			putVarint(bytes.length);
+			buffer.put(bytes);
+		}
+		
+		flush();
+		
+		//Update the header with the dictionary offset and message count
+		ByteBuffer header = ByteBuffer.allocate(16);
+		header.putLong(dictionaryOffset);
+		header.putLong(messageCount);
+		header.flip();
+		channel.write(header, 8);
+		
+		file.close();
+	}
+	
+	/**
+	 * @return The dictionary of the words written so far.
+	 */
+	public TokenDictionary getDictionary()
+	{
+		return dictionary;
+	}
+	
+	public long getMessageCount()
+	{
+		return messageCount;
+	}
+	
+	/**
+	 * Makes sure there is room in the buffer for the given number of bytes, 
+	 * writing the buffer to the file if not. 
+	 */
+	private void ensure(int bytes) throws IOException
+	{
+		if(buffer.remaining() < bytes)
+		{
+			flush();
+			
+			if(buffer.capacity() < bytes)
+			{
+				buffer = ByteBuffer.allocate(bytes);
+			}
+		}
+	}
+	
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Writes an unsigned variable-length integer, seven bits at a time.
+	 */
+	private void putVarint(int value)
+	{
+		while((value & ~0x7F) != 0)
+		{
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+}
@@ -0,0 +1,97 @@
+package classifier.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Maps each distinct word to a sequential integer id, and back again. The 
+ * dictionary is shared by all the messages in a tokenized corpus, so each 
+ * word string is stored only once.
+ */
+
+public class TokenDictionary {
+
+	private HashMap<String, Integer> ids;
+	private ArrayList<String> words;
+	
+	//The size of the word strings and their byte arrays, for getRetainedSize()
+	private long stringBytes;
+	
+	public TokenDictionary()
+	{
+		ids = new HashMap<String, Integer>();
+		words = new ArrayList<String>();
+	}
+	
+	/**
+	 * Gets the id of the word, adding it to the dictionary if it is new.
+	 * 
+	 * @param word The word string.
+	 * @return The id of the word.
+	 */
+	public int getId(String word)
+	{
+		Integer id = ids.get(word);
+		
+		if(id == null)
+		{
+			id = words.size();
+			ids.put(word, id);
+			words.add(word);
+			stringBytes += 24 + ((16 + word.length() + 7) & ~7L);
+		}
+		
+		return id;
+	}
+	
+	/**
+	 * Gets the id of the word, without adding it to the dictionary. 
+	 * 
+	 * @param word The word string.
+	 * @return The id of the word, or -1 if it is not in the dictionary.
+	 */
+	public int lookup(String word)
+	{
+		Integer id = ids.get(word);
+		
+		if(id == null)
+		{
+			return -1;
+		}
+		
+		return id;
+	}
+	
+	/**
+	 * @param id The id of the word.
+	 * @return The word string with the given id.
+	 */
+	public String getWord(int id)
+	{
+		return words.get(id);
+	}
+	
+	/**
+	 * @return The number of words in the dictionary.
+	 */
+	public int size()
+	{
+		return words.size();
+	}
+	
+	/**
+	 * Estimates the heap retained by the dictionary, i.e., the hashmap table and 
+	 * list array, and the entry, Integer id, String and byte array of each word. 
+	 * This assumes a 64-bit JVM with compressed references and compact strings.
+	 * 
+	 * @return The estimated retained size of the dictionary, in bytes.
+	 */
+	public long getRetainedSize()
+	{
+		//The table of references, sized to the next power of two above size/0.75
+		long tableSize = Integer.highestOneBit(Math.max(1, (int) (words.size()/0.75))*2-1);
+		
+		//HashMap.Node (32) and Integer (16) per word, and the list's array of references
+		return 2*16 + 16+4*tableSize + 16+4L*words.size() + 48L*words.size() + stringBytes;
+	}
+}
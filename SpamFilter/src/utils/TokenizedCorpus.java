@@ -0,0 +1,94 @@
+package classifier.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * An in-memory corpus of tokenized messages, sharing a single dictionary. This 
+ * is used where the same messages are used many times over, e.g., for cross-
+ * validation, so that each message only has to be parsed once. The corpus can 
+ * be loaded from either a raw corpus file or a token cache file. 
+ */
+
+public class TokenizedCorpus {
+
+	private TokenDictionary dictionary;
+	private ArrayList<TokenizedMessage> messages;
+	
+	public TokenizedCorpus()
+	{
+		dictionary = new TokenDictionary();
+		messages = new ArrayList<TokenizedMessage>();
+	}
+	
+	/**
+	 * Loads all the messages in a raw corpus or token cache file into memory. 
+	 * 
+	 * @param file The corpus or token cache file.
+	 * @return The tokenized corpus.
+	 * @throws IOException If there is an error reading the file.
+	 */
+	public static TokenizedCorpus load(File file) throws IOException
+	{
+		TokenizedCorpus corpus = new TokenizedCorpus();
+		
+		if(TokenCacheReader.isCacheFile(file))
+		{
+			TokenCacheReader reader = new TokenCacheReader(file);
+			corpus.dictionary = reader.getDictionary();
+			
+			TokenizedMessage message;
+			while((message = reader.next()) != null)
+			{
+				corpus.messages.add(message);
+			}
+			
+			reader.close();
+		}
+		else
+		{
+			CorpusReader reader = new CorpusReader(file);
+			
+			while(reader.next())
+			{
+				corpus.add(reader.getMessageType(), new Message(reader.getText()));
+				
+				if(corpus.size()%2500 == 0)
+				{
+					System.out.println("Parsed "+corpus.size()+" messages");
+				}
+			}
+			
+			reader.close();
+		}
+		
+		return corpus;
+	}
+	
+	/**
+	 * Adds a parsed message to the corpus. 
+	 * 
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 * @param message The parsed message.
+	 */
+	public void add(String messageType, Message message)
+	{
+		messages.add(new TokenizedMessage(messageType, message, dictionary));
+	}
+	
+	public TokenizedMessage get(int index)
+	{
+		return messages.get(index);
+	}
+	
+	public int size()
+	{
+		return messages.size();
+	}
+	
+	public TokenDictionary getDictionary()
+	{
+		return dictionary;
+	}
+}
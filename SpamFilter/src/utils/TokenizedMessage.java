@@ -0,0 +1,121 @@
+package classifier.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Data object holding a parsed message as stored in the token cache, i.e., 
+ * its type, its word count, and the ids of the unique words it contains. 
+ * The ids refer to the TokenDictionary shared by the whole corpus. 
+ */
+
+public class TokenizedMessage {
+
+	//The message types, as stored in the cache
+	public static final byte HAM = 0;
+	public static final byte SPAM = 1;
+	public static final byte UNKNOWN = 2;
+	
+	private byte type;
+	private int wordCount;
+	
+	//The sorted ids of the unique words in the message
+	private int[] ids;
+	
+	public TokenizedMessage(byte type, int wordCount, int[] ids)
+	{
+		this.type = type;
+		this.wordCount = wordCount;
+		this.ids = ids;
+	}
+	
+	/**
+	 * Creates a tokenized message from the words of a parsed message, adding 
+	 * any new words to the dictionary.
+	 * 
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 * @param message The parsed message.
+	 * @param dictionary The dictionary giving the id of each word.
+	 */
+	public TokenizedMessage(String messageType, Message message, TokenDictionary dictionary)
+	{
+		type = getType(messageType);
+		wordCount = message.getWordCount();
+		
+		Set<String> wordSet = message.getWordSet();
+		ids = new int[wordSet.size()];
+		
+		int i = 0;
+		Iterator<String> iterator = wordSet.iterator();
+		while(iterator.hasNext())
+		{
+			ids[i++] = dictionary.getId(iterator.next());
+		}
+		
+		Arrays.sort(ids);
+	}
+	
+	/**
+	 * Converts a message type string to its stored value.
+	 * 
+	 * @param messageType The message type, either "SPAM" or "HAM".
+	 * @return The byte value of the type.
+	 */
+	public static byte getType(String messageType)
+	{
+		if("SPAM".equals(messageType))
+		{
+			return SPAM;
+		}
+		else if("HAM".equals(messageType))
+		{
+			return HAM;
+		}
+		
+		return UNKNOWN;
+	}
+	
+	public byte getType()
+	{
+		return type;
+	}
+	
+	/**
+	 * @return The message type as a string, i.e., "SPAM", "HAM" or "UNKNOWN".
+	 */
+	public String getMessageType()
+	{
+		if(type == SPAM)
+		{
+			return "SPAM";
+		}
+		else if(type == HAM)
+		{
+			return "HAM";
+		}
+		
+		return "UNKNOWN";
+	}
+	
+	public boolean isSpam()
+	{
+		return type == SPAM;
+	}
+	
+	/**
+	 * @return The number of words in the message, including duplicates.
+	 */
+	public int getWordCount()
+	{
+		return wordCount;
+	}
+	
+	/**
+	 * @return The sorted ids of the unique words in the message.
+	 */
+	public int[] getIds()
+	{
+		return ids;
+	}
+}
@@ -0,0 +1,160 @@
+package classifier.utils;
+
+import java.util.Set;
+
+/**
+ * Streaming tokenizer used by the Message class. Characters are fed in one
+ * at a time, and any letter or non-ASCII numeral is accumulated into the current
+ * token (in lower-case). Every other character ends the current token. This is
+ * equivalent to removing punctuation and digits from the text, converting it to
+ * lower-case and splitting it on whitespace, without building the intermediate
+ * Strings. Only tokens of between 3 and 15 characters are added to the word set.
+ */
+
+public class Tokenizer {
+
+	//Tokens outside of this range are discarded
+	private static final int MIN_LENGTH = 3;
+	private static final int MAX_LENGTH = 15;
+
+	//The set of unique words the tokens are added to
+	private Set<String> wordSet;
+
+	//The parsing limits applied to this message
+	private ParserConfig config;
+
+	//The characters in the current token
+	private char[] buffer;
+	private int length;
+
+	//The number of tokens added to the word set
+	private int tokenCount;
+	private boolean truncated;
+
+	/**
+	 * Creates a tokenizer that adds the words it finds to the given set.
+	 *
+	 * @param wordSet The set storing the unique words.
+	 * @param config The parsing limits, used to cap the number of tokens.
+	 */
+	public Tokenizer(Set<String> wordSet, ParserConfig config)
+	{
+		this.wordSet = wordSet;
+		this.config = config;
+
+		buffer = new char[MAX_LENGTH+1];
+		length = 0;
+		tokenCount = 0;
+		truncated = false;
+	}
+
+	/**
+	 * Adds a single character to the tokenizer.
+	 *
+	 * @param c The next character of the text.
+	 */
+	public void add(char c)
+	{
+		if(isWordChar(c))
+		{
+			//Keep one character beyond the maximum, to recognise over-long tokens
+			if(length <= MAX_LENGTH)
+			{
+				buffer[length] = Character.toLowerCase(c);
+			}
+			length++;
+		}
+		else
+		{
+			endToken();
+		}
+	}
+
+	/**
+	 * Adds a range of characters to the tokenizer.
+	 *
+	 * @param text The text to be tokenized.
+	 * @param start The index of the first character.
+	 * @param end The index after the last character.
+	 */
+	public void add(CharSequence text, int start, int end)
+	{
+		for(int i=start; i<end && !truncated; i++)
+		{
+			add(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Adds all the characters in the text to the tokenizer.
+	 *
+	 * @param text The text to be tokenized.
+	 */
+	public void add(CharSequence text)
+	{
+		add(text, 0, text.length());
+	}
+
+	/**
+	 * Ends the current token (if any), adding it to the word set if it
+	 * is of a valid length.
+	 */
+	public void endToken()
+	{
+		if((length >= MIN_LENGTH)&&(length <= MAX_LENGTH)&&(!truncated))
+		{
+			if(config.exceedsTokens(tokenCount))
+			{
+				truncated = true;
+				config.recordTokenLimit();
+			}
+			else
+			{
+				wordSet.add(new String(buffer, 0, length));
+				tokenCount++;
+			}
+		}
+		length = 0;
+	}
+
+	/**
+	 * Checks whether a character forms part of a word, i.e., it is a letter
+	 * or a number, other than the ASCII digits.
+	 *
+	 * @param c The character to check.
+	 * @return True if the character is part of a word, false otherwise.
+	 */
+	private boolean isWordChar(char c)
+	{
+		if(c < 128)
+		{
+			return ((c >= 'a')&&(c <= 'z'))||((c >= 'A')&&(c <= 'Z'));
+		}
+
+		switch(Character.getType(c))
+		{
+			case Character.DECIMAL_DIGIT_NUMBER:
+			case Character.LETTER_NUMBER:
+			case Character.OTHER_NUMBER:
+				return true;
+			default:
+				return Character.isLetter(c);
+		}
+	}
+
+	/**
+	 * @return The number of tokens added to the word set.
+	 */
+	public int getTokenCount()
+	{
+		return tokenCount;
+	}
+
+	/**
+	 * @return True if the token limit was reached, false otherwise.
+	 */
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+}
@@ -0,0 +1,35 @@
+package classifier.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering the processing of a single training message 
+ * by BuildFilter, i.e., parsing and updating the word counts. 
+ */
+@Name("classifier.TrainingMessage")
+@Label("Training Message")
+@Category("Spam Classifier")
+@Description("Processing of a single training message")
+@StackTrace(false)
+public class TrainingMessageEvent extends Event
+{
+	@Label("Message Type")
+	public String messageType;
+	
+	@Label("Message Size")
+	@DataAmount
+	public int messageSize;
+	
+	@Label("Parse Path")
+	public String parsePath;
+	
+	@Label("Token Count")
+	@Description("The number of unique words in the message")
+	public int tokenCount;
+}